@@ -137,12 +137,7 @@ public class TempRecordPage extends RecordPage {
 	private int compareRecords(int id1, int id2, List<String> sortFlds, List<Integer> sortDirs) {
 		for (int i = 0; i < sortFlds.size(); i++) {
 			int dir = sortDirs.get(i);
-			String fldName = sortFlds.get(i);
-			moveToId(id1);
-			Constant val1 = getVal(fldName);
-			moveToId(id2);
-			Constant val2 = getVal(fldName);
-			int result = val1.compareTo(val2);
+			int result = compareVal(id1, id2, sortFlds.get(i));
 			if (result != 0)
 				return dir == DIR_ASC ? result : -result;
 		}
@@ -31,8 +31,12 @@ import org.vanilladb.core.query.planner.opt.HeuristicQueryPlanner;
 import org.vanilladb.core.server.task.TaskMgr;
 import org.vanilladb.core.sql.storedprocedure.SampleStoredProcedureFactory;
 import org.vanilladb.core.sql.storedprocedure.StoredProcedureFactory;
+import org.vanilladb.core.storage.buffer.BufferPoolDumpTask;
+import org.vanilladb.core.storage.buffer.BufferWriterTask;
 import org.vanilladb.core.storage.file.FileMgr;
 import org.vanilladb.core.storage.log.LogMgr;
+import org.vanilladb.core.storage.log.NVMLogCheckpointTask;
+import org.vanilladb.core.storage.log.NVMLogDrainTask;
 import org.vanilladb.core.storage.log.NVMLogMgr;
 import org.vanilladb.core.storage.metadata.CatalogMgr;
 import org.vanilladb.core.storage.metadata.statistics.StatMgr;
@@ -51,8 +55,11 @@ import org.vanilladb.core.util.Profiler;
  * {@link #initTaskMgr() initTaskMgr},
  * {@link #initTxMgr() initTxMgr},
  * {@link #initCatalogMgr(boolean, Transaction) initCatalogMgr},
- * {@link #initStatMgr(Transaction) initStatMgr}, and
- * {@link #initCheckpointingTask() initCheckpointingTask} provide limited
+ * {@link #initStatMgr(Transaction) initStatMgr},
+ * {@link #initCheckpointingTask() initCheckpointingTask},
+ * {@link #initNVMLogDrainingTask() initNVMLogDrainingTask},
+ * {@link #initBufferWritingTask() initBufferWritingTask}, and
+ * {@link #initBufferPoolDumpTask() initBufferPoolDumpTask} provide limited
  * initialization, and are useful for debugging purposes.
  */
 public class VanillaDb {
@@ -155,11 +162,36 @@ public class VanillaDb {
 		// commit the initializing transaction
 		initTx.commit();
 
+		// reloading the blocks that were buffered before the restart
+		boolean doWarmUp = CoreProperties.getLoader().getPropertyAsBoolean(
+				VanillaDb.class.getName() + ".DO_BUFFER_POOL_WARM_UP", true);
+		if (!isDbNew && doWarmUp)
+			BufferPoolDumpTask.warmUp();
+
 		// initializing checkpointing task
 		boolean doCheckpointing = CoreProperties.getLoader().getPropertyAsBoolean(
 				VanillaDb.class.getName() + ".DO_CHECKPOINT", true);
 		if (doCheckpointing)
 			initCheckpointingTask();
+
+		// initializing NVM log reclaiming task
+		initNVMLogCheckpointingTask();
+
+		// initializing NVM log draining task
+		if (nvmLogMgr.isDraining())
+			initNVMLogDrainingTask();
+
+		// initializing background buffer writing task
+		boolean doBufferWriting = CoreProperties.getLoader().getPropertyAsBoolean(
+				VanillaDb.class.getName() + ".DO_BUFFER_WRITING", true);
+		if (doBufferWriting)
+			initBufferWritingTask();
+
+		// initializing buffer pool dumping task
+		boolean doBufferPoolDump = CoreProperties.getLoader().getPropertyAsBoolean(
+				VanillaDb.class.getName() + ".DO_BUFFER_POOL_DUMP", true);
+		if (doBufferPoolDump)
+			initBufferPoolDumpTask();
 		
 		// finish initialization
 		inited = true;
@@ -247,6 +279,37 @@ public class VanillaDb {
 		taskMgr.runTask(new CheckpointTask());
 	}
 
+	/**
+	 * Initialize a background task creating the checkpoints requested to
+	 * reclaim the space of the NVM log.
+	 */
+	public static void initNVMLogCheckpointingTask() {
+		taskMgr.runTask(new NVMLogCheckpointTask());
+	}
+
+	/**
+	 * Initialize a background task draining the NVM log to the log file.
+	 */
+	public static void initNVMLogDrainingTask() {
+		taskMgr.runTask(new NVMLogDrainTask());
+	}
+
+	/**
+	 * Initialize a background task writing the dirty buffers that are about to
+	 * be replaced.
+	 */
+	public static void initBufferWritingTask() {
+		taskMgr.runTask(new BufferWriterTask());
+	}
+
+	/**
+	 * Initialize a background task recording the blocks in the buffer pool,
+	 * which are reloaded after a restart.
+	 */
+	public static void initBufferPoolDumpTask() {
+		taskMgr.runTask(new BufferPoolDumpTask());
+	}
+
 	public static FileMgr fileMgr() {
 		return fileMgr;
 	}
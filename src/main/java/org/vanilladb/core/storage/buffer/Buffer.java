@@ -17,10 +17,11 @@ package org.vanilladb.core.storage.buffer;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
@@ -35,6 +36,22 @@ import org.vanilladb.core.storage.log.LogSeqNum;
  * the block has been pinned, whether the contents of the page have been
  * modified, and if so, the id of the modifying transaction and the LSN of the
  * corresponding log record.
+ * 
+ * <p>
+ * The pin count is packed with the status flags of the buffer into a single
+ * atomic state word, so that a resident block can be pinned and unpinned with
+ * a single CAS without taking any lock. A buffer can only be assigned to
+ * another block after its state word has been switched from unpinned to
+ * {@code REPLACING}, which makes any concurrent pin fail until the new block
+ * is in place.
+ * </p>
+ * 
+ * <p>
+ * Reads of the page are optimistic: every modification of the page also
+ * holds the write lock of a {@link StampedLock}, so a reader can copy a value
+ * without any lock and only falls back to the read lock if the page was being
+ * modified or has been modified in the meantime.
+ * </p>
  */
 public class Buffer {
 	
@@ -47,17 +64,31 @@ public class Buffer {
 	
 	private static final int LAST_LSN_OFFSET = 0;
 	private static final int DATA_START_OFFSET = LogSeqNum.SIZE;
+
+	// The layout of the state word
+	private static final int PIN_COUNT_MASK = (1 << 24) - 1;
+	private static final int DIRTY = 1 << 24;
+	private static final int REPLACING = 1 << 25;
 	
 	private Page contents = new Page();
-	private BlockId blk = null;
-	private int pins = 0;
+	private volatile BlockId blk = null;
+	private final AtomicInteger state = new AtomicInteger();
+	// Write-locked while the page is being modified
+	private final StampedLock versionLock = new StampedLock();
+	private long versionStamp;
 	private boolean isNew = false;
 	private Set<Long> modifiedBy = new HashSet<Long>();
 	// TODO: We use (-1, -1) for the default value. Will this be a problem ?
 	private LogSeqNum lastLsn = LogSeqNum.DEFAULT_VALUE;
+	// The LSN of the earliest logged modification that has not been flushed
+	private LogSeqNum recLsn = null;
+	// The partition of the buffer pool holding this buffer, and the index of
+	// this buffer in that partition
+	private final int partitionId;
+	private final int poolIndex;
 	
 	// Locks
-	private final ReadWriteLock internalLock = new ReentrantReadWriteLock();
+	private final ReentrantReadWriteLock internalLock = new ReentrantReadWriteLock();
 	private final Lock externalLock = new ReentrantLock();
 	private final Lock flushLock = new ReentrantLock();
 	
@@ -70,6 +101,21 @@ public class Buffer {
 	 * {@link VanillaDb#initFileAndLogMgr(String)} or is called first.
 	 */
 	Buffer() {
+		this(-1, -1);
+	}
+
+	/**
+	 * Creates a new buffer at the specified index of a buffer pool
+	 * partition.
+	 * 
+	 * @param partitionId
+	 *            the id of the partition
+	 * @param poolIndex
+	 *            the index of this buffer in the partition
+	 */
+	Buffer(int partitionId, int poolIndex) {
+		this.partitionId = partitionId;
+		this.poolIndex = poolIndex;
 	}
 
 	/**
@@ -85,6 +131,15 @@ public class Buffer {
 	 * @return the constant value at that offset
 	 */
 	public Constant getVal(int offset, Type type) {
+		// Optimistic read, validated by the version afterwards. The value is
+		// copied out of the page before the version is validated.
+		long stamp = tryOptimisticRead();
+		if (stamp != 0) {
+			Constant val = contents.peekVal(DATA_START_OFFSET + offset, type);
+			if (val != null && validate(stamp))
+				return val;
+		}
+
 		internalLock.readLock().lock();
 		try {
 			return contents.getVal(DATA_START_OFFSET + offset, type);
@@ -93,12 +148,133 @@ public class Buffer {
 		}
 	}
 	
+	/**
+	 * Returns the integer at the specified offset of this buffer's page,
+	 * without materializing it as a constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @return the integer at that offset
+	 */
+	public int getInt(int offset) {
+		long stamp = tryOptimisticRead();
+		if (stamp != 0) {
+			int val = contents.peekInt(DATA_START_OFFSET + offset);
+			if (validate(stamp))
+				return val;
+		}
+
+		internalLock.readLock().lock();
+		try {
+			return contents.getInt(DATA_START_OFFSET + offset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the long integer at the specified offset of this buffer's page,
+	 * without materializing it as a constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @return the long integer at that offset
+	 */
+	public long getLong(int offset) {
+		long stamp = tryOptimisticRead();
+		if (stamp != 0) {
+			long val = contents.peekLong(DATA_START_OFFSET + offset);
+			if (validate(stamp))
+				return val;
+		}
+
+		internalLock.readLock().lock();
+		try {
+			return contents.getLong(DATA_START_OFFSET + offset);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a stamp for an optimistic read, or 0 if the page is being
+	 * modified.
+	 */
+	private long tryOptimisticRead() {
+		return versionLock.tryOptimisticRead();
+	}
+
+	/**
+	 * Checks if the page has not been modified since the specified stamp was
+	 * returned by {@link #tryOptimisticRead()}. The check only reads the
+	 * version behind a load fence, so the readers of a page never write to a
+	 * shared cache line.
+	 */
+	private boolean validate(long stamp) {
+		return versionLock.validate(stamp);
+	}
+
+	/**
+	 * Returns the double at the specified offset of this buffer's page,
+	 * without materializing it as a constant.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @return the double at that offset
+	 */
+	public double getDouble(int offset) {
+		return Double.longBitsToDouble(getLong(offset));
+	}
+
+	/**
+	 * Compares two values of the same type in this buffer's page in place.
+	 * 
+	 * @param offset1
+	 *            the byte offset of the first value
+	 * @param offset2
+	 *            the byte offset of the second value
+	 * @param type
+	 *            the type of both values
+	 * @return the result of the comparison, as
+	 *         {@link Page#compareVal(int, int, Type)}
+	 */
+	public int compareVal(int offset1, int offset2, Type type) {
+		internalLock.readLock().lock();
+		try {
+			return contents.compareVal(DATA_START_OFFSET + offset1,
+					DATA_START_OFFSET + offset2, type);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a copy of the raw bytes at the specified offset of this buffer's
+	 * page.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param length
+	 *            the number of bytes to be copied
+	 * @return the bytes at that offset
+	 */
+	public byte[] getBytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+		internalLock.readLock().lock();
+		try {
+			contents.getBytes(DATA_START_OFFSET + offset, bytes);
+		} finally {
+			internalLock.readLock().unlock();
+		}
+		return bytes;
+	}
+
 	void setVal(int offset, Constant val) {
-		internalLock.writeLock().lock();
+		lockForModification();
 		try {
 			contents.setVal(DATA_START_OFFSET + offset, val);
 		} finally {
-			internalLock.writeLock().unlock();
+			unlockForModification();
 		}
 	}
 
@@ -119,17 +295,20 @@ public class Buffer {
 	 *            the LSN of the corresponding log record
 	 */
 	public void setVal(int offset, Constant val, long txNum, LogSeqNum lsn) {
-		internalLock.writeLock().lock();
+		lockForModification();
 		try {
 			modifiedBy.add(txNum);
+			setFlag(DIRTY);
 			if (lsn != null && lsn.compareTo(lastLsn) > 0)
 				lastLsn = lsn;
+			if (lsn != null && (recLsn == null || lsn.compareTo(recLsn) < 0))
+				recLsn = lsn;
 			
 			// Put the last LSN in front of the data
 			lastLsn.writeToPage(contents, LAST_LSN_OFFSET);
 			contents.setVal(DATA_START_OFFSET + offset, val);
 		} finally {
-			internalLock.writeLock().unlock();
+			unlockForModification();
 		}
 	}
 	
@@ -150,18 +329,29 @@ public class Buffer {
 	}
 
 	/**
-	 * Returns a block ID refers to the disk block that the buffer is pinned to.
+	 * Returns the LSN of the earliest log record whose modification on this
+	 * buffer has not been written to disk yet, i.e., the recLSN of the page
+	 * in the dirty page table.
 	 * 
-	 * @return a block ID
+	 * @return the recovery LSN, or null if there is no such modification
 	 */
-	public BlockId block() {
+	LogSeqNum recoveryLsn() {
 		internalLock.readLock().lock();
 		try {
-			return blk;
+			return recLsn;
 		} finally {
 			internalLock.readLock().unlock();
 		}
 	}
+
+	/**
+	 * Returns a block ID refers to the disk block that the buffer is pinned to.
+	 * 
+	 * @return a block ID
+	 */
+	public BlockId block() {
+		return blk;
+	}
 	
 	/**
 	 * Lock the flushing mechanism in order to prevent a thread
@@ -190,11 +380,11 @@ public class Buffer {
 	}
 
 	protected void close() {
-		internalLock.writeLock().lock();
+		lockForModification();
 		try {
 			contents.close();
 		} finally {
-			internalLock.writeLock().unlock();
+			unlockForModification();
 		}
 	}
 
@@ -211,7 +401,9 @@ public class Buffer {
 				VanillaDb.nvmLogMgr().flush(lastLsn);
 				contents.write(blk);
 				modifiedBy.clear();
+				recLsn = null;
 				isNew = false;
+				clearFlag(DIRTY);
 			}
 		} finally {
 			flushLock.unlock();
@@ -220,26 +412,48 @@ public class Buffer {
 	}
 
 	/**
-	 * Increases the buffer's pin count.
+	 * Increases the buffer's pin count, waiting if the buffer is being
+	 * assigned to another block.
+	 * 
+	 * @return the new pin count
 	 */
-	void pin() {
-		internalLock.writeLock().lock();
-		try {
-			pins++;
-		} finally {
-			internalLock.writeLock().unlock();
+	int pin() {
+		int pins;
+		while ((pins = tryPin()) < 0)
+			Thread.yield();
+		return pins;
+	}
+
+	/**
+	 * Increases the buffer's pin count unless the buffer is being assigned to
+	 * another block. The caller must check the block of the buffer after
+	 * pinning it, since the buffer may have been replaced before.
+	 * 
+	 * @return the new pin count, or -1 if the buffer is being replaced
+	 */
+	int tryPin() {
+		while (true) {
+			int s = state.get();
+			if ((s & REPLACING) != 0)
+				return -1;
+			if (state.compareAndSet(s, s + 1))
+				return (s & PIN_COUNT_MASK) + 1;
 		}
 	}
 
 	/**
 	 * Decreases the buffer's pin count.
+	 * 
+	 * @return the new pin count, or -1 if the buffer was not pinned
 	 */
-	void unpin() {
-		internalLock.writeLock().lock();
-		try {
-			pins--;
-		} finally {
-			internalLock.writeLock().unlock();
+	int unpin() {
+		while (true) {
+			int s = state.get();
+			// An extra unpin must not borrow from the status flags
+			if ((s & PIN_COUNT_MASK) == 0)
+				return -1;
+			if (state.compareAndSet(s, s - 1))
+				return (s & PIN_COUNT_MASK) - 1;
 		}
 	}
 
@@ -250,14 +464,44 @@ public class Buffer {
 	 * @return true if the buffer is pinned
 	 */
 	boolean isPinned() {
-		internalLock.readLock().lock();
-		try {
-			return pins > 0;
-		} finally {
-			internalLock.readLock().unlock();
+		return (state.get() & PIN_COUNT_MASK) > 0;
+	}
+
+	/**
+	 * Starts assigning this buffer to another block if it is not pinned. Until
+	 * {@link #finishReplacing()} is called, every attempt to pin this buffer
+	 * fails.
+	 * 
+	 * @return true if the buffer can be replaced; false if it is in use
+	 */
+	boolean tryStartReplacing() {
+		while (true) {
+			int s = state.get();
+			if ((s & (PIN_COUNT_MASK | REPLACING)) != 0)
+				return false;
+			if (state.compareAndSet(s, s | REPLACING))
+				return true;
 		}
 	}
 
+	/**
+	 * Finishes assigning this buffer to another block, and pins it for the
+	 * caller.
+	 */
+	void finishReplacing() {
+		state.addAndGet(1 - REPLACING);
+	}
+
+	/**
+	 * Returns true if the page of the buffer has not been written to its disk
+	 * block since it was modified or appended.
+	 * 
+	 * @return true if the buffer is dirty
+	 */
+	boolean isDirty() {
+		return (state.get() & DIRTY) != 0;
+	}
+
 	/**
 	 * Returns true if the buffer is dirty due to a modification by the
 	 * specified transaction.
@@ -284,15 +528,14 @@ public class Buffer {
 	 *            a block ID
 	 */
 	void assignToBlock(BlockId blk) {
-		internalLock.writeLock().lock();
+		lockForModification();
 		try {
 			flush();
 			this.blk = blk;
 			contents.read(blk);
-			pins = 0;
 			lastLsn = LogSeqNum.readFromPage(contents, LAST_LSN_OFFSET);
 		} finally {
-			internalLock.writeLock().unlock();
+			unlockForModification();
 		}
 	}
 
@@ -307,16 +550,16 @@ public class Buffer {
 	 *            a page formatter, used to initialize the page
 	 */
 	void assignToNew(String fileName, PageFormatter fmtr) {
-		internalLock.writeLock().lock();
+		lockForModification();
 		try {
 			flush();
 			fmtr.format(this);
 			blk = contents.append(fileName);
-			pins = 0;
 			isNew = true;
+			setFlag(DIRTY);
 			lastLsn = LogSeqNum.DEFAULT_VALUE;
 		} finally {
-			internalLock.writeLock().unlock();
+			unlockForModification();
 		}
 	}
 	
@@ -328,4 +571,55 @@ public class Buffer {
 	Page getUnderlyingPage() {
 		return contents;
 	}
+
+	/**
+	 * Returns the id of the buffer pool partition holding this buffer.
+	 * 
+	 * @return the id of the partition, or -1 if it is not in a buffer pool
+	 */
+	int partitionId() {
+		return partitionId;
+	}
+
+	/**
+	 * Returns the index of this buffer in its buffer pool partition.
+	 * 
+	 * @return the index of this buffer, or -1 if it is not in a buffer pool
+	 */
+	int poolIndex() {
+		return poolIndex;
+	}
+
+	/**
+	 * Takes the write lock and, unless it is reentered, the write lock of the
+	 * version so that optimistic readers do not trust what they read
+	 * meanwhile.
+	 */
+	private void lockForModification() {
+		internalLock.writeLock().lock();
+		if (internalLock.getWriteHoldCount() == 1)
+			versionStamp = versionLock.writeLock();
+	}
+
+	private void unlockForModification() {
+		if (internalLock.getWriteHoldCount() == 1)
+			versionLock.unlockWrite(versionStamp);
+		internalLock.writeLock().unlock();
+	}
+
+	private void setFlag(int flag) {
+		while (true) {
+			int s = state.get();
+			if ((s & flag) != 0 || state.compareAndSet(s, s | flag))
+				return;
+		}
+	}
+
+	private void clearFlag(int flag) {
+		while (true) {
+			int s = state.get();
+			if ((s & flag) == 0 || state.compareAndSet(s, s & ~flag))
+				return;
+		}
+	}
 }
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * A buffer access strategy that confines the replacements of a bulk operation,
+ * such as a large sequential scan or the materialization of a temporary
+ * table, to a small ring of buffers. Once the ring is full, the operation
+ * recycles its own least recently replaced buffer instead of asking the
+ * replacement policy for a victim, so it cannot push the working set of other
+ * transactions out of the buffer pool.
+ * <p>
+ * A ring buffer is only recycled if it still holds the block the operation
+ * put there and is not pinned by anyone. Otherwise, the victim is chosen by
+ * the replacement policy and takes its place in the ring. The blocks that are
+ * already buffered are pinned as usual.
+ * </p>
+ * <p>
+ * A strategy keeps the state of a single operation. It may be shared by the
+ * operation and its {@link ReadAhead read-ahead}, so the ring slots are
+ * reserved one at a time and the prefetched blocks take turns with the
+ * others.
+ * </p>
+ */
+public class BufferAccessStrategy {
+	private static final int RING_SIZE;
+
+	static {
+		RING_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				BufferAccessStrategy.class.getName() + ".RING_SIZE", 16);
+	}
+
+	private Buffer[] buffers;
+	private BlockId[] blocks;
+	private int cursor;
+
+	/**
+	 * Creates a strategy with a ring of the default size.
+	 */
+	public BufferAccessStrategy() {
+		this(RING_SIZE);
+	}
+
+	/**
+	 * Creates a strategy with a ring of the specified size.
+	 * 
+	 * @param ringSize
+	 *            the number of buffers in the ring
+	 */
+	public BufferAccessStrategy(int ringSize) {
+		if (ringSize <= 0)
+			throw new IllegalArgumentException("ring size must be positive");
+		buffers = new Buffer[ringSize];
+		blocks = new BlockId[ringSize];
+	}
+
+	/**
+	 * Returns the number of buffers in the ring.
+	 * 
+	 * @return the ring size
+	 */
+	public int ringSize() {
+		return buffers.length;
+	}
+
+	/**
+	 * Reserves the next slot of the ring, whose buffer is to be recycled.
+	 * 
+	 * @return the position of the slot
+	 */
+	synchronized int reserve() {
+		int slot = cursor;
+		cursor = (cursor + 1) % buffers.length;
+		return slot;
+	}
+
+	/**
+	 * Returns the ring buffer in the specified slot.
+	 * 
+	 * @param slot
+	 *            the position of the slot
+	 * @return the buffer, or null if the slot is not used yet
+	 */
+	synchronized Buffer victim(int slot) {
+		return buffers[slot];
+	}
+
+	/**
+	 * Returns the block that this strategy put in the buffer of the specified
+	 * slot.
+	 * 
+	 * @param slot
+	 *            the position of the slot
+	 * @return the block ID, or null if the slot is not used yet
+	 */
+	synchronized BlockId victimBlock(int slot) {
+		return blocks[slot];
+	}
+
+	/**
+	 * Records that the specified buffer has been assigned to the specified
+	 * block by this strategy, in the specified slot.
+	 * 
+	 * @param slot
+	 *            the position of the slot
+	 * @param buff
+	 *            the buffer
+	 * @param blk
+	 *            the block assigned to the buffer
+	 */
+	synchronized void set(int slot, Buffer buff, BlockId blk) {
+		buffers[slot] = buff;
+		blocks[slot] = blk;
+	}
+}
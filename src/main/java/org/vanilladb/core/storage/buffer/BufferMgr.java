@@ -22,10 +22,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
 import org.vanilladb.core.util.CoreProperties;
@@ -36,10 +39,14 @@ import org.vanilladb.core.util.CoreProperties;
  * difference is that the methods {@link #pin(BlockId)} and
  * {@link #pinNew(String, PageFormatter)} will never return false and null
  * respectively. If no buffers are currently available, then the calling thread
- * will be placed on a waiting list. The waiting threads are removed from the
- * list when a buffer becomes available. If a thread has been waiting for a
- * buffer for an excessive amount of time (currently, 10 seconds) then repins
- * all currently holding blocks by the calling transaction. Buffer manager
+ * will be placed on a FIFO {@link BufferWaitQueue wait queue}. A released
+ * buffer wakes up only the thread at the head of the queue, and a thread
+ * arriving while others are waiting queues up behind them instead of taking
+ * a buffer first, so the buffers are handed to the waiting threads in their
+ * arrival order. If a thread has been
+ * waiting for a buffer for an excessive amount of time (currently, 10
+ * seconds) then repins all currently holding blocks by the calling
+ * transaction. Buffer manager
  * implements {@link TransactionLifecycleListener} for the purpose of unpinning buffers
  * when transaction commit/rollback/recovery.
  * 
@@ -72,7 +79,10 @@ public class BufferMgr implements TransactionLifecycleListener {
 	}
 
 	protected static BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_POOL_SIZE);
-	protected static List<Thread> waitingThreads = new LinkedList<Thread>();
+	protected static BufferWaitQueue waitQueue = new BufferWaitQueue();
+	private static AtomicLong waitCount = new AtomicLong();
+	private static AtomicLong waitTime = new AtomicLong();
+	private static AtomicLong repinCount = new AtomicLong();
 
 	private Map<BlockId, PinnedBuffer> pinnedBuffers = new HashMap<BlockId, PinnedBuffer>();
 	private long txNum;
@@ -106,6 +116,22 @@ public class BufferMgr implements TransactionLifecycleListener {
 	 * @return the buffer pinned to that block
 	 */
 	public Buffer pin(BlockId blk) {
+		return pin(blk, null);
+	}
+
+	/**
+	 * Pins a buffer to the specified block like {@link #pin(BlockId)}. If the
+	 * block is not buffered, the buffer to be replaced is chosen by the
+	 * specified access strategy.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param strategy
+	 *            the access strategy, or null to use the replacement policy of
+	 *            the buffer pool
+	 * @return the buffer pinned to that block
+	 */
+	public Buffer pin(BlockId blk, BufferAccessStrategy strategy) {
 		// Try to find out if this block has been pinned by this transaction
 		PinnedBuffer pinnedBuff = pinnedBuffers.get(blk);
 		if (pinnedBuff != null) {
@@ -119,27 +145,33 @@ public class BufferMgr implements TransactionLifecycleListener {
 		
 		// Pinning process
 		try {
-			Buffer buff;
+			Buffer buff = null;
 			long timestamp = System.currentTimeMillis();
-			boolean waitedBeforeGotBuffer = false;
 
-			// Try to pin a buffer or the pinned buffer for the given BlockId
-			buff = bufferPool.pin(blk);
+			// A buffered block takes no buffer from the waiters, so it is
+			// pinned even if other threads are waiting for buffers
+			buff = bufferPool.pinExistingBuffer(blk);
+
+			// Otherwise, try to pin a buffer for the given BlockId unless
+			// other threads are waiting for buffers
+			if (buff == null && waitQueue.isEmpty())
+				buff = bufferPool.pin(blk, strategy);
 
 			// If there is no such buffer or no available buffer,
-			// wait for it
+			// wait for it in the queue
 			if (buff == null) {
-				waitedBeforeGotBuffer = true;
-				synchronized (bufferPool) {
-					waitingThreads.add(Thread.currentThread());
-
+				long waitStart = System.nanoTime();
+				BufferWaitQueue.Waiter waiter = enqueue();
+				try {
 					while (buff == null && !waitingTooLong(timestamp)) {
-						bufferPool.wait(MAX_TIME);
-						if (waitingThreads.get(0).equals(Thread.currentThread()))
-							buff = bufferPool.pin(blk);
+						waitQueue.await(waiter, remainingTime(timestamp));
+						buff = bufferPool.pin(blk, strategy);
 					}
-
-					waitingThreads.remove(Thread.currentThread());
+				} finally {
+					// Pass the turn to the next waiter
+					waitQueue.remove(waiter, bufferPool.available() > 0);
+					waitCount.incrementAndGet();
+					waitTime.addAndGet(System.nanoTime() - waitStart);
 				}
 			}
 
@@ -147,18 +179,11 @@ public class BufferMgr implements TransactionLifecycleListener {
 			// release and re-pin all buffers it has
 			if (buff == null) {
 				repin();
-				buff = pin(blk);
+				buff = pin(blk, strategy);
 			} else {
 				pinnedBuffers.put(buff.block(), new PinnedBuffer(buff));
 			}
 
-			// TODO: Add some comment here
-			if (waitedBeforeGotBuffer) {
-				synchronized (bufferPool) {
-					bufferPool.notifyAll();
-				}
-			}
-
 			return buff;
 		} catch (InterruptedException e) {
 			throw new BufferAbortException();
@@ -177,30 +202,51 @@ public class BufferMgr implements TransactionLifecycleListener {
 	 * @return the buffer pinned to that block
 	 */
 	public Buffer pinNew(String fileName, PageFormatter fmtr) {
+		return pinNew(fileName, fmtr, null);
+	}
+
+	/**
+	 * Pins a buffer to a new block in the specified file like
+	 * {@link #pinNew(String, PageFormatter)}. The buffer to be replaced is
+	 * chosen by the specified access strategy.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @param fmtr
+	 *            the formatter used to initialize the page
+	 * @param strategy
+	 *            the access strategy, or null to use the replacement policy of
+	 *            the buffer pool
+	 * @return the buffer pinned to that block
+	 */
+	public Buffer pinNew(String fileName, PageFormatter fmtr,
+			BufferAccessStrategy strategy) {
 		if (pinnedBuffers.size() == BUFFER_POOL_SIZE)
 			throw new BufferAbortException();
 		try {
-			Buffer buff;
+			Buffer buff = null;
 			long timestamp = System.currentTimeMillis();
-			boolean waitedBeforeGotBuffer = false;
 
-			// Try to pin a buffer or the pinned buffer for the given BlockId
-			buff = bufferPool.pinNew(fileName, fmtr);
+			// Try to pin a buffer to a new block, unless other threads are
+			// waiting for buffers
+			if (waitQueue.isEmpty())
+				buff = bufferPool.pinNew(fileName, fmtr, strategy);
 
 			// If there is no such buffer or no available buffer,
-			// wait for it
+			// wait for it in the queue
 			if (buff == null) {
-				waitedBeforeGotBuffer = true;
-				synchronized (bufferPool) {
-					waitingThreads.add(Thread.currentThread());
-
+				long waitStart = System.nanoTime();
+				BufferWaitQueue.Waiter waiter = enqueue();
+				try {
 					while (buff == null && !waitingTooLong(timestamp)) {
-						bufferPool.wait(MAX_TIME);
-						if (waitingThreads.get(0).equals(Thread.currentThread()))
-							buff = bufferPool.pinNew(fileName, fmtr);
+						waitQueue.await(waiter, remainingTime(timestamp));
+						buff = bufferPool.pinNew(fileName, fmtr, strategy);
 					}
-
-					waitingThreads.remove(Thread.currentThread());
+				} finally {
+					// Pass the turn to the next waiter
+					waitQueue.remove(waiter, bufferPool.available() > 0);
+					waitCount.incrementAndGet();
+					waitTime.addAndGet(System.nanoTime() - waitStart);
 				}
 			}
 
@@ -208,18 +254,11 @@ public class BufferMgr implements TransactionLifecycleListener {
 			// release and re-pin all buffers it has
 			if (buff == null) {
 				repin();
-				buff = pinNew(fileName, fmtr);
+				buff = pinNew(fileName, fmtr, strategy);
 			} else {
 				pinnedBuffers.put(buff.block(), new PinnedBuffer(buff));
 			}
 
-			// TODO: Add some comment here
-			if (waitedBeforeGotBuffer) {
-				synchronized (bufferPool) {
-					bufferPool.notifyAll();
-				}
-			}
-
 			return buff;
 		} catch (InterruptedException e) {
 			throw new BufferAbortException();
@@ -227,6 +266,18 @@ public class BufferMgr implements TransactionLifecycleListener {
 
 	}
 
+	/**
+	 * Appends the calling thread to the wait queue. If some buffers are
+	 * available, the head of the queue is woken up to take them, since the
+	 * calling thread may have skipped them for the threads ahead of it.
+	 */
+	private BufferWaitQueue.Waiter enqueue() {
+		BufferWaitQueue.Waiter waiter = waitQueue.enqueue();
+		if (bufferPool.available() > 0)
+			waitQueue.signalNext();
+		return waiter;
+	}
+
 	/**
 	 * Unpins the specified buffer. If the buffer's pin count becomes 0, then
 	 * the threads on the wait list are notified.
@@ -244,10 +295,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 			if (pinnedBuff.pinnedCount == 0) {
 				bufferPool.unpin(buff);
 				pinnedBuffers.remove(blk);
-				
-				synchronized (bufferPool) {
-					bufferPool.notifyAll();
-				}
+				waitQueue.signalNext();
 			}
 		}
 	}
@@ -259,6 +307,16 @@ public class BufferMgr implements TransactionLifecycleListener {
 		bufferPool.flushAll();
 	}
 
+	/**
+	 * Returns the smallest recovery LSN of the dirty buffers.
+	 * 
+	 * @return the smallest recovery LSN, or null if there is no dirty buffer
+	 *         modified by a logged operation
+	 */
+	public LogSeqNum minRecoveryLsn() {
+		return bufferPool.minRecoveryLsn();
+	}
+
 	/**
 	 * Flushes the dirty buffers modified by the specified transaction.
 	 * 
@@ -278,6 +336,73 @@ public class BufferMgr implements TransactionLifecycleListener {
 		return bufferPool.available();
 	}
 
+	/**
+	 * Returns the number of pins that found their blocks in the buffer pool.
+	 * 
+	 * @return the number of buffer hits
+	 */
+	public long hitCount() {
+		return bufferPool.hitCount();
+	}
+
+	/**
+	 * Returns the number of pins that had to replace a buffer.
+	 * 
+	 * @return the number of buffer misses
+	 */
+	public long missCount() {
+		return bufferPool.missCount();
+	}
+
+	/**
+	 * Returns the number of blocks read into the buffer pool ahead of their
+	 * pins.
+	 * 
+	 * @return the number of prefetched blocks
+	 */
+	public long prefetchCount() {
+		return bufferPool.prefetchCount();
+	}
+
+	/**
+	 * Returns the fraction of pins that found their blocks in the buffer pool.
+	 * 
+	 * @return the buffer hit ratio, or 0 if nothing has been pinned
+	 */
+	public double hitRatio() {
+		long hits = bufferPool.hitCount();
+		long total = hits + bufferPool.missCount();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the number of times that a pin had to wait for a buffer.
+	 * 
+	 * @return the number of waits
+	 */
+	public long waitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * Returns the total time that pins have spent waiting for buffers.
+	 * 
+	 * @return the total waiting time in milliseconds
+	 */
+	public long waitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	/**
+	 * Returns the number of times that a transaction has released and
+	 * re-pinned all its buffers after waiting too long.
+	 * 
+	 * @return the number of re-pinnings
+	 */
+	public long repinCount() {
+		return repinCount.get();
+	}
+
 	private void unpinAll(Transaction tx) {
 		// Copy the set of pinned buffers to avoid ConcurrentModificationException
 		Set<PinnedBuffer> pinnedBuffs = new HashSet<PinnedBuffer>(pinnedBuffers.values());
@@ -286,9 +411,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 				bufferPool.unpin(pinnedBuff.buffer);
 		}
 
-		synchronized (bufferPool) {
-			bufferPool.notifyAll();
-		}
+		waitQueue.signalNext();
 	}
 
 	/**
@@ -298,6 +421,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 	private void repin() {
 		if (logger.isLoggable(Level.WARNING))
 			logger.warning("Tx." + txNum + " is re-pinning all buffers");
+		repinCount.incrementAndGet();
 		
 		try {
 			// Copy the set of pinned buffers to avoid ConcurrentModificationException
@@ -316,9 +440,13 @@ public class BufferMgr implements TransactionLifecycleListener {
 			for (Buffer buf : buffersToBeUnpinned)
 				unpin(buf);
 
-			// Wait other threads pinning blocks
-			synchronized (bufferPool) {
-				bufferPool.wait(MAX_TIME);
+			// Queue up behind the threads waiting for buffers, so that they
+			// get the released buffers first
+			BufferWaitQueue.Waiter waiter = waitQueue.enqueue();
+			try {
+				waitQueue.await(waiter, TimeUnit.MILLISECONDS.toNanos(MAX_TIME));
+			} finally {
+				waitQueue.remove(waiter, bufferPool.available() > 0);
 			}
 
 			// Re-pin all blocks
@@ -332,4 +460,9 @@ public class BufferMgr implements TransactionLifecycleListener {
 	private boolean waitingTooLong(long startTime) {
 		return System.currentTimeMillis() - startTime + EPSILON > MAX_TIME;
 	}
+
+	private long remainingTime(long startTime) {
+		long millis = MAX_TIME - EPSILON - (System.currentTimeMillis() - startTime);
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
 }
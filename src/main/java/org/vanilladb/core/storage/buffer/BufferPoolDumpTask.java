@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task records the blocks resident in the buffer pool, with their usage
+ * counts, to the file {@code DUMP_FILE} in the database directory every
+ * {@code PERIOD} milliseconds, so that a restarted server can warm its buffer
+ * pool up by {@link #warmUp()} instead of reading the hot pages one miss at a
+ * time.
+ * 
+ * <p>
+ * The blocks are reloaded in the order of their files and block numbers. The
+ * blocks of each file are cut into runs of up to {@code RUN_LENGTH} blocks,
+ * and the runs are read by {@code LOAD_THREADS} threads in parallel, so every
+ * thread reads sequentially. When there are more blocks than buffers, those
+ * having the largest usage counts are loaded. The warm-up either completes
+ * before the server accepts connections, or runs concurrently in low-priority
+ * threads if {@code WARM_UP_IN_BACKGROUND} is set.
+ * </p>
+ */
+public class BufferPoolDumpTask extends Task {
+	private static Logger logger = Logger.getLogger(BufferPoolDumpTask.class
+			.getName());
+
+	private static final String DUMP_FILE;
+	private static final long PERIOD;
+	private static final int LOAD_THREADS;
+	private static final int RUN_LENGTH;
+	private static final boolean WARM_UP_IN_BACKGROUND;
+
+	static {
+		DUMP_FILE = CoreProperties.getLoader().getPropertyAsString(
+				BufferPoolDumpTask.class.getName() + ".DUMP_FILE",
+				"bufferpool.dump");
+		PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				BufferPoolDumpTask.class.getName() + ".PERIOD", 60000);
+		LOAD_THREADS = CoreProperties.getLoader().getPropertyAsInteger(
+				BufferPoolDumpTask.class.getName() + ".LOAD_THREADS", 4);
+		RUN_LENGTH = CoreProperties.getLoader().getPropertyAsInteger(
+				BufferPoolDumpTask.class.getName() + ".RUN_LENGTH", 64);
+		WARM_UP_IN_BACKGROUND = CoreProperties.getLoader()
+				.getPropertyAsBoolean(BufferPoolDumpTask.class.getName()
+						+ ".WARM_UP_IN_BACKGROUND", false);
+	}
+
+	@Override
+	public void run() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Start dumping the buffer pool periodically");
+		while (true) {
+			try {
+				Thread.sleep(PERIOD);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			try {
+				dump(BufferMgr.bufferPool, dumpFile());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Reloads the blocks recorded by the last dump into the buffer pool. This
+	 * method returns after the blocks have been loaded, unless the warm-up
+	 * runs in the background.
+	 */
+	public static void warmUp() {
+		final File file = dumpFile();
+		if (!file.exists())
+			return;
+		if (!WARM_UP_IN_BACKGROUND) {
+			warmUp(file, Thread.NORM_PRIORITY);
+			return;
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				warmUp(file, Thread.MIN_PRIORITY);
+			}
+		}, "Buffer-pool-warm-up");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+
+	private static void warmUp(File file, int priority) {
+		try {
+			int count = load(BufferMgr.bufferPool, file, LOAD_THREADS,
+					priority);
+			if (logger.isLoggable(Level.INFO))
+				logger.info("buffer pool warmed up with " + count + " blocks");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static File dumpFile() {
+		return new File(VanillaDb.fileMgr().dbDirectory(), DUMP_FILE);
+	}
+
+	/**
+	 * Writes the blocks resident in the specified buffer pool, one
+	 * "file name, block number, usage count" line per block, to the specified
+	 * file. The file is replaced as a whole, so a crash during the dump
+	 * leaves the previous dump intact.
+	 * 
+	 * @param bufferPool
+	 *            the buffer pool
+	 * @param file
+	 *            the dump file
+	 * @throws IOException
+	 */
+	static void dump(BufferPoolMgr bufferPool, File file) throws IOException {
+		Map<BlockId, Integer> blocks = bufferPool.residentBlocks();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+			for (Map.Entry<BlockId, Integer> entry : blocks.entrySet()) {
+				BlockId blk = entry.getKey();
+				// The temporary tables do not survive a restart
+				if (blk.fileName().startsWith(FileMgr.TMP_FILE_NAME_PREFIX))
+					continue;
+				writer.write(blk.fileName() + "\t" + blk.number() + "\t"
+						+ entry.getValue());
+				writer.newLine();
+			}
+		}
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot replace " + file);
+		}
+	}
+
+	/**
+	 * Reads the blocks recorded in the specified dump file into the specified
+	 * buffer pool, and waits for them to be loaded. The blocks beyond the ends
+	 * of their files, or of the files no longer existing, are skipped.
+	 * 
+	 * @param bufferPool
+	 *            the buffer pool
+	 * @param file
+	 *            the dump file
+	 * @param threads
+	 *            the number of threads reading the blocks
+	 * @param priority
+	 *            the priority of the threads
+	 * @return the number of blocks loaded
+	 * @throws IOException
+	 */
+	static int load(final BufferPoolMgr bufferPool, File file, int threads,
+			final int priority) throws IOException {
+		List<DumpedBlock> blocks = new ArrayList<DumpedBlock>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length != 3)
+					continue;
+				try {
+					blocks.add(new DumpedBlock(new BlockId(fields[0], Long
+							.parseLong(fields[1])), Integer.parseInt(fields[2])));
+				} catch (NumberFormatException e) {
+					// skip the corrupted line
+				}
+			}
+		}
+
+		// Keep the most used blocks that fit in the pool
+		Collections.sort(blocks, new Comparator<DumpedBlock>() {
+			@Override
+			public int compare(DumpedBlock b1, DumpedBlock b2) {
+				return Integer.compare(b2.usageCount, b1.usageCount);
+			}
+		});
+		if (blocks.size() > bufferPool.bufferCount())
+			blocks = new ArrayList<DumpedBlock>(blocks.subList(0,
+					bufferPool.bufferCount()));
+
+		// Read each file in the order of the block numbers
+		Collections.sort(blocks);
+		List<List<DumpedBlock>> runs = new ArrayList<List<DumpedBlock>>();
+		List<DumpedBlock> run = null;
+		File dbDirectory = VanillaDb.fileMgr().dbDirectory();
+		String fileName = null;
+		long fileSize = 0;
+		for (DumpedBlock block : blocks) {
+			BlockId blk = block.blk;
+			if (!blk.fileName().equals(fileName)) {
+				fileName = blk.fileName();
+				fileSize = new File(dbDirectory, fileName).exists() ? VanillaDb
+						.fileMgr().size(fileName) : 0;
+				run = null;
+			}
+			if (blk.number() >= fileSize)
+				continue;
+			if (run == null || run.size() >= RUN_LENGTH) {
+				run = new ArrayList<DumpedBlock>();
+				runs.add(run);
+			}
+			run.add(block);
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, threads), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Buffer-pool-loader");
+						t.setDaemon(true);
+						t.setPriority(priority);
+						return t;
+					}
+				});
+		for (final List<DumpedBlock> r : runs) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (DumpedBlock block : r)
+						if (bufferPool.preload(block.blk, block.usageCount))
+							count.incrementAndGet();
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		return count.get();
+	}
+
+	private static class DumpedBlock implements Comparable<DumpedBlock> {
+		BlockId blk;
+		int usageCount;
+
+		DumpedBlock(BlockId blk, int usageCount) {
+			this.blk = blk;
+			this.usageCount = usageCount;
+		}
+
+		@Override
+		public int compareTo(DumpedBlock other) {
+			int c = blk.fileName().compareTo(other.blk.fileName());
+			if (c != 0)
+				return c;
+			return Long.compare(blk.number(), other.blk.number());
+		}
+	}
+}
@@ -15,25 +15,50 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.buffer;
 
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * 
+ * <p>
+ * The buffers are split into {@code NUM_PARTITIONS} partitions, each of which
+ * has its own block map, replacement policy, counters and lock stripes, so
+ * that the pins of different blocks rarely touch the same cache lines. A
+ * block is looked up in the partition chosen by the hash of its
+ * {@link BlockId}, and is loaded into a buffer of the same partition if
+ * possible. When that partition has no buffer to spare, a buffer is taken
+ * from another partition, but the block is still mapped by its own
+ * partition.
+ * </p>
  */
 class BufferPoolMgr {
-	private Buffer[] bufferPool;
-	private Map<BlockId, Buffer> blockMap;
-	private volatile int lastReplacedBuff;
-	private AtomicInteger numAvailable;
+	private static Class<?> replacementPolicyCls;
+	private static final int NUM_PARTITIONS;
+
+	static {
+		replacementPolicyCls = CoreProperties.getLoader().getPropertyAsClass(
+				BufferPoolMgr.class.getName() + ".REPLACEMENT_POLICY",
+				RoundRobinPolicy.class, ReplacementPolicy.class);
+		NUM_PARTITIONS = CoreProperties.getLoader().getPropertyAsInteger(
+				BufferPoolMgr.class.getName() + ".NUM_PARTITIONS", 1);
+	}
 
-	// Optimization: Lock striping
-	private Object[] anchors = new Object[1009];
+	private Partition[] partitions;
 
 	/**
 	 * Creates a buffer manager having the specified number of buffer slots.
@@ -47,38 +72,103 @@ class BufferPoolMgr {
 	 *            the number of buffer slots to allocate
 	 */
 	BufferPoolMgr(int numBuffs) {
-		bufferPool = new Buffer[numBuffs];
-		blockMap = new ConcurrentHashMap<BlockId, Buffer>();
-		numAvailable = new AtomicInteger(numBuffs);
-		lastReplacedBuff = 0;
-		for (int i = 0; i < numBuffs; i++)
-			bufferPool[i] = new Buffer();
-
-		for (int i = 0; i < anchors.length; ++i) {
-			anchors[i] = new Object();
-		}
+		this(numBuffs, NUM_PARTITIONS);
 	}
 
-	// Optimization: Lock striping
-	private Object prepareAnchor(Object o) {
-		int code = o.hashCode() % anchors.length;
-		if (code < 0)
-			code += anchors.length;
-		return anchors[code];
+	/**
+	 * Creates a buffer manager having the specified number of buffer slots,
+	 * split into the specified number of partitions.
+	 * 
+	 * @param numBuffs
+	 *            the number of buffer slots to allocate
+	 * @param numPartitions
+	 *            the number of partitions
+	 */
+	BufferPoolMgr(int numBuffs, int numPartitions) {
+		numPartitions = Math.max(1, Math.min(numPartitions, numBuffs));
+		partitions = new Partition[numPartitions];
+		for (int i = 0; i < numPartitions; i++)
+			partitions[i] = new Partition(i, numBuffs / numPartitions
+					+ (i < numBuffs % numPartitions ? 1 : 0));
 	}
 
 	/**
 	 * Flushes all dirty buffers.
 	 */
 	void flushAll() {
-		for (Buffer buff : bufferPool) {
+		for (Partition partition : partitions) {
+			for (Buffer buff : partition.buffers) {
+				try {
+					buff.getExternalLock().lock();
+					buff.flush();
+				} finally {
+					buff.getExternalLock().unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the smallest recovery LSN of the buffers, i.e., the LSN from
+	 * which the log must be redone to restore the dirty pages.
+	 * 
+	 * @return the smallest recovery LSN, or null if no buffer holds a logged
+	 *         modification that has not been flushed
+	 */
+	LogSeqNum minRecoveryLsn() {
+		LogSeqNum min = null;
+		for (Partition partition : partitions) {
+			for (Buffer buff : partition.buffers) {
+				LogSeqNum lsn = buff.recoveryLsn();
+				if (lsn != null && (min == null || lsn.compareTo(min) < 0))
+					min = lsn;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Writes the dirty buffers that are not pinned and are likely to be
+	 * replaced soon, so that the pinning threads do not have to write them
+	 * when replacing them. The buffers are written in the order of their files
+	 * and block numbers, and those in use are skipped.
+	 * 
+	 * @param maxCount
+	 *            the maximal number of buffers to be examined
+	 * @return the number of buffers written
+	 */
+	int writeDirtyBuffers(int maxCount) {
+		// Every partition has its own candidates
+		int maxCountPerPartition = (maxCount + partitions.length - 1)
+				/ partitions.length;
+		List<DirtyBuffer> dirtyBuffs = new ArrayList<DirtyBuffer>();
+		for (Partition partition : partitions) {
+			for (int idx : partition.policy.nextVictims(maxCountPerPartition)) {
+				Buffer buff = partition.buffers[idx];
+				BlockId blk = buff.block();
+				if (blk != null && buff.isDirty() && !buff.isPinned())
+					dirtyBuffs.add(new DirtyBuffer(buff, blk));
+			}
+		}
+		Collections.sort(dirtyBuffs);
+
+		int count = 0;
+		for (DirtyBuffer dirtyBuff : dirtyBuffs) {
+			Buffer buff = dirtyBuff.buff;
+
+			// Skip the buffer if someone is using it
+			if (!buff.getExternalLock().tryLock())
+				continue;
 			try {
-				buff.getExternalLock().lock();
-				buff.flush();
+				if (!buff.isPinned() && buff.isDirty()) {
+					buff.flush();
+					count++;
+				}
 			} finally {
 				buff.getExternalLock().unlock();
 			}
 		}
+		return count;
 	}
 
 	/**
@@ -88,14 +178,16 @@ class BufferPoolMgr {
 	 *            the transaction's id number
 	 */
 	void flushAll(long txNum) {
-		for (Buffer buff : bufferPool) {
-			try {
-				buff.getExternalLock().lock();
-				if (buff.isModifiedBy(txNum)) {
-					buff.flush();
+		for (Partition partition : partitions) {
+			for (Buffer buff : partition.buffers) {
+				try {
+					buff.getExternalLock().lock();
+					if (buff.isModifiedBy(txNum)) {
+						buff.flush();
+					}
+				} finally {
+					buff.getExternalLock().unlock();
 				}
-			} finally {
-				buff.getExternalLock().unlock();
 			}
 		}
 	}
@@ -108,75 +200,52 @@ class BufferPoolMgr {
 	 * 
 	 * @param blk
 	 *            a block ID
+	 * @param strategy
+	 *            the access strategy used to choose the buffer to be replaced,
+	 *            or null to use the replacement policy
 	 * @return the pinned buffer
 	 */
-	Buffer pin(BlockId blk) {
+	Buffer pin(BlockId blk, BufferAccessStrategy strategy) {
+		// Pin the existing buffer without any lock if possible
+		Buffer buff = pinExistingBuffer(blk);
+		if (buff != null)
+			return buff;
+
 		// Only the txs acquiring the same block will be blocked
-		synchronized (prepareAnchor(blk)) {
-			// Find existing buffer
-			Buffer buff = findExistingBuffer(blk);
-
-			// If there is no such buffer
-			if (buff == null) {
-
-				// Choose Unpinned Buffer
-				int lastReplacedBuff = this.lastReplacedBuff;
-				int currBlk = (lastReplacedBuff + 1) % bufferPool.length;
-				while (currBlk != lastReplacedBuff) {
-					buff = bufferPool[currBlk];
-					
-					// Get the lock of buffer if it is free
-					if (buff.getExternalLock().tryLock()) {
-						try {
-							// Check if there is no one use it
-							if (!buff.isPinned()) {
-								this.lastReplacedBuff = currBlk;
-								
-								// Swap
-								BlockId oldBlk = buff.block();
-								if (oldBlk != null)
-									blockMap.remove(oldBlk);
-								buff.assignToBlock(blk);
-								blockMap.put(blk, buff);
-								if (!buff.isPinned())
-									numAvailable.decrementAndGet();
-								
-								// Pin this buffer
-								buff.pin();
-								return buff;
-							}
-						} finally {
-							// Release the lock of buffer
-							buff.getExternalLock().unlock();
-						}
-					}
-					currBlk = (currBlk + 1) % bufferPool.length;
-				}
-				return null;
-				
-			// If it exists
-			} else {
-				// Get the lock of buffer
-				buff.getExternalLock().lock();
-				
-				try {
-					// Check its block id before pinning since it might be swapped
-					if (buff.block().equals(blk)) {
-						if (!buff.isPinned())
-							numAvailable.decrementAndGet();
-						buff.pin();
-						return buff;
-					}
-					return pin(blk);
-					
-				} finally {
-					// Release the lock of buffer
-					buff.getExternalLock().unlock();
+		Partition partition = partitionOf(blk);
+		synchronized (partition.prepareAnchor(blk)) {
+			while (true) {
+				// If there is no such buffer
+				if (!partition.blockMap.containsKey(blk)) {
+					buff = replace(partition, blk, null, null, strategy);
+					if (buff != null)
+						partition.missCount.incrementAndGet();
+					return buff;
 				}
+
+				// If it exists
+				buff = pinExistingBuffer(blk);
+				if (buff != null)
+					return buff;
+
+				// The buffer is being assigned to another block
+				Thread.yield();
 			}
 		}
 	}
 
+	/**
+	 * Pins a buffer to the specified block, choosing the buffer to be replaced
+	 * by the replacement policy.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @return the pinned buffer
+	 */
+	Buffer pin(BlockId blk) {
+		return pin(blk, null);
+	}
+
 	/**
 	 * Allocates a new block in the specified file, and pins a buffer to it.
 	 * Returns null (without allocating the block) if there are no available
@@ -186,46 +255,93 @@ class BufferPoolMgr {
 	 *            the name of the file
 	 * @param fmtr
 	 *            a pageformatter object, used to format the new block
+	 * @param strategy
+	 *            the access strategy used to choose the buffer to be replaced,
+	 *            or null to use the replacement policy
 	 * @return the pinned buffer
 	 */
-	Buffer pinNew(String fileName, PageFormatter fmtr) {
+	Buffer pinNew(String fileName, PageFormatter fmtr,
+			BufferAccessStrategy strategy) {
 		// Only the txs acquiring to append the block on the same file will be blocked
-		synchronized (prepareAnchor(fileName)) {
-			
-			// Choose Unpinned Buffer
-			int lastReplacedBuff = this.lastReplacedBuff;
-			int currBlk = (lastReplacedBuff + 1) % bufferPool.length;
-			while (currBlk != lastReplacedBuff) {
-				Buffer buff = bufferPool[currBlk];
-				
-				// Get the lock of buffer if it is free
-				if (buff.getExternalLock().tryLock()) {
-					try {
-						if (!buff.isPinned()) {
-							this.lastReplacedBuff = currBlk;
-							
-							// Swap
-							BlockId oldBlk = buff.block();
-							if (oldBlk != null)
-								blockMap.remove(oldBlk);
-							buff.assignToNew(fileName, fmtr);
-							blockMap.put(buff.block(), buff);
-							if (!buff.isPinned())
-								numAvailable.decrementAndGet();
-							
-							// Pin this buffer
-							buff.pin();
-							return buff;
-						}
-					} finally {
-						// Release the lock of buffer
-						buff.getExternalLock().unlock();
-					}
-				}
-				currBlk = (currBlk + 1) % bufferPool.length;
+		Partition partition = partitionOf(fileName);
+		synchronized (partition.prepareAnchor(fileName)) {
+			Buffer buff = replace(partition, null, fileName, fmtr, strategy);
+			if (buff != null)
+				partition.missCount.incrementAndGet();
+			return buff;
+		}
+	}
+
+	/**
+	 * Reads the specified block into an unpinned buffer, unless it is already
+	 * buffered. Nothing happens if there are no available buffers.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param strategy
+	 *            the access strategy used to choose the buffer to be replaced,
+	 *            or null to use the replacement policy
+	 * @return true if the block has been read
+	 */
+	boolean prefetch(BlockId blk, BufferAccessStrategy strategy) {
+		Partition partition = partitionOf(blk);
+		if (partition.blockMap.containsKey(blk))
+			return false;
+
+		Buffer buff;
+		synchronized (partition.prepareAnchor(blk)) {
+			if (partition.blockMap.containsKey(blk))
+				return false;
+			buff = replace(partition, blk, null, null, strategy);
+		}
+		if (buff == null)
+			return false;
+		unpin(buff);
+		partition.prefetchCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Reads the specified block into an unpinned buffer like
+	 * {@link #prefetch(BlockId, BufferAccessStrategy)}, and gives it the
+	 * specified usage count in the replacement policy, so that the block is
+	 * kept as if it had been pinned that many times.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param usageCount
+	 *            the usage count to be restored
+	 * @return true if the block has been read
+	 */
+	boolean preload(BlockId blk, int usageCount) {
+		if (!prefetch(blk, null))
+			return false;
+		Buffer buff = partitionOf(blk).blockMap.get(blk);
+		if (buff != null) {
+			// The block has been pinned once by the prefetch
+			ReplacementPolicy policy = partitions[buff.partitionId()].policy;
+			for (int i = 1; i < usageCount; i++)
+				policy.onPin(buff.poolIndex());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the blocks held by the buffers, together with their usage counts
+	 * in the replacement policy.
+	 * 
+	 * @return the usage counts keyed on the resident blocks
+	 */
+	Map<BlockId, Integer> residentBlocks() {
+		Map<BlockId, Integer> blocks = new HashMap<BlockId, Integer>();
+		for (Partition partition : partitions) {
+			for (Buffer buff : partition.buffers) {
+				BlockId blk = buff.block();
+				if (blk != null)
+					blocks.put(blk, partition.policy.usageCount(buff.poolIndex()));
 			}
-			return null;
 		}
+		return blocks;
 	}
 
 	/**
@@ -235,18 +351,9 @@ class BufferPoolMgr {
 	 *            the buffers to be unpinned
 	 */
 	void unpin(Buffer... buffs) {
-		for (Buffer buff : buffs) {
-			try {
-				// Get the lock of buffer
-				buff.getExternalLock().lock();
-				buff.unpin();
-				if (!buff.isPinned())
-					numAvailable.incrementAndGet();
-			} finally {
-				// Release the lock of buffer
-				buff.getExternalLock().unlock();
-			}
-		}
+		for (Buffer buff : buffs)
+			if (buff.unpin() == 0)
+				partitions[buff.partitionId()].numAvailable.incrementAndGet();
 	}
 
 	/**
@@ -255,13 +362,257 @@ class BufferPoolMgr {
 	 * @return the number of available buffers
 	 */
 	int available() {
-		return numAvailable.get();
+		int count = 0;
+		for (Partition partition : partitions)
+			count += partition.numAvailable.get();
+		return count;
+	}
+
+	/**
+	 * Returns the number of buffers in the pool.
+	 * 
+	 * @return the number of buffers
+	 */
+	int bufferCount() {
+		int count = 0;
+		for (Partition partition : partitions)
+			count += partition.buffers.length;
+		return count;
+	}
+
+	/**
+	 * Returns the number of partitions of the buffer pool.
+	 * 
+	 * @return the number of partitions
+	 */
+	int partitionCount() {
+		return partitions.length;
+	}
+
+	/**
+	 * Returns the number of pins that found their blocks in the pool.
+	 * 
+	 * @return the number of buffer hits
+	 */
+	long hitCount() {
+		long count = 0;
+		for (Partition partition : partitions)
+			count += partition.hitCount.get();
+		return count;
+	}
+
+	/**
+	 * Returns the number of pins that had to replace a buffer, including those
+	 * of new blocks.
+	 * 
+	 * @return the number of buffer misses
+	 */
+	long missCount() {
+		long count = 0;
+		for (Partition partition : partitions)
+			count += partition.missCount.get();
+		return count;
+	}
+
+	/**
+	 * Returns the number of blocks read ahead of their pins.
+	 * 
+	 * @return the number of prefetched blocks
+	 */
+	long prefetchCount() {
+		long count = 0;
+		for (Partition partition : partitions)
+			count += partition.prefetchCount.get();
+		return count;
+	}
+
+	private Partition partitionOf(Object key) {
+		int code = key.hashCode() % partitions.length;
+		if (code < 0)
+			code += partitions.length;
+		return partitions[code];
+	}
+
+	/**
+	 * Replaces an unpinned buffer chosen by the access strategy or the
+	 * replacement policy and pins it. The buffer is assigned to the specified
+	 * block, or to a new block of the specified file if the block is null.
+	 * The buffers of the specified partition are preferred.
+	 */
+	private Buffer replace(Partition home, final BlockId blk,
+			final String fileName, final PageFormatter fmtr,
+			BufferAccessStrategy strategy) {
+		Buffer buff = null;
+		int slot = -1;
+		if (strategy != null) {
+			// Recycle the ring buffer if it still holds the block put by the
+			// strategy. The check is racy, but a wrong guess only evicts a
+			// block that has just been reloaded by someone else.
+			slot = strategy.reserve();
+			Buffer victim = strategy.victim(slot);
+			if (victim != null
+					&& strategy.victimBlock(slot).equals(victim.block())
+					&& tryReplace(victim, blk, fileName, fmtr))
+				buff = victim;
+		}
+		for (int i = 0; buff == null && i < partitions.length; i++) {
+			final Partition partition = partitions[(home.id + i)
+					% partitions.length];
+			// Only look into the other partitions if they have a spare buffer
+			if (partition != home && partition.numAvailable.get() <= 0)
+				continue;
+			int idx = partition.policy.replace(new ReplacementPolicy.Replacer() {
+				@Override
+				public boolean tryReplace(int idx) {
+					return BufferPoolMgr.this.tryReplace(
+							partition.buffers[idx], blk, fileName, fmtr);
+				}
+			});
+			if (idx >= 0)
+				buff = partition.buffers[idx];
+		}
+		if (buff == null)
+			return null;
+		if (strategy != null)
+			strategy.set(slot, buff, buff.block());
+		return buff;
 	}
 
-	private Buffer findExistingBuffer(BlockId blk) {
-		Buffer buff = blockMap.get(blk);
-		if (buff != null && buff.block().equals(blk))
+	/**
+	 * Assigns the specified buffer to the specified block, or to a new block
+	 * of the specified file if the block is null, and pins it. Nothing
+	 * happens if the buffer is in use.
+	 */
+	private boolean tryReplace(Buffer buff, BlockId blk, String fileName,
+			PageFormatter fmtr) {
+		Partition partition = partitions[buff.partitionId()];
+
+		// Get the lock of buffer if it is free
+		if (!buff.getExternalLock().tryLock())
+			return false;
+		try {
+			// Make sure that no one uses it, and keep others from pinning it
+			// during the swap
+			if (!buff.tryStartReplacing())
+				return false;
+			partition.numAvailable.decrementAndGet();
+			try {
+				// Swap, keeping each block in the map of its own partition
+				BlockId oldBlk = buff.block();
+				if (oldBlk != null)
+					partitionOf(oldBlk).blockMap.remove(oldBlk, buff);
+				if (blk != null)
+					buff.assignToBlock(blk);
+				else
+					buff.assignToNew(fileName, fmtr);
+				partitionOf(buff.block()).blockMap.put(buff.block(), buff);
+				partition.policy.onReplace(buff.poolIndex());
+				partition.policy.onPin(buff.poolIndex());
+			} finally {
+				// Pin this buffer
+				buff.finishReplacing();
+			}
+			return true;
+		} finally {
+			// Release the lock of buffer
+			buff.getExternalLock().unlock();
+		}
+	}
+
+	/**
+	 * Pins the buffer assigned to the specified block with a single CAS.
+	 * Returns null if the block is not buffered or its buffer is being
+	 * assigned to another block.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @return the pinned buffer, or null if the block is not buffered
+	 */
+	Buffer pinExistingBuffer(BlockId blk) {
+		Partition partition = partitionOf(blk);
+		Buffer buff = partition.blockMap.get(blk);
+		if (buff == null)
+			return null;
+		int pins = buff.tryPin();
+		if (pins < 0)
+			return null;
+		Partition owner = partitions[buff.partitionId()];
+		if (pins == 1)
+			owner.numAvailable.decrementAndGet();
+
+		// Check its block id after pinning since it might have been swapped
+		if (blk.equals(buff.block())) {
+			owner.policy.onPin(buff.poolIndex());
+			partition.hitCount.incrementAndGet();
 			return buff;
+		}
+		unpin(buff);
 		return null;
 	}
+
+	/**
+	 * A partition of the buffer pool. The blocks whose IDs hash to a
+	 * partition are mapped by it, while its buffers are replaced by its own
+	 * policy.
+	 */
+	private static class Partition {
+		private int id;
+		private Buffer[] buffers;
+		private ConcurrentMap<BlockId, Buffer> blockMap;
+		private ReplacementPolicy policy;
+		private AtomicInteger numAvailable;
+		private AtomicLong hitCount = new AtomicLong();
+		private AtomicLong missCount = new AtomicLong();
+		private AtomicLong prefetchCount = new AtomicLong();
+
+		// Optimization: Lock striping
+		private Object[] anchors = new Object[1009];
+
+		Partition(int id, int numBuffs) {
+			this.id = id;
+			buffers = new Buffer[numBuffs];
+			blockMap = new ConcurrentHashMap<BlockId, Buffer>();
+			numAvailable = new AtomicInteger(numBuffs);
+			for (int i = 0; i < numBuffs; i++)
+				buffers[i] = new Buffer(id, i);
+			try {
+				Constructor<?> ct = replacementPolicyCls
+						.getConstructor(Integer.TYPE);
+				policy = (ReplacementPolicy) ct.newInstance(numBuffs);
+			} catch (Exception e) {
+				e.printStackTrace();
+				policy = new RoundRobinPolicy(numBuffs);
+			}
+
+			for (int i = 0; i < anchors.length; ++i) {
+				anchors[i] = new Object();
+			}
+		}
+
+		// Optimization: Lock striping
+		private Object prepareAnchor(Object o) {
+			int code = o.hashCode() % anchors.length;
+			if (code < 0)
+				code += anchors.length;
+			return anchors[code];
+		}
+	}
+
+	private static class DirtyBuffer implements Comparable<DirtyBuffer> {
+		Buffer buff;
+		BlockId blk;
+
+		DirtyBuffer(Buffer buff, BlockId blk) {
+			this.buff = buff;
+			this.blk = blk;
+		}
+
+		@Override
+		public int compareTo(DirtyBuffer other) {
+			int c = blk.fileName().compareTo(other.blk.fileName());
+			if (c != 0)
+				return c;
+			return Long.compare(blk.number(), other.blk.number());
+		}
+	}
 }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A FIFO queue of the threads waiting for a buffer to become available. A
+ * released buffer wakes up only the thread at the head of the queue instead
+ * of every waiting thread, and the woken thread stays at the head until it
+ * gets a buffer or gives up, so the buffers are handed to the waiting threads
+ * in their arrival order.
+ */
+class BufferWaitQueue {
+
+	static class Waiter {
+		private final Thread thread = Thread.currentThread();
+		private volatile boolean signalled;
+	}
+
+	private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+	/**
+	 * Appends the calling thread to the tail of the queue.
+	 * 
+	 * @return the waiter representing the calling thread
+	 */
+	Waiter enqueue() {
+		Waiter waiter = new Waiter();
+		waiters.add(waiter);
+		return waiter;
+	}
+
+	/**
+	 * Removes the specified waiter from the queue. If the waiter has been
+	 * signalled but has not used the signal, it is passed to the next waiter.
+	 * 
+	 * @param waiter
+	 *            the waiter of the calling thread
+	 * @param passSignal
+	 *            true if a buffer may still be available for the next waiter
+	 */
+	void remove(Waiter waiter, boolean passSignal) {
+		waiters.remove(waiter);
+		if (passSignal)
+			signalNext();
+	}
+
+	/**
+	 * Blocks the calling thread until it is signalled or the specified time
+	 * has elapsed.
+	 * 
+	 * @param waiter
+	 *            the waiter of the calling thread
+	 * @param nanos
+	 *            the maximal waiting time in nanoseconds
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted
+	 */
+	void await(Waiter waiter, long nanos) throws InterruptedException {
+		long deadline = System.nanoTime() + nanos;
+		while (!waiter.signalled && nanos > 0) {
+			LockSupport.parkNanos(this, nanos);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			nanos = deadline - System.nanoTime();
+		}
+		waiter.signalled = false;
+	}
+
+	/**
+	 * Wakes up the thread at the head of the queue, if any.
+	 */
+	void signalNext() {
+		Waiter head = waiters.peek();
+		if (head != null) {
+			head.signalled = true;
+			LockSupport.unpark(head.thread);
+		}
+	}
+
+	/**
+	 * Returns true if no thread is waiting.
+	 * 
+	 * @return true if the queue is empty
+	 */
+	boolean isEmpty() {
+		return waiters.isEmpty();
+	}
+}
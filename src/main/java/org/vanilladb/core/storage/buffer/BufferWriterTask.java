@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task keeps writing the dirty buffers that are about to be replaced, so
+ * that pinning a block rarely has to write the page of its victim, and to
+ * force the log before that, on the foreground. The writes are limited to
+ * {@code BATCH_SIZE} buffers every {@code PERIOD} milliseconds.
+ */
+public class BufferWriterTask extends Task {
+	private static Logger logger = Logger.getLogger(BufferWriterTask.class
+			.getName());
+
+	private static final long PERIOD;
+	private static final int BATCH_SIZE;
+
+	static {
+		PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				BufferWriterTask.class.getName() + ".PERIOD", 200);
+		BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				BufferWriterTask.class.getName() + ".BATCH_SIZE", 64);
+	}
+
+	@Override
+	public void run() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Start writing dirty buffers in the background");
+		while (true) {
+			BufferMgr.bufferPool.writeDirtyBuffers(BATCH_SIZE);
+			try {
+				Thread.sleep(PERIOD);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The clock-sweep replacement policy. Each buffer has a usage count that is
+ * increased, up to {@code MAX_USAGE_COUNT}, whenever the buffer is pinned. The
+ * clock hand sweeps over the buffers and decreases their usage counts, and
+ * the first buffer found with a zero count and not in use is replaced. A page
+ * touched once by a scan is therefore replaced before the pages that are used
+ * over and over again.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+	private static final int MAX_USAGE_COUNT;
+
+	static {
+		MAX_USAGE_COUNT = CoreProperties.getLoader().getPropertyAsInteger(
+				ClockPolicy.class.getName() + ".MAX_USAGE_COUNT", 5);
+	}
+
+	private int numBuffs;
+	private AtomicIntegerArray usageCounts;
+	private AtomicInteger hand = new AtomicInteger();
+
+	public ClockPolicy(int numBuffs) {
+		this.numBuffs = numBuffs;
+		this.usageCounts = new AtomicIntegerArray(numBuffs);
+	}
+
+	@Override
+	public void onPin(int idx) {
+		int count = usageCounts.get(idx);
+		if (count < MAX_USAGE_COUNT)
+			usageCounts.compareAndSet(idx, count, count + 1);
+	}
+
+	@Override
+	public void onReplace(int idx) {
+		usageCounts.set(idx, 0);
+	}
+
+	@Override
+	public int usageCount(int idx) {
+		return usageCounts.get(idx);
+	}
+
+	@Override
+	public int replace(Replacer replacer) {
+		// after MAX_USAGE_COUNT + 1 rounds, every count has dropped to zero
+		int steps = (MAX_USAGE_COUNT + 2) * numBuffs;
+		for (int i = 0; i < steps; i++) {
+			int idx = (hand.getAndIncrement() & Integer.MAX_VALUE) % numBuffs;
+			int count = usageCounts.get(idx);
+			if (count > 0) {
+				usageCounts.compareAndSet(idx, count, count - 1);
+				continue;
+			}
+			if (replacer.tryReplace(idx))
+				return idx;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the buffers in front of the clock hand whose usage counts will
+	 * drop to zero within one round.
+	 */
+	@Override
+	public int[] nextVictims(int maxCount) {
+		int[] victims = new int[Math.min(maxCount, numBuffs)];
+		int count = 0;
+		int start = hand.get() & Integer.MAX_VALUE;
+		for (int i = 0; i < numBuffs && count < victims.length; i++) {
+			int idx = (start + i) % numBuffs;
+			if (usageCounts.get(idx) <= 1)
+				victims[count++] = idx;
+		}
+		return count == victims.length ? victims : Arrays.copyOf(victims, count);
+	}
+}
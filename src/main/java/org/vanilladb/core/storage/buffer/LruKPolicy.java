@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The LRU-K replacement policy. The times of the last {@code K} pins of each
+ * buffer are kept, and the buffer whose K-th most recent pin is the oldest,
+ * i.e., the one having the largest backward K-distance, is replaced first.
+ * The buffers pinned fewer than K times have an infinite distance and are
+ * replaced in the LRU order before any other buffer, so the pages read only
+ * once by a scan never push out the pages used repeatedly.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+	private static final int K;
+
+	static {
+		K = CoreProperties.getLoader().getPropertyAsInteger(
+				LruKPolicy.class.getName() + ".K", 2);
+	}
+
+	private int numBuffs;
+	// The pin times of buffer i, the most recent first, are at [i * K, i * K + K)
+	private AtomicLongArray history;
+	private AtomicLong clock = new AtomicLong();
+
+	public LruKPolicy(int numBuffs) {
+		this.numBuffs = numBuffs;
+		this.history = new AtomicLongArray(numBuffs * K);
+	}
+
+	@Override
+	public void onPin(int idx) {
+		int base = idx * K;
+		for (int i = K - 1; i > 0; i--)
+			history.set(base + i, history.get(base + i - 1));
+		history.set(base, clock.incrementAndGet());
+	}
+
+	@Override
+	public void onReplace(int idx) {
+		int base = idx * K;
+		for (int i = 0; i < K; i++)
+			history.set(base + i, 0);
+	}
+
+	/**
+	 * Returns the number of pins kept in the history of the buffer, which is
+	 * at most K.
+	 */
+	@Override
+	public int usageCount(int idx) {
+		int count = 0;
+		for (int i = 0; i < K; i++)
+			if (history.get(idx * K + i) != 0)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Offers the buffers in the order of their backward K-distances. The
+	 * history is read once into a heap, so a miss costs O(n) plus O(log n) per
+	 * buffer in use, instead of a full scan per candidate. The pins recorded
+	 * meanwhile are not taken into account, which only makes the order
+	 * approximate.
+	 */
+	@Override
+	public int replace(Replacer replacer) {
+		VictimHeap heap = new VictimHeap();
+		while (!heap.isEmpty()) {
+			int victim = heap.poll();
+			if (replacer.tryReplace(victim))
+				return victim;
+		}
+		return -1;
+	}
+
+	@Override
+	public int[] nextVictims(int maxCount) {
+		int[] victims = new int[Math.min(maxCount, numBuffs)];
+		VictimHeap heap = new VictimHeap();
+		for (int i = 0; i < victims.length; i++)
+			victims[i] = heap.poll();
+		return victims;
+	}
+
+	/**
+	 * A binary min-heap of the buffers keyed on a snapshot of their K-th most
+	 * recent pin times, breaking ties in the LRU order.
+	 */
+	private class VictimHeap {
+		private long[] kth = new long[numBuffs], last = new long[numBuffs];
+		private int[] heap = new int[numBuffs];
+		private int size = numBuffs;
+
+		VictimHeap() {
+			for (int idx = 0; idx < numBuffs; idx++) {
+				kth[idx] = history.get(idx * K + K - 1);
+				last[idx] = history.get(idx * K);
+				heap[idx] = idx;
+			}
+			for (int i = size / 2 - 1; i >= 0; i--)
+				siftDown(i);
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int poll() {
+			int top = heap[0];
+			heap[0] = heap[--size];
+			siftDown(0);
+			return top;
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int min = i, left = 2 * i + 1, right = left + 1;
+				if (left < size && before(heap[left], heap[min]))
+					min = left;
+				if (right < size && before(heap[right], heap[min]))
+					min = right;
+				if (min == i)
+					return;
+				int tmp = heap[i];
+				heap[i] = heap[min];
+				heap[min] = tmp;
+				i = min;
+			}
+		}
+
+		private boolean before(int a, int b) {
+			return kth[a] < kth[b] || (kth[a] == kth[b] && last[a] < last[b]);
+		}
+	}
+}
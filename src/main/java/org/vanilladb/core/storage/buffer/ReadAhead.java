@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * Reads the blocks of a scan into the buffer pool before the scan pins them.
+ * A read-ahead watches the blocks accessed by a single scan. Once the scan
+ * reads two consecutive blocks, the following blocks are read by a pool of
+ * I/O threads, so that a cold sequential scan keeps several reads in flight
+ * instead of waiting for each of them in turn.
+ * 
+ * <p>
+ * The read-ahead window starts at {@code MIN_WINDOW} blocks, and is doubled
+ * every time the scan has consumed half of the previous window, up to
+ * {@code MAX_WINDOW} blocks. It shrinks back as soon as the scan jumps. A
+ * {@code MAX_WINDOW} of 0 turns read-ahead off.
+ * </p>
+ * 
+ * <p>
+ * The prefetched blocks of a scan with a {@link BufferAccessStrategy} are
+ * placed in the ring of the strategy, so the window is also limited to half
+ * of the ring.
+ * </p>
+ */
+public class ReadAhead {
+	private static final int MIN_WINDOW;
+	private static final int MAX_WINDOW;
+	private static final int IO_THREADS;
+
+	static {
+		MIN_WINDOW = CoreProperties.getLoader().getPropertyAsInteger(
+				ReadAhead.class.getName() + ".MIN_WINDOW", 4);
+		MAX_WINDOW = CoreProperties.getLoader().getPropertyAsInteger(
+				ReadAhead.class.getName() + ".MAX_WINDOW", 32);
+		IO_THREADS = CoreProperties.getLoader().getPropertyAsInteger(
+				ReadAhead.class.getName() + ".IO_THREADS", 4);
+	}
+
+	// Created at the first read-ahead
+	private static class IoThreads {
+		static final ExecutorService executor = Executors.newFixedThreadPool(
+				IO_THREADS, new ThreadFactory() {
+					private AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Read-ahead-"
+								+ count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	private BufferPoolMgr bufferPool;
+	private BufferAccessStrategy strategy;
+	private int minWindow, maxWindow;
+
+	private String fileName;
+	private long lastBlkNum = -1;
+	private long prefetchedTo;
+	private int window;
+
+	/**
+	 * Creates a read-ahead for a scan pinning its blocks with the specified
+	 * strategy.
+	 * 
+	 * @param strategy
+	 *            the buffer access strategy of the scan, or null if the scan
+	 *            uses the buffer pool as usual
+	 */
+	public ReadAhead(BufferAccessStrategy strategy) {
+		this(BufferMgr.bufferPool, strategy, MIN_WINDOW, MAX_WINDOW);
+	}
+
+	ReadAhead(BufferPoolMgr bufferPool, BufferAccessStrategy strategy,
+			int minWindow, int maxWindow) {
+		this.bufferPool = bufferPool;
+		this.strategy = strategy;
+		if (strategy != null)
+			maxWindow = Math.min(maxWindow, strategy.ringSize() / 2);
+		this.maxWindow = maxWindow;
+		this.minWindow = Math.max(1, Math.min(minWindow, maxWindow));
+	}
+
+	/**
+	 * Records that the scan is going to pin the specified block, and reads
+	 * the following blocks ahead if the scan looks sequential.
+	 * 
+	 * @param blk
+	 *            the block to be pinned
+	 * @param fileSize
+	 *            the number of blocks in the file, beyond which nothing is
+	 *            read
+	 */
+	public void access(BlockId blk, long fileSize) {
+		if (maxWindow <= 0)
+			return;
+		long blkNum = blk.number();
+		boolean sequential = blk.fileName().equals(fileName)
+				&& blkNum == lastBlkNum + 1;
+		lastBlkNum = blkNum;
+		if (!sequential) {
+			fileName = blk.fileName();
+			prefetchedTo = blkNum + 1;
+			window = 0;
+			return;
+		}
+
+		// Wait until half of the previous window has been consumed
+		if (prefetchedTo - blkNum > window / 2)
+			return;
+		window = window == 0 ? minWindow : Math.min(window * 2, maxWindow);
+		long to = Math.min(blkNum + 1 + window, fileSize);
+		for (long b = Math.max(prefetchedTo, blkNum + 1); b < to; b++)
+			prefetch(new BlockId(fileName, b));
+		prefetchedTo = Math.max(prefetchedTo, to);
+	}
+
+	/**
+	 * Reads the specified block in the background, e.g., the next block of a
+	 * chain that the scan is likely to follow.
+	 * 
+	 * @param blk
+	 *            the block to be read
+	 */
+	public void prefetch(final BlockId blk) {
+		if (maxWindow <= 0)
+			return;
+		IoThreads.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (bufferPool.prefetch(blk, strategy)
+							&& bufferPool == BufferMgr.bufferPool)
+						// The buffer may have been released to no one
+						BufferMgr.waitQueue.signalNext();
+				} catch (RuntimeException e) {
+					// The scan will read the block by itself
+				}
+			}
+		});
+	}
+}
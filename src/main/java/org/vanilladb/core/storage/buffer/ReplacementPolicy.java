@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+/**
+ * A policy that decides which buffer of the buffer pool should be replaced
+ * when a block that is not buffered is pinned. The buffers are identified by
+ * their indices in the pool.
+ * <p>
+ * The buffer pool calls {@link #onReplace(int)} while no one else can pin the
+ * buffer, but {@link #onPin(int)} is called without any lock, so the pins of
+ * the same buffer may be recorded concurrently. Implementations must support
+ * such calls and concurrent victim searches, though they may keep only an
+ * approximate history under contention.
+ * </p>
+ * <p>
+ * An implementation is chosen by the property
+ * {@code BufferPoolMgr.REPLACEMENT_POLICY} and must have a public constructor
+ * that takes the number of buffers in the pool.
+ * </p>
+ */
+public interface ReplacementPolicy {
+
+	/**
+	 * The callback used by a policy to try replacing a candidate buffer.
+	 */
+	interface Replacer {
+
+		/**
+		 * Tries to assign a new block to the specified buffer.
+		 * 
+		 * @param idx
+		 *            the index of the candidate buffer
+		 * @return true if the buffer has been replaced; false if it is in use
+		 */
+		boolean tryReplace(int idx);
+	}
+
+	/**
+	 * Records that the specified buffer has been pinned.
+	 * 
+	 * @param idx
+	 *            the index of the buffer
+	 */
+	void onPin(int idx);
+
+	/**
+	 * Records that a new block has been assigned to the specified buffer, so
+	 * the history of the previous block can be forgotten.
+	 * 
+	 * @param idx
+	 *            the index of the buffer
+	 */
+	void onReplace(int idx);
+
+	/**
+	 * Offers the candidate buffers to the replacer in the order of this
+	 * policy, until one of them is replaced or this policy gives up.
+	 * 
+	 * @param replacer
+	 *            the replacer
+	 * @return the index of the replaced buffer, or -1 if no buffer has been
+	 *         replaced
+	 */
+	int replace(Replacer replacer);
+
+	/**
+	 * Returns the buffers that this policy is likely to offer for replacement
+	 * next, without changing its state.
+	 * 
+	 * @param maxCount
+	 *            the maximal number of buffers to be returned
+	 * @return the indices of the buffers, the most likely victim first
+	 */
+	int[] nextVictims(int maxCount);
+
+	/**
+	 * Returns how often the specified buffer has been pinned recently, as far
+	 * as this policy keeps track of it. A larger count means that the block
+	 * is more worth keeping in the pool.
+	 * 
+	 * @param idx
+	 *            the index of the buffer
+	 * @return the usage count of the buffer
+	 */
+	int usageCount(int idx);
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+/**
+ * The replacement policy that walks round-robin from the last replaced buffer
+ * and replaces the first buffer not in use.
+ */
+public class RoundRobinPolicy implements ReplacementPolicy {
+	private int numBuffs;
+	private volatile int lastReplacedBuff;
+
+	public RoundRobinPolicy(int numBuffs) {
+		this.numBuffs = numBuffs;
+	}
+
+	@Override
+	public void onPin(int idx) {
+		// do nothing
+	}
+
+	@Override
+	public void onReplace(int idx) {
+		// do nothing
+	}
+
+	@Override
+	public int usageCount(int idx) {
+		// no history is kept
+		return 0;
+	}
+
+	@Override
+	public int replace(Replacer replacer) {
+		int lastReplacedBuff = this.lastReplacedBuff;
+		int currBlk = (lastReplacedBuff + 1) % numBuffs;
+		while (currBlk != lastReplacedBuff) {
+			if (replacer.tryReplace(currBlk)) {
+				this.lastReplacedBuff = currBlk;
+				return currBlk;
+			}
+			currBlk = (currBlk + 1) % numBuffs;
+		}
+		return -1;
+	}
+
+	@Override
+	public int[] nextVictims(int maxCount) {
+		int lastReplacedBuff = this.lastReplacedBuff;
+		int[] victims = new int[Math.min(maxCount, numBuffs)];
+		for (int i = 0; i < victims.length; i++)
+			victims[i] = (lastReplacedBuff + 1 + i) % numBuffs;
+		return victims;
+	}
+}
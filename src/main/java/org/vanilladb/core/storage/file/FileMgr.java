@@ -184,6 +184,30 @@ public class FileMgr {
 		}
 	}
 
+	/**
+	 * Writes the contents of the byte buffers into consecutive disk blocks.
+	 * 
+	 * @param firstBlk
+	 *            the block ID of the first block
+	 * @param buffers
+	 *            the byte buffers
+	 */
+	void write(BlockId firstBlk, IoBuffer[] buffers) {
+		try {
+			IoChannel fileChannel = getFileChannel(firstBlk.fileName());
+
+			// rewind the buffers
+			for (IoBuffer buffer : buffers)
+				buffer.rewind();
+
+			// write the blocks to the file
+			fileChannel.write(buffers, firstBlk.number() * BLOCK_SIZE);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("cannot write blocks from " + firstBlk);
+		}
+	}
+
 	/**
 	 * Appends the contents of a byte buffer to the end of the specified file.
 	 * 
@@ -239,6 +263,15 @@ public class FileMgr {
 		return isNew;
 	}
 
+	/**
+	 * Returns the directory that holds the database files.
+	 * 
+	 * @return the database directory
+	 */
+	public File dbDirectory() {
+		return dbDirectory;
+	}
+
 	/**
 	 * Deletes all old log files and builds new log files. XXX: This should not
 	 * be the business of FileMgr
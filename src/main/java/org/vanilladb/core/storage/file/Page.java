@@ -15,11 +15,21 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.file;
 
+import static java.sql.Types.BIGINT;
+import static java.sql.Types.DOUBLE;
+import static java.sql.Types.INTEGER;
+
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
+import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharType;
 import org.vanilladb.core.storage.file.io.IoAllocator;
 import org.vanilladb.core.storage.file.io.IoBuffer;
 import org.vanilladb.core.util.ByteHelper;
@@ -65,6 +75,20 @@ public class Page {
 		BLOCK_SIZE = CoreProperties.getLoader().getPropertyAsInteger(Page.class.getName() + ".BLOCK_SIZE", 4096);
 	}
 
+	// How the encoded bytes of strings can be compared in place
+	private static final int BYTES_UNORDERED = 0, BYTES_SINGLE_BYTE = 1,
+			BYTES_UTF8 = 2;
+	private static final int VARCHAR_BYTE_ORDER;
+	static {
+		String charSet = Charset.forName(VarcharType.CHAR_SET).name();
+		if (charSet.equals("UTF-8"))
+			VARCHAR_BYTE_ORDER = BYTES_UTF8;
+		else if (charSet.equals("ISO-8859-1") || charSet.equals("US-ASCII"))
+			VARCHAR_BYTE_ORDER = BYTES_SINGLE_BYTE;
+		else
+			VARCHAR_BYTE_ORDER = BYTES_UNORDERED;
+	}
+
 	/**
 	 * Calculates the maximum number of bytes required to store a value of a
 	 * particular {@link Type type} in disk.
@@ -123,6 +147,22 @@ public class Page {
 		fileMgr.write(blk, contents);
 	}
 
+	/**
+	 * Writes the contents of the pages to consecutive disk blocks starting
+	 * from the specified one. The pages must not be modified during writing.
+	 * 
+	 * @param pages
+	 *            the pages
+	 * @param firstBlk
+	 *            the block ID of the first block
+	 */
+	public static void write(Page[] pages, BlockId firstBlk) {
+		IoBuffer[] buffers = new IoBuffer[pages.length];
+		for (int i = 0; i < pages.length; i++)
+			buffers[i] = pages[i].contents;
+		pages[0].fileMgr.write(firstBlk, buffers);
+	}
+
 	/**
 	 * Appends the contents of the page to the specified file.
 	 * 
@@ -149,24 +189,230 @@ public class Page {
 	 */
 	public synchronized Constant getVal(int offset, Type type) {
 		int size;
-		byte[] byteVal = null;
+
+		// Numeric values are built without intermediate arrays
+		switch (type.getSqlType()) {
+		case INTEGER:
+			return new IntegerConstant(contents.getInt(offset));
+		case BIGINT:
+			return new BigIntConstant(contents.getLong(offset));
+		case DOUBLE:
+			return new DoubleConstant(Double.longBitsToDouble(contents
+					.getLong(offset)));
+		}
 
 		// Check the length of bytes
 		if (type.isFixedSize()) {
 			size = type.maxSize();
 		} else {
-			byteVal = new byte[ByteHelper.INT_SIZE];
-			contents.get(offset, byteVal);
-			size = ByteHelper.toInteger(byteVal);
+			size = contents.getInt(offset);
 			offset += ByteHelper.INT_SIZE;
 		}
 
 		// Get bytes and translate it to Constant
-		byteVal = new byte[size];
+		byte[] byteVal = new byte[size];
 		contents.get(offset, byteVal);
 		return Constant.newInstance(type, byteVal);
 	}
 
+	/**
+	 * Returns the integer at a specified offset of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the integer at that offset
+	 */
+	public synchronized int getInt(int offset) {
+		return contents.getInt(offset);
+	}
+
+	/**
+	 * Returns the long integer at a specified offset of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the long integer at that offset
+	 */
+	public synchronized long getLong(int offset) {
+		return contents.getLong(offset);
+	}
+
+	/**
+	 * Returns the double at a specified offset of this page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the double at that offset
+	 */
+	public synchronized double getDouble(int offset) {
+		return Double.longBitsToDouble(contents.getLong(offset));
+	}
+
+	/**
+	 * Copies the raw bytes at a specified offset of this page into the
+	 * specified array.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param dst
+	 *            the array to be filled with the bytes
+	 */
+	public synchronized void getBytes(int offset, byte[] dst) {
+		contents.get(offset, dst);
+	}
+
+	/**
+	 * Copies the bytes at the specified offset of the page into the remaining
+	 * space of the specified buffer.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param dst
+	 *            the buffer to be filled with the bytes
+	 */
+	public synchronized void getBytes(int offset, ByteBuffer dst) {
+		contents.get(offset, dst);
+	}
+
+	/**
+	 * Compares two values of the same type stored in this page, without
+	 * materializing them as constants. The result has the sign of
+	 * {@code getVal(offset1, type).compareTo(getVal(offset2, type))}.
+	 * 
+	 * @param offset1
+	 *            the byte offset of the first value
+	 * @param offset2
+	 *            the byte offset of the second value
+	 * @param type
+	 *            the type of both values
+	 * @return the result of the comparison
+	 */
+	public synchronized int compareVal(int offset1, int offset2, Type type) {
+		switch (type.getSqlType()) {
+		case INTEGER:
+			return Integer.compare(contents.getInt(offset1),
+					contents.getInt(offset2));
+		case BIGINT:
+			return Long.compare(contents.getLong(offset1),
+					contents.getLong(offset2));
+		case DOUBLE:
+			return Double.compare(
+					Double.longBitsToDouble(contents.getLong(offset1)),
+					Double.longBitsToDouble(contents.getLong(offset2)));
+		}
+		if (type.isFixedSize() || VARCHAR_BYTE_ORDER == BYTES_UNORDERED)
+			return getVal(offset1, type).compareTo(getVal(offset2, type));
+
+		int len1 = contents.getInt(offset1);
+		int len2 = contents.getInt(offset2);
+		offset1 += ByteHelper.INT_SIZE;
+		offset2 += ByteHelper.INT_SIZE;
+		int charStart = 0;
+		for (int i = 0; i < Math.min(len1, len2); i++) {
+			int b1 = contents.getByte(offset1 + i) & 0xFF;
+			int b2 = contents.getByte(offset2 + i) & 0xFF;
+			if (b1 == b2) {
+				if ((b1 & 0xC0) != 0x80)
+					charStart = i;
+				continue;
+			}
+			if (VARCHAR_BYTE_ORDER == BYTES_SINGLE_BYTE)
+				return b1 - b2;
+
+			/*
+			 * UTF-8 bytes are ordered by code points, but strings are ordered
+			 * by UTF-16 chars. The two orders only disagree between the
+			 * supplementary characters and U+E000 to U+FFFF, whose lead bytes
+			 * are 0xEE and above.
+			 */
+			int lead = (b1 & 0xC0) == 0x80 ? contents.getByte(offset1
+					+ charStart) & 0xFF : Math.max(b1, b2);
+			if (lead >= 0xEE)
+				return getVal(offset1 - ByteHelper.INT_SIZE, type).compareTo(
+						getVal(offset2 - ByteHelper.INT_SIZE, type));
+			return b1 - b2;
+		}
+		return len1 - len2;
+	}
+
+	/**
+	 * Returns the value at a specified offset of this page like
+	 * {@link #getVal(int, Type)}, but without synchronization. It is meant for
+	 * optimistic readers that can tell whether the page has been modified
+	 * during the call, since the value may be torn by a concurrent writer.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * 
+	 * @param type
+	 *            the type of the value
+	 * 
+	 * @return the constant value at that offset, or null if the value cannot
+	 *         be read without synchronization or does not look valid
+	 */
+	public Constant peekVal(int offset, Type type) {
+		try {
+			int size;
+			byte[] byteVal;
+
+			// Numeric values are built without intermediate arrays
+			switch (type.getSqlType()) {
+			case INTEGER:
+				return new IntegerConstant(contents.peekInt(offset));
+			case BIGINT:
+				return new BigIntConstant(contents.peekLong(offset));
+			case DOUBLE:
+				return new DoubleConstant(Double.longBitsToDouble(contents
+						.peekLong(offset)));
+			}
+
+			// Check the length of bytes
+			if (type.isFixedSize()) {
+				size = type.maxSize();
+			} else {
+				size = contents.peekInt(offset);
+				offset += ByteHelper.INT_SIZE;
+				if (size < 0 || offset + size > BLOCK_SIZE)
+					return null;
+			}
+
+			// Get bytes and translate it to Constant
+			byteVal = new byte[size];
+			if (!contents.peek(offset, byteVal))
+				return null;
+			return Constant.newInstance(type, byteVal);
+		} catch (RuntimeException e) {
+			// a torn value, or a bad offset that the caller will run into again
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the integer at a specified offset of this page like
+	 * {@link #getInt(int)}, but without synchronization. The integer may be
+	 * torn by a concurrent writer.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the integer at that offset
+	 */
+	public int peekInt(int offset) {
+		return contents.peekInt(offset);
+	}
+
+	/**
+	 * Returns the long integer at a specified offset of this page like
+	 * {@link #getLong(int)}, but without synchronization. The long integer may
+	 * be torn by a concurrent writer.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @return the long integer at that offset
+	 */
+	public long peekLong(int offset) {
+		return contents.peekLong(offset);
+	}
+
 	/**
 	 * Writes a constant value to the specified offset on the page.
 	 * 
@@ -177,6 +423,20 @@ public class Page {
 	 *            the constant value to be written to the page
 	 */
 	public synchronized void setVal(int offset, Constant val) {
+		// Numeric values are written without intermediate arrays
+		switch (val.getType().getSqlType()) {
+		case INTEGER:
+			contents.putInt(offset, (Integer) val.asJavaVal());
+			return;
+		case BIGINT:
+			contents.putLong(offset, (Long) val.asJavaVal());
+			return;
+		case DOUBLE:
+			contents.putLong(offset,
+					Double.doubleToRawLongBits((Double) val.asJavaVal()));
+			return;
+		}
+
 		byte[] byteval = val.asBytes();
 
 		// Append the size of value if it is not fixed size
@@ -185,15 +445,63 @@ public class Page {
 			if (offset + ByteHelper.INT_SIZE + byteval.length > BLOCK_SIZE)
 				throw new BufferOverflowException();
 
-			byte[] sizeBytes = ByteHelper.toBytes(byteval.length);
-			contents.put(offset, sizeBytes);
-			offset += sizeBytes.length;
+			contents.putInt(offset, byteval.length);
+			offset += ByteHelper.INT_SIZE;
 		}
 
 		// Put bytes
 		contents.put(offset, byteval);
 	}
 
+	/**
+	 * Writes an integer to the specified offset on the page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param val
+	 *            the integer to be written
+	 */
+	public synchronized void putInt(int offset, int val) {
+		contents.putInt(offset, val);
+	}
+
+	/**
+	 * Writes a long integer to the specified offset on the page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param val
+	 *            the long integer to be written
+	 */
+	public synchronized void putLong(int offset, long val) {
+		contents.putLong(offset, val);
+	}
+
+	/**
+	 * Writes the remaining bytes of the specified buffer to the specified
+	 * offset on the page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param src
+	 *            the buffer containing the bytes
+	 */
+	public synchronized void putBytes(int offset, ByteBuffer src) {
+		contents.put(offset, src);
+	}
+
+	/**
+	 * Writes a double to the specified offset on the page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param val
+	 *            the double to be written
+	 */
+	public synchronized void putDouble(int offset, double val) {
+		contents.putLong(offset, Double.doubleToRawLongBits(val));
+	}
+
 	/**
 	 * Close this page to release resources.
 	 */
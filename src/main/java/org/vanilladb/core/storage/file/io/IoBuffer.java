@@ -15,12 +15,101 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.file.io;
 
+import java.nio.ByteBuffer;
+
 public interface IoBuffer {
 
 	IoBuffer get(int position, byte[] dst);
 
+	/**
+	 * Reads bytes at the specified position into the remaining space of the
+	 * specified buffer, whose position is advanced accordingly.
+	 * 
+	 * @param position
+	 *            the position to read from
+	 * @param dst
+	 *            the buffer to be filled
+	 * @return this buffer
+	 */
+	IoBuffer get(int position, ByteBuffer dst);
+
+	/**
+	 * Reads bytes at the specified position without changing the state of
+	 * this buffer, so that it may be called concurrently with any other
+	 * method. The bytes read may be inconsistent if they are being written.
+	 * 
+	 * @param position
+	 *            the position to read from
+	 * @param dst
+	 *            the array to be filled
+	 * @return false if this buffer does not support such reads
+	 */
+	boolean peek(int position, byte[] dst);
+
+	byte getByte(int position);
+
+	/**
+	 * Reads the big-endian integer at the specified position, without
+	 * copying it into an intermediate array.
+	 * 
+	 * @param position
+	 *            the position to read from
+	 * @return the integer
+	 */
+	int getInt(int position);
+
+	/**
+	 * Reads the big-endian long at the specified position, without copying it
+	 * into an intermediate array.
+	 * 
+	 * @param position
+	 *            the position to read from
+	 * @return the long
+	 */
+	long getLong(int position);
+
+	/**
+	 * Reads the big-endian integer at the specified position like
+	 * {@link #getInt(int)}, but without changing the state of this buffer, so
+	 * that it may be called concurrently with any other method. The integer
+	 * read may be inconsistent if it is being written.
+	 * 
+	 * @param position
+	 *            the position to read from
+	 * @return the integer
+	 */
+	int peekInt(int position);
+
+	/**
+	 * Reads the big-endian long at the specified position like
+	 * {@link #getLong(int)}, but without changing the state of this buffer.
+	 * The long read may be inconsistent if it is being written.
+	 * 
+	 * @param position
+	 *            the position to read from
+	 * @return the long
+	 */
+	long peekLong(int position);
+
 	IoBuffer put(int position, byte[] src);
 
+	/**
+	 * Writes the remaining bytes of the specified buffer at the specified
+	 * position, without copying them into an intermediate array. The position
+	 * of the source buffer is advanced accordingly.
+	 * 
+	 * @param position
+	 *            the position to write to
+	 * @param src
+	 *            the buffer containing the bytes
+	 * @return this buffer
+	 */
+	IoBuffer put(int position, ByteBuffer src);
+
+	IoBuffer putInt(int position, int val);
+
+	IoBuffer putLong(int position, long val);
+
 	void clear();
 
 	void rewind();
@@ -22,6 +22,20 @@ public interface IoChannel {
 	int read(IoBuffer buffer, long position) throws IOException;
 	
 	int write(IoBuffer buffer, long position) throws IOException;
+
+	/**
+	 * Writes the contents of the buffers to consecutive positions of the
+	 * channel starting from the specified position, in a single request if
+	 * possible.
+	 * 
+	 * @param buffers
+	 *            the buffers to be written
+	 * @param position
+	 *            the position of the first buffer
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	long write(IoBuffer[] buffers, long position) throws IOException;
 	
 	long append(IoBuffer buffer) throws IOException;
 	
@@ -34,12 +34,76 @@ public class JavaNioByteBuffer implements IoBuffer {
 		return this;
 	}
 
+	@Override
+	public IoBuffer get(int position, ByteBuffer dst) {
+		// ByteBuffer has no bulk get into another buffer
+		ByteBuffer src = byteBuffer.duplicate();
+		src.limit(position + dst.remaining());
+		src.position(position);
+		dst.put(src);
+		return this;
+	}
+
+	@Override
+	public boolean peek(int position, byte[] dst) {
+		// Absolute gets do not touch the position of the buffer
+		for (int i = 0; i < dst.length; i++)
+			dst[i] = byteBuffer.get(position + i);
+		return true;
+	}
+
+	@Override
+	public byte getByte(int position) {
+		return byteBuffer.get(position);
+	}
+
+	@Override
+	public int getInt(int position) {
+		// A ByteBuffer is big-endian by default, as is ByteHelper
+		return byteBuffer.getInt(position);
+	}
+
+	@Override
+	public long getLong(int position) {
+		return byteBuffer.getLong(position);
+	}
+
+	@Override
+	public int peekInt(int position) {
+		// Absolute gets do not touch the position of the buffer
+		return byteBuffer.getInt(position);
+	}
+
+	@Override
+	public long peekLong(int position) {
+		return byteBuffer.getLong(position);
+	}
+
 	@Override
 	public IoBuffer put(int position, byte[] src) {
 		byteBuffer.position(position);
 		byteBuffer.put(src);
 		return this;
 	}
+
+	@Override
+	public IoBuffer put(int position, ByteBuffer src) {
+		byteBuffer.position(position);
+		byteBuffer.put(src);
+		return this;
+	}
+
+	@Override
+	public IoBuffer putInt(int position, int val) {
+		byteBuffer.putInt(position, val);
+		return this;
+	}
+
+	@Override
+	public IoBuffer putLong(int position, long val) {
+		byteBuffer.putLong(position, val);
+		return this;
+	}
 	
 	@Override
 	public void clear() {
@@ -18,6 +18,7 @@ package org.vanilladb.core.storage.file.io.javanio;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -67,6 +68,33 @@ public class JavaNioFileChannel implements IoChannel {
 		}
 	}
 
+	@Override
+	public long write(IoBuffer[] buffers, long position) throws IOException {
+		lock.writeLock().lock();
+		try {
+			ByteBuffer[] byteBuffers = new ByteBuffer[buffers.length];
+			long remaining = 0;
+			for (int i = 0; i < buffers.length; i++) {
+				byteBuffers[i] = ((JavaNioByteBuffer) buffers[i]).getByteBuffer();
+				remaining += byteBuffers[i].remaining();
+			}
+
+			// A gathering write, which is done by a single system call
+			fileChannel.position(position);
+			long writeSize = 0;
+			while (writeSize < remaining)
+				writeSize += fileChannel.write(byteBuffers);
+
+			// Check if we need to update the size
+			if (position + writeSize > fileSize)
+				fileSize = position + writeSize;
+
+			return writeSize;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	@Override
 	public long append(IoBuffer buffer) throws IOException {
 		lock.writeLock().lock();
@@ -15,19 +15,27 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.file.io.jaydio;
 
+import java.nio.ByteBuffer;
+
+import com.sun.jna.Pointer;
+
 import net.smacke.jaydio.DirectIoLib;
 import net.smacke.jaydio.buffer.AlignedDirectByteBuffer;
 
 import org.vanilladb.core.storage.file.FileMgr;
 import org.vanilladb.core.storage.file.io.IoBuffer;
+import org.vanilladb.core.util.ByteHelper;
 
 public class JaydioDirectByteBuffer implements IoBuffer {
 
 	private AlignedDirectByteBuffer byteBuffer;
+	// the start of the buffer, for the reads not touching its position
+	private Pointer pointer;
 	
 	public JaydioDirectByteBuffer(int capacity) {
 		byteBuffer = AlignedDirectByteBuffer
 				.allocate(DirectIoLib.getLibForPath(FileMgr.DB_FILES_DIR), capacity);
+		pointer = byteBuffer.pointer();
 	}
 	
 	@Override
@@ -37,12 +45,91 @@ public class JaydioDirectByteBuffer implements IoBuffer {
 		return this;
 	}
 
+	@Override
+	public IoBuffer get(int position, ByteBuffer dst) {
+		byteBuffer.position(position);
+		byteBuffer.get(dst);
+		return this;
+	}
+
+	@Override
+	public boolean peek(int position, byte[] dst) {
+		// AlignedDirectByteBuffer only supports relative gets, so read
+		// through its pointer instead
+		pointer.read(position, dst, 0, dst.length);
+		return true;
+	}
+
+	@Override
+	public byte getByte(int position) {
+		byteBuffer.position(position);
+		return byteBuffer.get();
+	}
+
+	@Override
+	public int getInt(int position) {
+		// Assemble the bytes in the order of ByteHelper
+		byteBuffer.position(position);
+		int val = 0;
+		for (int i = 0; i < ByteHelper.INT_SIZE; i++)
+			val = (val << 8) | (byteBuffer.get() & 0xFF);
+		return val;
+	}
+
+	@Override
+	public long getLong(int position) {
+		byteBuffer.position(position);
+		long val = 0;
+		for (int i = 0; i < ByteHelper.LONG_SIZE; i++)
+			val = (val << 8) | (byteBuffer.get() & 0xFF);
+		return val;
+	}
+
+	@Override
+	public int peekInt(int position) {
+		int val = 0;
+		for (int i = 0; i < ByteHelper.INT_SIZE; i++)
+			val = (val << 8) | (pointer.getByte(position + i) & 0xFF);
+		return val;
+	}
+
+	@Override
+	public long peekLong(int position) {
+		long val = 0;
+		for (int i = 0; i < ByteHelper.LONG_SIZE; i++)
+			val = (val << 8) | (pointer.getByte(position + i) & 0xFF);
+		return val;
+	}
+
 	@Override
 	public IoBuffer put(int position, byte[] src) {
 		byteBuffer.position(position);
 		byteBuffer.put(src);
 		return this;
 	}
+
+	@Override
+	public IoBuffer put(int position, ByteBuffer src) {
+		byteBuffer.position(position);
+		byteBuffer.put(src);
+		return this;
+	}
+
+	@Override
+	public IoBuffer putInt(int position, int val) {
+		byteBuffer.position(position);
+		for (int i = ByteHelper.INT_SIZE - 1; i >= 0; i--)
+			byteBuffer.put((byte) (val >> i * 8));
+		return this;
+	}
+
+	@Override
+	public IoBuffer putLong(int position, long val) {
+		byteBuffer.position(position);
+		for (int i = ByteHelper.LONG_SIZE - 1; i >= 0; i--)
+			byteBuffer.put((byte) (val >> i * 8));
+		return this;
+	}
 	
 	@Override
 	public void clear() {
@@ -67,6 +67,28 @@ public class JaydioDirectIoChannel implements IoChannel {
 		}
 	}
 
+	@Override
+	public long write(IoBuffer[] buffers, long position) throws IOException {
+		lock.writeLock().lock();
+		try {
+			// Jaydio has no gathering write, so the buffers are written in turn
+			long writeSize = 0;
+			for (IoBuffer buffer : buffers) {
+				JaydioDirectByteBuffer jaydioBuffer = (JaydioDirectByteBuffer) buffer;
+				writeSize += fileChannel.write(jaydioBuffer.getAlignedDirectByteBuffer(),
+						position + writeSize);
+			}
+
+			// Check if we need to update the size
+			if (position + writeSize > fileSize)
+				fileSize = position + writeSize;
+
+			return writeSize;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	@Override
 	public long append(IoBuffer buffer) throws IOException {
 		lock.writeLock().lock();
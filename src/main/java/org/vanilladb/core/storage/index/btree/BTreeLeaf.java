@@ -24,6 +24,7 @@ import org.vanilladb.core.sql.ConstantRange;
 import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.ReadAhead;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -143,6 +144,8 @@ public class BTreeLeaf {
 
 	private long moveFrom = -1;
 
+	private ReadAhead readAhead;
+
 	/**
 	 * Opens a page to hold the specified B-tree leaf block. The page is
 	 * positioned immediately before the first B-tree leaf record matching the
@@ -450,6 +453,15 @@ public class BTreeLeaf {
 		currentPage.close();
 		currentPage = new BTreePage(blk, NUM_FLAGS, schema, tx);
 		currentSlot = slot;
+
+		// The scan is likely to follow the chain it is on
+		long nextBlkNum = overflowing ? getOverflowFlag(currentPage)
+				: getSiblingFlag(currentPage);
+		if (nextBlkNum != -1 && nextBlkNum != overflowFrom) {
+			if (readAhead == null)
+				readAhead = new ReadAhead(null);
+			readAhead.prefetch(new BlockId(blk.fileName(), nextBlkNum));
+		}
 	}
 	
 	private void insert(int slot, Constant val, RecordId rid) {
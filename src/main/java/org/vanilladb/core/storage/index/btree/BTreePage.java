@@ -154,7 +154,7 @@ public class BTreePage {
 	 * @return the i-th flag
 	 */
 	public long getFlag(int i) {
-		return (Long) getVal(Page.maxSize(INTEGER) + Page.maxSize(BIGINT) * i, BIGINT).asJavaVal();
+		return currentBuff.getLong(Page.maxSize(INTEGER) + Page.maxSize(BIGINT) * i);
 	}
 
 	/**
@@ -338,7 +338,7 @@ public class BTreePage {
 		// return (Integer) getVal(0, INTEGER).asJavaVal();
 		// Optimization:
 		if (numberOfRecords == -1)
-			numberOfRecords = (Integer) getVal(0, INTEGER).asJavaVal();
+			numberOfRecords = currentBuff.getInt(0);
 		return numberOfRecords;
 	}
 
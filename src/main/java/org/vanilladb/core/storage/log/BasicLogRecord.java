@@ -15,9 +15,12 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.log;
 
+import java.nio.ByteBuffer;
+
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.util.ByteHelper;
 
 /**
  * A log record located at a specified position of a specified page. The method
@@ -28,6 +31,7 @@ import org.vanilladb.core.storage.file.Page;
 public class BasicLogRecord {
 	private LogPosition lsn;
 	private Page pg;
+	private ByteBuffer buf;
 	private int currentPos;
 
 	/**
@@ -45,19 +49,74 @@ public class BasicLogRecord {
 		this.currentPos = (int) lsn.offset();
 	}
 
+	/**
+	 * A log record whose values are stored in the specified byte buffer,
+	 * starting at its current position. The values are laid out in the same
+	 * way as they are in a log page. This constructor is used to read the
+	 * records kept in the {@link NVMLogRingBuffer NVM log ring buffer}, which
+	 * have no position in the log file.
+	 * 
+	 * @param buf
+	 *            the buffer containing the log record
+	 */
+	public BasicLogRecord(ByteBuffer buf) {
+		this.buf = buf;
+		this.lsn = null;
+		this.currentPos = buf.position();
+	}
+
 	/**
 	 * Returns the next value of this log record.
 	 * 
 	 * @return the next value
 	 */
 	public Constant nextVal(Type type) {
-		Constant val = pg.getVal(currentPos, type);
-		currentPos += Page.size(val);
-		return val;
+		if (pg != null) {
+			Constant val = pg.getVal(currentPos, type);
+			currentPos += Page.size(val);
+			return val;
+		}
+
+		int size;
+		if (type.isFixedSize()) {
+			size = type.maxSize();
+		} else {
+			size = buf.getInt(currentPos);
+			currentPos += ByteHelper.INT_SIZE;
+		}
+		byte[] byteVal = new byte[size];
+		buf.position(currentPos);
+		buf.get(byteVal);
+		currentPos += size;
+		return Constant.newInstance(type, byteVal);
 	}
 	
 	/**
-	 * Returns the log sequence number of this log record.
+	 * Reads the bytes of a log record appended by
+	 * {@link LogMgr#append(ByteBuffer)} into the specified buffer, which is
+	 * cleared first and flipped afterwards. A larger buffer is allocated if
+	 * the bytes do not fit.
+	 * 
+	 * @param dst
+	 *            the buffer to be reused
+	 * @return the buffer holding the bytes
+	 */
+	public ByteBuffer readBytes(ByteBuffer dst) {
+		int length = pg.getInt(currentPos);
+		if (dst == null || dst.capacity() < length)
+			dst = ByteBuffer.allocate(Math.max(length, dst == null ? 0
+					: dst.capacity() * 2));
+		dst.clear();
+		dst.limit(length);
+		pg.getBytes(currentPos + ByteHelper.INT_SIZE, dst);
+		currentPos += ByteHelper.INT_SIZE + length;
+		dst.flip();
+		return dst;
+	}
+
+	/**
+	 * Returns the log sequence number of this log record, or null if the
+	 * record is not read from the log file.
 	 * 
 	 * @return the LSN
 	 */
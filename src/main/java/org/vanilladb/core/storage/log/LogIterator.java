@@ -42,7 +42,7 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 	public LogIterator(BlockId blk) {
 		this.blk = this.endBlk = blk;
 		pg.read(blk);
-		currentRec = (Integer) pg.getVal(LogMgr.LAST_POS, INTEGER).asJavaVal();
+		currentRec = pg.getInt(LogMgr.LAST_POS);
 	}
 
 	/**
@@ -75,7 +75,7 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 		}
 		if (currentRec == 0)
 			moveToNextBlock();
-		currentRec = (Integer) pg.getVal(currentRec, INTEGER).asJavaVal();
+		currentRec = pg.getInt(currentRec);
 		return new BasicLogRecord(pg, new LogPosition(blk.number(), currentRec + pointerSize * 2));
 	}
 
@@ -91,8 +91,8 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 			isForward = false;
 		}
 		return (blk.number() < endBlk.number())
-				|| (currentRec < (Integer) pg.getVal(LogMgr.LAST_POS, INTEGER)
-						.asJavaVal() && blk.number() <= endBlk.number());
+				|| (currentRec < pg.getInt(LogMgr.LAST_POS) && blk.number() <= endBlk
+						.number());
 	}
 
 	@Override
@@ -102,11 +102,11 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 			isForward = false;
 		}
 		// if the currentRec point back to the front
-		if (currentRec > (Integer) pg.getVal(currentRec, INTEGER).asJavaVal())
+		if (currentRec > pg.getInt(currentRec))
 			moveToPrevBlock();
 
 		BasicLogRecord record = new BasicLogRecord(pg, new LogPosition(blk.number(), currentRec + pointerSize));
-		currentRec = (Integer) pg.getVal(currentRec, INTEGER).asJavaVal();
+		currentRec = pg.getInt(currentRec);
 		return record;
 
 	}
@@ -118,7 +118,7 @@ public class LogIterator implements ReversibleIterator<BasicLogRecord> {
 	private void moveToNextBlock() {
 		blk = new BlockId(blk.fileName(), blk.number() - 1);
 		pg.read(blk);
-		currentRec = (Integer) pg.getVal(LogMgr.LAST_POS, INTEGER).asJavaVal();
+		currentRec = pg.getInt(LogMgr.LAST_POS);
 	}
 
 	/**
@@ -18,8 +18,12 @@ package org.vanilladb.core.storage.log;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.storage.file.Page.BLOCK_SIZE;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
@@ -36,8 +40,32 @@ import org.vanilladb.core.util.CoreProperties;
  * string values. The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link org.vanilladb.core.storage.tx.recovery.RecoveryMgr recovery manager}.
+ * 
+ * <p>
+ * If group commit is enabled, the threads calling {@link #flush(LogPosition)}
+ * concurrently share a single write. The first of them becomes the leader,
+ * which waits up to {@code GROUP_COMMIT_MAX_DELAY} milliseconds for at most
+ * {@code GROUP_COMMIT_MAX_BATCH} followers to join and then writes the log
+ * page once for the whole group. The followers park until a write covering
+ * their log records is done.
+ * </p>
+ * 
+ * <p>
+ * The log records are buffered in a ring of {@code LOG_BUFFER_PAGES} pages.
+ * When the current page is full, the appenders move on to the next page
+ * without waiting for any I/O, and a dedicated writer thread writes all the
+ * completed pages with a single gathering write. Flushing a log record in a
+ * completed page only waits for the writer, while flushing a log record in
+ * the current page also writes the current page. If a write fails, the writer
+ * retries it with an exponential backoff of at most
+ * {@code WRITE_RETRY_MAX_DELAY} milliseconds, and the threads waiting for it
+ * get the error instead of waiting on. The writer is a daemon thread, so it
+ * does not keep the server from exiting.
+ * </p>
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
+	private static Logger logger = Logger.getLogger(LogMgr.class.getName());
+
 	/**
 	 * The location where the pointer to the last integer in the page is. A
 	 * value of 0 means that the pointer is the first value in the page.
@@ -47,17 +75,52 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 
 	// Optimization: store the size of pointer to other log record
 	private int pointerSize = Page.maxSize(INTEGER);
-	private Page myPage = new Page();
+	private Page myPage;
 	private BlockId currentBlk;
 	private int currentPos;
 	private LogPosition lastLsn = LogPosition.DEFAULT_VALUE;
-	private LogPosition lastFlushedLsn = LogPosition.DEFAULT_VALUE;
+	private volatile LogPosition lastFlushedLsn = LogPosition.DEFAULT_VALUE;
 
 	private final Lock logMgrLock = new ReentrantLock();
 
+	// The ring of log pages. The pages of the blocks from pendingBlkNum to
+	// the one before currentBlk are completed but have not been written.
+	private static final int LOG_BUFFER_PAGES;
+	private Page[] pages;
+	private long pendingBlkNum;
+	private final Condition pagesCompleted = logMgrLock.newCondition();
+	private final Condition pagesWritten = logMgrLock.newCondition();
+	private static final long WRITE_RETRY_MAX_DELAY;
+	private Thread writer;
+	private boolean closed;
+	// The error of the last write, or null if it succeeded
+	private RuntimeException writeError;
+
+	// Group commit
+	private static final boolean GROUP_COMMIT;
+	private static final long GROUP_COMMIT_MAX_DELAY;
+	private static final int GROUP_COMMIT_MAX_BATCH;
+	private final Object groupLock = new Object();
+	private boolean leaderActive = false;
+	private int followerCount = 0;
+	// The number of flushes that arrived while the current leader is active,
+	// and whether any arrived while the previous leader was active
+	private int arrivalCount = 0;
+	private boolean lastGroupOverlapped = false;
+
 	static {
 		DEFAULT_LOG_FILE = CoreProperties.getLoader().getPropertyAsString(LogMgr.class.getName() + ".LOG_FILE",
 				"vanilladb.log");
+		LOG_BUFFER_PAGES = CoreProperties.getLoader().getPropertyAsInteger(LogMgr.class.getName()
+				+ ".LOG_BUFFER_PAGES", 4);
+		GROUP_COMMIT = CoreProperties.getLoader().getPropertyAsBoolean(LogMgr.class.getName() + ".GROUP_COMMIT",
+				false);
+		GROUP_COMMIT_MAX_DELAY = CoreProperties.getLoader().getPropertyAsLong(LogMgr.class.getName()
+				+ ".GROUP_COMMIT_MAX_DELAY", 1);
+		GROUP_COMMIT_MAX_BATCH = CoreProperties.getLoader().getPropertyAsInteger(LogMgr.class.getName()
+				+ ".GROUP_COMMIT_MAX_BATCH", 64);
+		WRITE_RETRY_MAX_DELAY = CoreProperties.getLoader().getPropertyAsLong(LogMgr.class.getName()
+				+ ".WRITE_RETRY_MAX_DELAY", 1000);
 	}
 	
 	private String logFile;
@@ -77,14 +140,52 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	
 	public LogMgr(String logFileName) {
 		logFile = logFileName;
+		pages = new Page[Math.max(LOG_BUFFER_PAGES, 2)];
+		for (int i = 0; i < pages.length; i++)
+			pages[i] = new Page();
+
 		long logsize = VanillaDb.fileMgr().size(logFile);
 		if (logsize == 0)
 			appendNewBlock();
 		else {
 			currentBlk = new BlockId(logFile, logsize - 1);
+			myPage = pageOf(currentBlk.number());
 			myPage.read(currentBlk);
 			currentPos = getLastRecordPosition() + pointerSize * 2;
 		}
+		pendingBlkNum = currentBlk.number();
+
+		writer = new Thread(new LogWriter(), "LogWriter-" + logFile);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Flushes all the log records and stops the writer thread. The log
+	 * manager cannot be used afterwards.
+	 */
+	public void close() {
+		logMgrLock.lock();
+		try {
+			if (closed)
+				return;
+			try {
+				flush();
+			} finally {
+				closed = true;
+				pagesCompleted.signalAll();
+				pagesWritten.signalAll();
+			}
+		} finally {
+			logMgrLock.unlock();
+		}
+
+		writer.interrupt();
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -95,15 +196,85 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 *            the LSN of a log record
 	 */
 	public void flush(LogPosition lsn) {
+		if (GROUP_COMMIT) {
+			groupFlush(lsn);
+			return;
+		}
+
 		logMgrLock.lock();
 		try {
-			if (lsn.compareTo(lastFlushedLsn) >= 0)
+			if (lsn.blkNum() < currentBlk.number())
+				waitForWriter(lsn.blkNum() + 1);
+			else if (lsn.compareTo(lastFlushedLsn) >= 0)
 				flush();
 		} finally {
 			logMgrLock.unlock();
 		}
 	}
 
+	/**
+	 * Flushes the log records as a member of a group. Only the leader of the
+	 * group writes the log page. The leader waits for followers only if the
+	 * flushes overlap, i.e., some threads are already parked or some flush
+	 * arrived while the previous leader was active. Otherwise, a solitary
+	 * flush is written at once.
+	 * 
+	 * @param lsn
+	 *            the LSN of a log record
+	 */
+	private void groupFlush(LogPosition lsn) {
+		synchronized (groupLock) {
+			// Park until the log record is flushed or no leader is writing
+			while (lsn.compareTo(lastFlushedLsn) > 0 && leaderActive) {
+				arrivalCount++;
+				followerCount++;
+				if (followerCount >= GROUP_COMMIT_MAX_BATCH)
+					groupLock.notifyAll();
+				try {
+					groupLock.wait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException("interrupted while waiting for group commit");
+				} finally {
+					followerCount--;
+				}
+			}
+			if (lsn.compareTo(lastFlushedLsn) <= 0)
+				return;
+
+			// Become the leader and wait for the followers to join
+			leaderActive = true;
+			boolean overlapped = followerCount > 0 || lastGroupOverlapped;
+			arrivalCount = 0;
+			long deadline = System.currentTimeMillis() + GROUP_COMMIT_MAX_DELAY;
+			long remaining = GROUP_COMMIT_MAX_DELAY;
+			while (overlapped && followerCount + 1 < GROUP_COMMIT_MAX_BATCH
+					&& remaining > 0) {
+				try {
+					groupLock.wait(remaining);
+				} catch (InterruptedException e) {
+					break;
+				}
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+
+		// Write once for the whole group
+		try {
+			logMgrLock.lock();
+			try {
+				flush();
+			} finally {
+				logMgrLock.unlock();
+			}
+		} finally {
+			synchronized (groupLock) {
+				leaderActive = false;
+				lastGroupOverlapped = arrivalCount > 0;
+				groupLock.notifyAll();
+			}
+		}
+	}
+
 	/**
 	 * Returns an iterator for the log records, which will be returned in
 	 * reverse order starting with the most recent.
@@ -141,10 +312,8 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 				recsize += Page.size(c);
 
 			// if the log record doesn't fit, move to the next block
-			if (currentPos + recsize >= BLOCK_SIZE) {
-				flush();
-				appendNewBlock();
-			}
+			if (currentPos + recsize >= BLOCK_SIZE)
+				moveToNextBlock();
 			
 			// Get the current LSN
 			LogPosition lsn = currentLSN();
@@ -163,14 +332,51 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 		}
 	}
 
+	/**
+	 * Appends a log record consisting of the remaining bytes of the specified
+	 * buffer, which are copied into the log page directly. The bytes are
+	 * preceded by their length and can be read back by
+	 * {@link BasicLogRecord#readBytes(ByteBuffer)}. The position of the buffer
+	 * is left unchanged.
+	 * 
+	 * @param bytes
+	 *            the buffer containing the encoded log record
+	 * @return the LSN of the log record
+	 */
+	public LogPosition append(ByteBuffer bytes) {
+		logMgrLock.lock();
+		try {
+			int length = bytes.remaining();
+			int recsize = pointerSize * 3 + length;
+
+			// if the log record doesn't fit, move to the next block
+			if (currentPos + recsize >= BLOCK_SIZE)
+				moveToNextBlock();
+
+			LogPosition lsn = currentLSN();
+			myPage.putInt(currentPos, length);
+			myPage.putBytes(currentPos + pointerSize, bytes.duplicate());
+			currentPos += pointerSize + length;
+			finalizeRecord();
+			lastLsn = lsn;
+			return lsn;
+		} finally {
+			logMgrLock.unlock();
+		}
+	}
+
 	/**
 	 * Remove the old log file and create a new one.
 	 */
 	public void removeAndCreateNewLog() {
 		logMgrLock.lock();
 		try {
+			waitForWriter(currentBlk.number());
 			VanillaDb.fileMgr().rebuildLogFile();
 			appendNewBlock();
+			pendingBlkNum = currentBlk.number();
+			lastLsn = LogPosition.DEFAULT_VALUE;
+			lastFlushedLsn = LogPosition.DEFAULT_VALUE;
 		} finally {
 			logMgrLock.unlock();
 		}
@@ -199,22 +405,139 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	}
 
 	/**
-	 * Writes the current page to the log file.
+	 * Writes the current page to the log file after the writer has written
+	 * all the completed pages.
 	 */
 	private void flush() {
+		waitForWriter(currentBlk.number());
 		myPage.write(currentBlk);
 		lastFlushedLsn = lastLsn;
 	}
 
+	/**
+	 * Waits until the writer has written all the completed pages before the
+	 * specified block. The caller must hold the lock of the log manager. If
+	 * the writer fails to write them, the error is thrown to the caller.
+	 * 
+	 * @param blkNum
+	 *            the number of a block
+	 */
+	private void waitForWriter(long blkNum) {
+		while (pendingBlkNum < blkNum) {
+			if (writeError != null)
+				throw new RuntimeException("failed to write the log", writeError);
+			if (closed)
+				throw new IllegalStateException("the log manager is closed");
+			try {
+				pagesWritten.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("interrupted while waiting for the log writer");
+			}
+		}
+	}
+
+	/**
+	 * Hands the current page over to the writer and moves to the page of the
+	 * next block, waiting only if all the pages of the ring are occupied.
+	 */
+	private void moveToNextBlock() {
+		long nextBlkNum = currentBlk.number() + 1;
+		waitForWriter(nextBlkNum - pages.length + 1);
+		pagesCompleted.signal();
+
+		myPage = pageOf(nextBlkNum);
+		setLastRecordPosition(0);
+		currentPos = pointerSize * 2;
+		currentBlk = new BlockId(logFile, nextBlkNum);
+	}
+
+	private Page pageOf(long blkNum) {
+		return pages[(int) (blkNum % pages.length)];
+	}
+
 	/**
 	 * Clear the current page, and append it to the log file.
 	 */
 	private void appendNewBlock() {
+		myPage = pageOf(VanillaDb.fileMgr().size(logFile));
 		setLastRecordPosition(0);
 		currentPos = pointerSize * 2;
 		currentBlk = myPage.append(logFile);
 	}
 
+	/**
+	 * The thread writing the completed pages to the log file.
+	 */
+	private class LogWriter implements Runnable {
+		@Override
+		public void run() {
+			long backoff = 0;
+			int failures = 0;
+			while (true) {
+				long from, to;
+				Page[] batch;
+				logMgrLock.lock();
+				try {
+					while (!closed && pendingBlkNum >= currentBlk.number())
+						pagesCompleted.await();
+					if (closed)
+						return;
+					from = pendingBlkNum;
+					to = currentBlk.number();
+					batch = new Page[(int) (to - from)];
+					for (int i = 0; i < batch.length; i++)
+						batch[i] = pageOf(from + i);
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					logMgrLock.unlock();
+				}
+
+				try {
+					Page.write(batch, new BlockId(logFile, from));
+				} catch (RuntimeException e) {
+					// Fail the waiting threads, and retry later. Only the first
+					// failure is logged, not every retry.
+					if (failures++ == 0 && logger.isLoggable(Level.WARNING))
+						logger.log(Level.WARNING, "failed to write log blocks "
+								+ from + " to " + (to - 1) + ", retrying", e);
+					logMgrLock.lock();
+					try {
+						writeError = e;
+						pagesWritten.signalAll();
+					} finally {
+						logMgrLock.unlock();
+					}
+					backoff = Math.min(Math.max(backoff * 2, 1),
+							WRITE_RETRY_MAX_DELAY);
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException ie) {
+						return;
+					}
+					continue;
+				}
+				backoff = 0;
+				if (failures > 0) {
+					if (logger.isLoggable(Level.INFO))
+						logger.info("wrote log blocks " + from + " to "
+								+ (to - 1) + " after " + failures
+								+ " failed attempts");
+					failures = 0;
+				}
+
+				logMgrLock.lock();
+				try {
+					pendingBlkNum = to;
+					writeError = null;
+					pagesWritten.signalAll();
+				} finally {
+					logMgrLock.unlock();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Sets up a circular chain of pointers to the records in the page. There is
 	 * an integer added to the end of each log record whose value is the offset
@@ -234,7 +557,7 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	}
 
 	private int getLastRecordPosition() {
-		return (Integer) myPage.getVal(LAST_POS, INTEGER).asJavaVal();
+		return myPage.getInt(LAST_POS);
 	}
 
 	private void setLastRecordPosition(int pos) {
@@ -246,7 +569,7 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	}
 
 	private void setPreviousNextRecordPosition(int pos) {
-		int lastPos = (Integer) myPage.getVal(LAST_POS, INTEGER).asJavaVal();
+		int lastPos = myPage.getInt(LAST_POS);
 		myPage.setVal(lastPos + pointerSize, new IntegerConstant(pos));
 	}
 }
@@ -30,8 +30,8 @@ public class LogPosition implements Comparable<LogPosition> {
 	private final int hashCode;
 
 	public static LogPosition readFromPage(Page page, int pos) {
-		long blkNum = (long) page.getVal(pos, Type.BIGINT).asJavaVal();
-		long offset = (long) page.getVal(pos + Type.BIGINT.maxSize(), Type.BIGINT).asJavaVal();
+		long blkNum = page.getLong(pos);
+		long offset = page.getLong(pos + Type.BIGINT.maxSize());
 
 		return new LogPosition(blkNum, offset);
 	}
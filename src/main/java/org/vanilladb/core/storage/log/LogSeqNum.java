@@ -28,7 +28,7 @@ public class LogSeqNum implements Comparable<LogSeqNum> {
 	private final long val;
 
 	public static LogSeqNum readFromPage(Page page, int pos) {
-		long val = (long) page.getVal(pos, Type.BIGINT).asJavaVal();
+		long val = page.getLong(pos);
 
 		return new LogSeqNum(val);
 	}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+
+/**
+ * The task creates the checkpoints requested by the {@link NVMLogMgr} to
+ * reclaim the space of the ring buffer, so that a transaction appending a log
+ * record only waits for the space instead of flushing the buffer pool by
+ * itself.
+ */
+public class NVMLogCheckpointTask extends Task {
+	private static Logger logger = Logger.getLogger(NVMLogCheckpointTask.class
+			.getName());
+
+	@Override
+	public void run() {
+		NVMLogMgr nvmLogMgr = VanillaDb.nvmLogMgr();
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Start reclaiming the NVM log");
+		while (true) {
+			try {
+				nvmLogMgr.awaitCheckpointRequest();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				continue;
+			}
+			try {
+				nvmLogMgr.createRequestedCheckpoint();
+			} catch (RuntimeException e) {
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("failed to create a checkpoint: " + e);
+			}
+		}
+	}
+}
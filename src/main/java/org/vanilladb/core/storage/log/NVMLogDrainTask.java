@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task keeps draining the log records in the NVM log to the log file in
+ * batches. It replaces the one-shot persisting pass of the deprecated
+ * {@link org.vanilladb.core.storage.tx.recovery.PersistTask}, so the I/O on
+ * the log file is spread over time instead of happening in a single spike.
+ */
+public class NVMLogDrainTask extends Task {
+	private static Logger logger = Logger.getLogger(NVMLogDrainTask.class
+			.getName());
+
+	private static final long PERIOD;
+
+	static {
+		PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				NVMLogDrainTask.class.getName() + ".PERIOD", 100);
+	}
+
+	@Override
+	public void run() {
+		NVMLogMgr nvmLogMgr = VanillaDb.nvmLogMgr();
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Start draining the NVM log");
+		while (true) {
+			// wait only if there is nothing left to drain, unless a thread
+			// stalled by a full ring buffer asks for draining
+			if (nvmLogMgr.drain() == 0) {
+				try {
+					nvmLogMgr.awaitDrainRequest(PERIOD);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -3,42 +3,46 @@ package org.vanilladb.core.storage.log;
 import org.vanilladb.core.storage.tx.recovery.LogRecord;
 import org.vanilladb.core.storage.tx.recovery.ReversibleIterator;
 
+/**
+ * A class that provides the ability to move through the records in the
+ * {@link NVMLogRingBuffer} in reverse order, starting from the tail of the
+ * ring buffer.
+ */
 public class NVMLogIterator  implements ReversibleIterator<LogRecord> {
 	private NVMLogRingBuffer ringBuffer;
-	private int lower, upper;
-	private int currentIdx;
-	
+	private long lower, upper;
+	private long currentLsn;
+
 	public NVMLogIterator(NVMLogRingBuffer ringBuffer) {
 		this.ringBuffer = ringBuffer;
-		this.lower = ringBuffer.headIdx();
-		this.upper = ringBuffer.tailIdx() - 1;
-		this.currentIdx = upper;
+		this.lower = ringBuffer.headLsn();
+		this.upper = ringBuffer.tailLsn();
+		this.currentLsn = upper;
 	}
-	
+
 	@Override
 	public boolean hasNext() {
-		return (currentIdx > lower);
+		return (currentLsn > lower);
 	}
-	
+
 	@Override
 	public LogRecord next() {
-		LogRecord rec = ringBuffer.get(currentIdx);
-		currentIdx--;
-		return rec;
+		currentLsn = ringBuffer.prevLsn(currentLsn);
+		return ringBuffer.get(currentLsn);
 	}
-	
+
 	@Override
 	public boolean hasPrevious() {
-		return (currentIdx < upper);
+		return (currentLsn < upper);
 	}
-	
+
 	@Override
 	public LogRecord previous() {
-		LogRecord rec = ringBuffer.get(currentIdx);
-		currentIdx++;
+		LogRecord rec = ringBuffer.get(currentLsn);
+		currentLsn = ringBuffer.nextLsn(currentLsn);
 		return rec;
 	}
-	
+
 	@Override
 	public void remove() {
 		throw new UnsupportedOperationException();
@@ -1,131 +1,467 @@
 package org.vanilladb.core.storage.log;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.recovery.CompesationLogRecord;
 import org.vanilladb.core.storage.tx.recovery.LogRecord;
+import org.vanilladb.core.storage.tx.recovery.LogRecordCodec;
 import org.vanilladb.core.storage.tx.recovery.ReversibleIterator;
 import org.vanilladb.core.util.CoreProperties;
 
+/**
+ * The log manager that keeps the log records in a {@link NVMLogRingBuffer}.
+ *
+ * <p>
+ * The space of the ring buffer is managed as follows. Once the utilization
+ * exceeds the high watermark, the appending thread requests a checkpoint from
+ * the {@link NVMLogCheckpointTask}, which moves the head of the ring buffer
+ * forward in the background. The last part of the ring buffer is reserved for
+ * the log records that help the system to make progress, i.e., the
+ * checkpoint, rollback and compensation log records. A thread that cannot
+ * find room for its log record requests a checkpoint as well, wakes up the
+ * {@link NVMLogDrainTask} if draining is enabled, and waits for the space to
+ * be reclaimed by them. If it has been waiting for an excessive amount of
+ * time, a {@link LogAbortException} is thrown so that its transaction aborts
+ * and stops holding the head back.
+ * </p>
+ *
+ * <p>
+ * If draining is enabled, the log records in the ring buffer are also copied
+ * to the disk-based {@link LogMgr} in batches by a {@link NVMLogDrainTask},
+ * and the head never passes the log records that have not been drained. The
+ * drained log records are reclaimed by the drainer as soon as a checkpoint
+ * has found them unnecessary for recovery, so neither a checkpoint nor a
+ * persisting pass needs to copy the whole ring buffer at once.
+ * </p>
+ *
+ * <p>
+ * Only the LSN of the last log record of each active transaction is kept in
+ * memory. The log records of a transaction are chained by their previous
+ * LSNs in the ring buffer, and a rollback reads them back from there.
+ * </p>
+ */
 public class NVMLogMgr {
+	private static Logger logger = Logger.getLogger(NVMLogMgr.class.getName());
+
 	private LogMgr logMgr = VanillaDb.logMgr();
-	private Lock logMgrLock = new ReentrantLock();
-	private Map<Long, List<LogRecord>> txLogListMap = 
-			new ConcurrentHashMap<Long, List<LogRecord>>();
-	
+	// the LSN of the last log record of each transaction
+	private Map<Long, Long> txLastLsnMap = new ConcurrentHashMap<Long, Long>();
+
 	/* non-volatile data structure */
 	private NVMLogRingBuffer ringBuffer;
-	private long globalLsn;
-	
+
+	/* space management */
+	private Object spaceLock = new Object();
+	private Object checkpointLock = new Object();
+	private AtomicBoolean checkpointRequested = new AtomicBoolean(false);
+	private Object drainRequestLock = new Object();
+	private boolean drainRequested = false;
+	private ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(256);
+		}
+	};
+	private volatile long reclaimableLsn;
+
+	/* metrics */
+	private AtomicLong reclaimedSize = new AtomicLong();
+	private AtomicLong drainedSize = new AtomicLong();
+	private AtomicLong forcedCheckpointCount = new AtomicLong();
+	private AtomicLong stallCount = new AtomicLong();
+	private AtomicLong stallTime = new AtomicLong();
+	private AtomicLong abortCount = new AtomicLong();
+
 	private static final String NVM_DATA_STRUCTURE_FILE;
+	private static final String NVM_DIR;
 	private static final int NVM_RING_BUFFER_SIZE;
+	private static final int NVM_RESERVED_SIZE;
+	private static final double HIGH_WATERMARK;
+	private static final long MAX_TIME;
+	private static final long EPSILON;
+	private static final boolean DRAIN;
+	private static final int DRAIN_BATCH_SIZE;
 	static {
 		NVM_DATA_STRUCTURE_FILE = CoreProperties.getLoader().getPropertyAsString(NVMLogMgr.class.getName() + ".NVM_DATA_STRUCTURE_FILE",
 				"nvm.bin");
+		NVM_DIR = CoreProperties.getLoader().getPropertyAsString(NVMLogMgr.class.getName() + ".NVM_DIR",
+				"");
 		NVM_RING_BUFFER_SIZE = CoreProperties.getLoader().getPropertyAsInteger(NVMLogMgr.class.getName() + ".NVM_RING_BUFFER_SIZE",
-				10000000);
+				256 * 1024 * 1024);
+		NVM_RESERVED_SIZE = CoreProperties.getLoader().getPropertyAsInteger(NVMLogMgr.class.getName() + ".NVM_RESERVED_SIZE",
+				64 * 1024);
+		HIGH_WATERMARK = CoreProperties.getLoader().getPropertyAsDouble(NVMLogMgr.class.getName() + ".HIGH_WATERMARK",
+				0.9);
+		MAX_TIME = CoreProperties.getLoader().getPropertyAsLong(NVMLogMgr.class.getName() + ".MAX_TIME",
+				10000);
+		EPSILON = CoreProperties.getLoader().getPropertyAsLong(NVMLogMgr.class.getName() + ".EPSILON",
+				50);
+		DRAIN = CoreProperties.getLoader().getPropertyAsBoolean(NVMLogMgr.class.getName() + ".DRAIN",
+				true);
+		DRAIN_BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(NVMLogMgr.class.getName() + ".DRAIN_BATCH_SIZE",
+				1024 * 1024);
 	}
-	
+
+	/**
+	 * Maps the NVM log file. The file is placed in the directory specified by
+	 * the property NVM_DIR, or in the log directory if the property is empty.
+	 * The file of a new database is always recreated.
+	 */
 	public NVMLogMgr() {
-		File f = new File(FileMgr.getLogDirectoryPath(), NVM_DATA_STRUCTURE_FILE);
-		if (f.exists()) {
-			try {
-				DataInputStream dis = new DataInputStream(
-						new FileInputStream(f));
-				this.globalLsn = dis.readLong();
-				int size = dis.readInt();
-				int tailIdx = dis.readInt();
-				long tailLsn = dis.readLong();
-				int headIdx = dis.readInt();
-				long headLsn = dis.readLong();
-				dis.close();
-				ringBuffer = new NVMLogRingBuffer(size, tailIdx, tailLsn, 
-						headIdx, headLsn);
-				ringBuffer.rebuild();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		} else {
-			this.globalLsn = 0;
-			ringBuffer = new NVMLogRingBuffer(NVM_RING_BUFFER_SIZE, 0, 0, 0, 0);
-		}
+		File dir = NVM_DIR.isEmpty() ? new File(FileMgr.getLogDirectoryPath())
+				: new File(NVM_DIR);
+		File f = new File(dir, NVM_DATA_STRUCTURE_FILE);
+		if (VanillaDb.fileMgr().isNew() && f.exists() && !f.delete())
+			throw new RuntimeException("cannot delete the old NVM log file " + f);
+		ringBuffer = new NVMLogRingBuffer(f, NVM_RING_BUFFER_SIZE);
+		reclaimableLsn = ringBuffer.headLsn();
 	}
-	
+
 	public void flush(LogSeqNum lsn) {
 		ringBuffer.checkPersistence(lsn.val());
 	}
-	
+
 	public LogSeqNum append(LogRecord rec) {
-		/* add to per-tx list (volatile) */
+		/* chain to the previous log record of the tx */
 		long txNum = rec.txNumber();
-		List<LogRecord> list = txLogListMap.get(txNum);
-		if (list == null) {
-			list = new LinkedList<LogRecord>();
-			txLogListMap.put(txNum, list);
-		}
-		list.add(rec);
-		
+		Long prevLsn = txLastLsnMap.get(txNum);
+		long prev = prevLsn == null ? -1 : prevLsn;
+
 		/* add to circular buffer (non-volatile) */
-		logMgrLock.lock();
-		long lsn = globalLsn++;
-		logMgrLock.unlock();
-		ringBuffer.insert(rec, lsn);
+		ByteBuffer payload = encode(rec);
+		int reserved = isReservedFor(rec) ? 0 : NVM_RESERVED_SIZE;
+		long lsn = ringBuffer.insert(payload, prev, reserved);
+		if (lsn < 0)
+			lsn = waitForSpace(payload, prev, reserved);
+		if (txNum >= 0)
+			txLastLsnMap.put(txNum, lsn);
+
+		if (reserved > 0 && utilization() > HIGH_WATERMARK)
+			requestCheckpoint();
 		return new LogSeqNum(lsn);
 	}
-	
-	public void removeTxLogList(long txNum) {
-		txLogListMap.remove(txNum);
+
+	/**
+	 * Encodes the log record into the scratch buffer of the current thread,
+	 * which is enlarged if the record does not fit.
+	 */
+	private ByteBuffer encode(LogRecord rec) {
+		ByteBuffer buf = scratch.get();
+		while (true) {
+			buf.clear();
+			try {
+				LogRecordCodec.encode(rec, buf);
+				break;
+			} catch (BufferOverflowException e) {
+				buf = ByteBuffer.allocate(buf.capacity() * 2);
+				scratch.set(buf);
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Checks if the specified log record may be appended to the reserved
+	 * space of the ring buffer.
+	 */
+	private boolean isReservedFor(LogRecord rec) {
+		int op = rec.op();
+		return op == LogRecord.OP_CHECKPOINT || op == LogRecord.OP_ROLLBACK
+				|| op == LogRecord.OP_LOGICAL_ABORT
+				|| rec instanceof CompesationLogRecord;
+	}
+
+	private long waitForSpace(ByteBuffer payload, long prevLsn, int reserved) {
+		stallCount.incrementAndGet();
+		long timestamp = System.currentTimeMillis();
+		try {
+			while (true) {
+				requestCheckpoint();
+				if (DRAIN)
+					requestDrain();
+				long lsn = ringBuffer.insert(payload, prevLsn, reserved);
+				if (lsn >= 0)
+					return lsn;
+				if (waitingTooLong(timestamp)) {
+					abortCount.incrementAndGet();
+					if (logger.isLoggable(Level.WARNING))
+						logger.warning("no room in the NVM log after waiting for "
+								+ MAX_TIME + " ms");
+					throw new LogAbortException();
+				}
+				synchronized (spaceLock) {
+					spaceLock.wait(EPSILON);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new LogAbortException();
+		} finally {
+			stallTime.addAndGet(System.currentTimeMillis() - timestamp);
+		}
+	}
+
+	private boolean waitingTooLong(long startTime) {
+		return System.currentTimeMillis() - startTime > MAX_TIME;
+	}
+
+	/**
+	 * Requests a checkpoint in order to reclaim the space of the ring buffer.
+	 * The checkpoint is created by the {@link NVMLogCheckpointTask}, so the
+	 * calling thread never creates it by itself. Nothing is done if a
+	 * checkpoint has been requested but not created yet.
+	 */
+	private void requestCheckpoint() {
+		if (!checkpointRequested.compareAndSet(false, true))
+			return;
+		synchronized (checkpointLock) {
+			checkpointLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Wakes up the {@link NVMLogDrainTask} to drain and reclaim the ring
+	 * buffer at once, so that a thread waiting for space never does the I/O
+	 * on the log file by itself.
+	 */
+	private void requestDrain() {
+		synchronized (drainRequestLock) {
+			drainRequested = true;
+			drainRequestLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until a drain is requested by a thread that cannot find room for
+	 * its log record, or until the specified time has elapsed.
+	 *
+	 * @param timeout
+	 *            the maximal time to wait (in milliseconds)
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 */
+	void awaitDrainRequest(long timeout) throws InterruptedException {
+		synchronized (drainRequestLock) {
+			if (!drainRequested)
+				drainRequestLock.wait(timeout);
+			drainRequested = false;
+		}
+	}
+
+	/**
+	 * Waits until a checkpoint is requested because the utilization of the
+	 * ring buffer exceeded the high watermark, or because a thread cannot
+	 * find room for its log record.
+	 *
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 */
+	void awaitCheckpointRequest() throws InterruptedException {
+		synchronized (checkpointLock) {
+			while (!checkpointRequested.get())
+				checkpointLock.wait();
+		}
+	}
+
+	/**
+	 * Creates the requested checkpoint in the calling thread, which moves the
+	 * head of the ring buffer forward and wakes up the threads waiting for
+	 * space.
+	 */
+	void createRequestedCheckpoint() {
+		try {
+			if (logger.isLoggable(Level.INFO))
+				logger.info("NVM log utilization " + utilization()
+						+ " is above the high watermark, creating a checkpoint");
+			Transaction tx = VanillaDb.txMgr().newTransaction(
+					Connection.TRANSACTION_SERIALIZABLE, true);
+			VanillaDb.txMgr().createCheckpoint(tx);
+			tx.commit();
+			forcedCheckpointCount.incrementAndGet();
+		} finally {
+			checkpointRequested.set(false);
+		}
+	}
+
+	/**
+	 * Forgets the log records of the specified transaction, which must have
+	 * been completed.
+	 *
+	 * @param txNum
+	 *            the transaction
+	 */
+	public void removeTxLogChain(long txNum) {
+		txLastLsnMap.remove(txNum);
 	}
-	
+
+	/**
+	 * Returns an iterator that moves backward through the log records of the
+	 * specified transaction, reading them from the ring buffer by following
+	 * their previous LSNs.
+	 *
+	 * @param txNum
+	 *            the transaction
+	 * @return the iterator of the log records of the transaction
+	 */
 	public Iterator<LogRecord> getTxLogRecordIterator(long txNum) {
-		List <LogRecord> list = txLogListMap.get(txNum);
-		if (list == null)
-			return null;
-		return (new LinkedList<LogRecord>(list)).descendingIterator();
+		Long lastLsn = txLastLsnMap.get(txNum);
+		return new NVMTxLogIterator(ringBuffer, lastLsn == null ? -1 : lastLsn);
 	}
-	
+
 	public ReversibleIterator<LogRecord> getLogRecordIterator() {
 		return new NVMLogIterator(ringBuffer);
 	}
-	
+
 	public double utilization() {
-		long headLsn = ringBuffer.headLsn();
-		long tailLsn = ringBuffer.tailLsn();
-		int size = ringBuffer.size();
-		return (double)(tailLsn - headLsn) / (double)size;
+		return (double) ringBuffer.usedSize() / (double) ringBuffer.size();
 	}
 
-	public void checkpoint(List<Long> txNums) {
-		ringBuffer.moveHeadForward(txNums);
+	/**
+	 * Records a checkpoint, after which the log records before both the
+	 * earliest start of the specified transactions and the redo point are no
+	 * longer needed for recovery.
+	 *
+	 * @param txNums
+	 *            the active transactions
+	 * @param redoLsn
+	 *            the redo point of the checkpoint, or null if there is none
+	 */
+	public void checkpoint(List<Long> txNums, LogSeqNum redoLsn) {
+		long lsn = ringBuffer.reclaimableLsn(txNums);
+		if (redoLsn != null)
+			lsn = Math.min(lsn, redoLsn.val());
+		reclaimableLsn = lsn;
+		reclaim();
 	}
-	
-	public void persist() {
-		try {
-			DataOutputStream dos;
-			File f = new File(FileMgr.getLogDirectoryPath(), NVM_DATA_STRUCTURE_FILE);
-			dos = new DataOutputStream(new FileOutputStream(f));
-			dos.writeLong(globalLsn);
-			dos.writeInt(ringBuffer.size());
-			dos.writeInt(ringBuffer.tailIdx());
-			dos.writeLong(ringBuffer.tailLsn());
-			dos.writeInt(ringBuffer.headIdx());
-			dos.writeLong(ringBuffer.headLsn());
-			dos.close();
-		} catch (Exception e) {
-			e.printStackTrace();
+
+	/**
+	 * Returns the LSN of the end of the persistent log records.
+	 *
+	 * @return the tail LSN
+	 */
+	public LogSeqNum tailLsn() {
+		return new LogSeqNum(ringBuffer.tailLsn());
+	}
+
+	/**
+	 * Moves the head of the ring buffer forward as far as the last checkpoint
+	 * allows. If draining is enabled, the head never passes the log records
+	 * that have not been drained.
+	 */
+	private void reclaim() {
+		long lsn = reclaimableLsn;
+		if (DRAIN)
+			lsn = Math.min(lsn, ringBuffer.drainedLsn());
+		long reclaimed = ringBuffer.moveHeadTo(lsn);
+		if (reclaimed > 0) {
+			reclaimedSize.addAndGet(reclaimed);
+			synchronized (spaceLock) {
+				spaceLock.notifyAll();
+			}
 		}
-		ringBuffer.persist(logMgr);
+	}
+
+	/**
+	 * Checks if the log records in the ring buffer are drained to the log
+	 * file.
+	 *
+	 * @return true if draining is enabled
+	 */
+	public boolean isDraining() {
+		return DRAIN;
+	}
+
+	/**
+	 * Copies the next batch of persistent log records in the ring buffer to
+	 * the log file, and then reclaims the drained log records that are no
+	 * longer needed.
+	 *
+	 * @return the number of bytes drained
+	 */
+	public long drain() {
+		long drained = ringBuffer.drain(logMgr, DRAIN_BATCH_SIZE);
+		drainedSize.addAndGet(drained);
+		reclaim();
+		return drained;
+	}
+
+	/**
+	 * Returns the total number of bytes drained to the log file.
+	 *
+	 * @return the number of bytes drained
+	 */
+	public long drainedSize() {
+		return drainedSize.get();
+	}
+
+	/**
+	 * Returns the total number of bytes reclaimed by moving the head of the
+	 * ring buffer forward.
+	 *
+	 * @return the number of bytes reclaimed
+	 */
+	public long reclaimedSize() {
+		return reclaimedSize.get();
+	}
+
+	/**
+	 * Returns the number of checkpoints created because the utilization of
+	 * the ring buffer exceeded the high watermark.
+	 *
+	 * @return the number of forced checkpoints
+	 */
+	public long forcedCheckpointCount() {
+		return forcedCheckpointCount.get();
+	}
+
+	/**
+	 * Returns the number of appends that had to wait for space.
+	 *
+	 * @return the number of stalled appends
+	 */
+	public long stallCount() {
+		return stallCount.get();
+	}
+
+	/**
+	 * Returns the total time (in milliseconds) spent waiting for space.
+	 *
+	 * @return the stall time
+	 */
+	public long stallTime() {
+		return stallTime.get();
+	}
+
+	/**
+	 * Returns the number of appends given up with a {@link LogAbortException}.
+	 *
+	 * @return the number of aborted appends
+	 */
+	public long abortCount() {
+		return abortCount.get();
+	}
+
+	/**
+	 * Forces the NVM log file to its storage and copies all the log records
+	 * in the ring buffer that have not been drained to the log file.
+	 */
+	public void persist() {
+		ringBuffer.force();
+		drainedSize.addAndGet(ringBuffer.drain(logMgr, Long.MAX_VALUE));
+		reclaim();
 	}
 }
@@ -1,174 +1,607 @@
 package org.vanilladb.core.storage.log;
 
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.storage.tx.recovery.LogRecord;
-import org.vanilladb.core.storage.tx.recovery.LogRecordIterator;
-import org.vanilladb.core.storage.tx.recovery.PersistTask;
-import org.vanilladb.core.storage.tx.recovery.ReversibleIterator;
+import org.vanilladb.core.storage.tx.recovery.LogRecordCodec;
+import org.vanilladb.core.util.ByteHelper;
 import org.vanilladb.core.util.CoreProperties;
 
+/**
+ * A ring buffer of serialized log records that lives in a memory-mapped file.
+ * The file is meant to be placed on a DAX-capable (or tmpfs) mount, so the
+ * records and the head/tail pointers stored in it survive a crash of the
+ * process without being copied anywhere else.
+ *
+ * <p>
+ * The LSN of a log record is the logical byte address of its frame. The
+ * physical position of a frame in the ring is its LSN modulo the capacity of
+ * the ring. Each frame is aligned to 8 bytes and is laid out as follows:
+ * </p>
+ *
+ * <pre>
+ * | marker (8) | prev LSN (8) | payload length (4) | payload | padding | frame size (4) |
+ * </pre>
+ *
+ * <p>
+ * The marker is written last and holds {@code lsn + 1}, so a zero-filled or
+ * reused region never looks like a completely-written frame. The trailing
+ * frame size allows the records to be read backward. The prev LSN links the
+ * frame to the previous frame of the same transaction (-1 if there is none),
+ * so the log records of a transaction can be read backward without scanning
+ * the records of the others.
+ * </p>
+ *
+ * <p>
+ * Appending is lock-free. A writer reserves its frame by a compare-and-set on
+ * the next LSN and fills the frame without coordinating with other writers.
+ * The tail only covers the prefix of completely-written frames and is
+ * advanced by compare-and-set, so any thread waiting for its record to become
+ * persistent can help to move the tail over the frames of other writers.
+ * </p>
+ *
+ * <p>
+ * The puts into the mapped file are plain memory accesses, so the marker of
+ * a frame is written and read under one of the striped marker locks. The
+ * lock hands the frame over from its writer to the thread seeing the marker,
+ * which therefore sees the whole frame.
+ * </p>
+ *
+ * <p>
+ * A frame is never reserved over the region between the head and the tail,
+ * so the live log records cannot be overwritten. The owner of the ring buffer
+ * is responsible for reclaiming the space by moving the head forward.
+ * </p>
+ */
 public class NVMLogRingBuffer {
-	class LogEntry {
-		boolean isPersist;
-		LogRecord rec;
-		
-		LogEntry() {
-			this.isPersist = false;
-			this.rec = null;
-		}
-	};
-	
-	class LogPointer {
-		int idx;
-		long lsn;
-		
-		LogPointer(int idx, long lsn) {
-			this.idx = idx;
-			this.lsn = lsn;
-		}
-	};
-	
 	private static Logger logger = Logger.getLogger(NVMLogRingBuffer.class
 			.getName());
-	
+
+	// Layout of the header at the beginning of the file
+	private static final long MAGIC = 0x4E564D4C4F470002L;
+	private static final int MAGIC_OFFSET = 0, CAPACITY_OFFSET = 8,
+			HEAD_OFFSET = 16, TAIL_OFFSET = 24, DRAINED_OFFSET = 32;
+	private static final int HEADER_SIZE = 64;
+
+	// Layout of a frame
+	private static final int ALIGNMENT = 8;
+	private static final int PREV_LSN_OFFSET = ByteHelper.LONG_SIZE;
+	private static final int LENGTH_OFFSET = PREV_LSN_OFFSET
+			+ ByteHelper.LONG_SIZE;
+	private static final int PAYLOAD_OFFSET = LENGTH_OFFSET
+			+ ByteHelper.INT_SIZE;
+	private static final int FRAME_OVERHEAD = PAYLOAD_OFFSET
+			+ ByteHelper.INT_SIZE;
+
+	// Must be a power of two
+	private static final int MARKER_LOCK_STRIPES = 64;
+
 	/* Non-volatile data structures */
-	private int size;
-	private LogEntry[] ring;
-	private LogPointer logTail, logHead;
-	
-	/* Volatile data structure */
-	private ReadWriteLock logHeadLock = new ReentrantReadWriteLock();
-	
+	private MappedByteBuffer nvm;
+	private int capacity;
+	private volatile long headLsn, drainedLsn;
+	private AtomicLong tailLsn = new AtomicLong();
+
+	/* Volatile data structures */
+	private AtomicLong nextLsn = new AtomicLong();
+	private Object headLock = new Object();
+	private Object drainLock = new Object();
+	private Object[] markerLocks = new Object[MARKER_LOCK_STRIPES];
+
 	private static final long NVM_DELAY;
 	static {
 		NVM_DELAY = CoreProperties.getLoader().getPropertyAsInteger(NVMLogRingBuffer.class.getName() + ".NVM_DELAY",
 				400);
 	}
-	
-	public NVMLogRingBuffer(int size, int tailIdx, long tailLsn, 
-			int headIdx, long headLsn) {
-		this.size = size;
-		this.ring = new LogEntry[size];
-		for (int i = 0; i < size; i++)
-			ring[i] = new LogEntry();
-		this.logTail = new LogPointer(tailIdx, tailLsn);
-		this.logHead = new LogPointer(headIdx, headLsn);
-	}
-	
-	/**
-	 * Reconstruct non-volatile log record objects.
-	 */
-	public void rebuild() {
-		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
-		long lsn = logTail.lsn - 1;
-		while (iter.hasNext()) {
-			LogRecord rec = iter.next();
-			
-			rec.setLSN(new LogSeqNum(lsn));
-			insert(rec, lsn);
-			lsn--;
+
+	/**
+	 * Maps the specified file as a ring buffer. If the file does not contain a
+	 * ring buffer, a new one having the specified capacity is created.
+	 * Otherwise, the existing ring buffer, including its capacity and its
+	 * head/tail pointers, is reopened.
+	 *
+	 * @param file
+	 *            the file backing the ring buffer
+	 * @param capacity
+	 *            the capacity (in bytes) of a newly-created ring buffer
+	 */
+	public NVMLogRingBuffer(File file, int capacity) {
+		for (int i = 0; i < markerLocks.length; i++)
+			markerLocks[i] = new Object();
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			boolean isNew;
+			try {
+				isNew = raf.length() < HEADER_SIZE;
+				if (!isNew) {
+					raf.seek(MAGIC_OFFSET);
+					isNew = raf.readLong() != MAGIC;
+				}
+				if (isNew) {
+					this.capacity = capacity - capacity % ALIGNMENT;
+					raf.setLength(0);
+				} else {
+					raf.seek(CAPACITY_OFFSET);
+					this.capacity = (int) raf.readLong();
+				}
+				nvm = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+						HEADER_SIZE + (long) this.capacity);
+			} finally {
+				// the mapping stays valid after the channel is closed
+				raf.close();
+			}
+
+			if (isNew) {
+				nvm.putLong(CAPACITY_OFFSET, this.capacity);
+				nvm.putLong(HEAD_OFFSET, 0);
+				nvm.putLong(TAIL_OFFSET, 0);
+				nvm.putLong(DRAINED_OFFSET, 0);
+				nvm.putLong(MAGIC_OFFSET, MAGIC);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("cannot map the NVM log file " + file);
 		}
-		logger.info("(tailLsn, headLsn) = (" + logTail.lsn + ", " + logHead.lsn + ")");
-		logger.info("If lsn is not equal to (headLsn - 1)," + 
-				" the log record objects may have not been successfully rebuilt." + 
-				" (lsn, headLsn) = (" + lsn + ", " + logHead.lsn + ")");
-	}
-	
-	public LogRecord get(int idx) {
-		return ring[idx].rec;
-	}
-	
-	public void insert(LogRecord rec, long lsn) {
-		logHeadLock.readLock().lock();
-		int idx = logHead.idx + (int)(lsn - logHead.lsn);
-		idx = idx % size;
-		ring[idx].rec = rec;
+
+		this.headLsn = nvm.getLong(HEAD_OFFSET);
+		this.drainedLsn = nvm.getLong(DRAINED_OFFSET);
+		this.tailLsn.set(nvm.getLong(TAIL_OFFSET));
+		rebuild();
+	}
+
+	/**
+	 * Finds the end of the log. The frames that have been completely written
+	 * but not covered by the tail pointer before a crash are appended to the
+	 * log by moving the tail forward.
+	 */
+	private void rebuild() {
+		long oldTailLsn = tailLsn.get();
+		nextLsn.set(headLsn + capacity);
+		moveTailForward();
+		nextLsn.set(tailLsn.get());
+		if (logger.isLoggable(Level.INFO))
+			logger.info("(headLsn, tailLsn) = (" + headLsn + ", " + tailLsn
+					+ "), " + (tailLsn.get() - oldTailLsn)
+					+ " bytes of log records are found after the old tail");
+	}
+
+	/**
+	 * Serializes a log record into the payload of a frame by the
+	 * {@link LogRecordCodec}.
+	 *
+	 * @param rec
+	 *            the log record
+	 * @return the payload
+	 */
+	public static byte[] serialize(LogRecord rec) {
+		ByteBuffer buf = ByteBuffer.allocate(256);
+		while (true) {
+			try {
+				LogRecordCodec.encode(rec, buf);
+				break;
+			} catch (BufferOverflowException e) {
+				buf = ByteBuffer.allocate(buf.capacity() * 2);
+			}
+		}
+		byte[] payload = new byte[buf.position()];
+		buf.flip();
+		buf.get(payload);
+		return payload;
+	}
+
+	/**
+	 * Appends the payload of a log record to the ring buffer.
+	 *
+	 * @param payload
+	 *            the serialized log record
+	 * @return the LSN of the log record, or -1 if the ring buffer is full
+	 */
+	public long insert(byte[] payload) {
+		return insert(ByteBuffer.wrap(payload), 0);
+	}
+
+	/**
+	 * Appends the payload of a log record to the ring buffer unless the frame
+	 * would occupy the last {@code reserved} bytes of free space.
+	 *
+	 * @param payload
+	 *            the serialized log record
+	 * @param reserved
+	 *            the number of bytes that must be left free
+	 * @return the LSN of the log record, or -1 if there is no room for it
+	 */
+	public long insert(byte[] payload, int reserved) {
+		return insert(ByteBuffer.wrap(payload), reserved);
+	}
+
+	/**
+	 * Appends the remaining bytes of the specified buffer as the payload of a
+	 * log record, which are copied into the frame directly. The position of
+	 * the buffer is left unchanged.
+	 *
+	 * @param payload
+	 *            the buffer containing the serialized log record
+	 * @param reserved
+	 *            the number of bytes that must be left free
+	 * @return the LSN of the log record, or -1 if there is no room for it
+	 */
+	public long insert(ByteBuffer payload, int reserved) {
+		return insert(payload, -1, reserved);
+	}
+
+	/**
+	 * Appends the remaining bytes of the specified buffer as the payload of a
+	 * log record that is chained to the previous log record of the same
+	 * transaction.
+	 *
+	 * @param payload
+	 *            the buffer containing the serialized log record
+	 * @param prevLsn
+	 *            the LSN of the previous log record of the transaction, or -1
+	 *            if there is none
+	 * @param reserved
+	 *            the number of bytes that must be left free
+	 * @return the LSN of the log record, or -1 if there is no room for it
+	 */
+	public long insert(ByteBuffer payload, long prevLsn, int reserved) {
+		int length = payload.remaining();
+		int frameSize = frameSize(length);
+		long lsn;
+		do {
+			lsn = nextLsn.get();
+			if (lsn + frameSize - headLsn > capacity - reserved)
+				return -1;
+		} while (!nextLsn.compareAndSet(lsn, lsn + frameSize));
+
+		nvm.putLong(position(lsn + PREV_LSN_OFFSET), prevLsn);
+		nvm.putInt(position(lsn + LENGTH_OFFSET), length);
+		write(lsn + PAYLOAD_OFFSET, payload.duplicate());
+		nvm.putInt(position(lsn + frameSize - ByteHelper.INT_SIZE), frameSize);
 		delay();
-		ring[idx].isPersist = true;
+		putMarker(lsn, lsn + 1);
 		delay();
-		logHeadLock.readLock().unlock();
+		return lsn;
+	}
+
+	/**
+	 * Reads the log record whose frame starts at the specified LSN.
+	 *
+	 * @param lsn
+	 *            the LSN of the log record
+	 * @return the log record
+	 */
+	public LogRecord get(long lsn) {
+		LogRecord rec = LogRecordCodec.decode(payload(lsn));
+		rec.setLSN(new LogSeqNum(lsn));
+		return rec;
 	}
-	
+
+	/**
+	 * Returns the payload of the frame starting at the specified LSN. The
+	 * returned buffer is a view of the ring buffer unless the payload wraps
+	 * around, in which case it is copied.
+	 */
+	private ByteBuffer payload(long lsn) {
+		int length = nvm.getInt(position(lsn + LENGTH_OFFSET));
+		int pos = position(lsn + PAYLOAD_OFFSET);
+		if (pos + length <= HEADER_SIZE + capacity) {
+			ByteBuffer src = nvm.duplicate();
+			src.limit(pos + length);
+			src.position(pos);
+			return src;
+		}
+		byte[] payload = new byte[length];
+		read(lsn + PAYLOAD_OFFSET, payload);
+		return ByteBuffer.wrap(payload);
+	}
+
+	/**
+	 * Returns the LSN of the previous log record of the same transaction as
+	 * the specified one.
+	 *
+	 * @param lsn
+	 *            the LSN of a log record
+	 * @return the LSN of the previous log record of the transaction, or -1 if
+	 *         there is none
+	 */
+	public long txPrevLsn(long lsn) {
+		return nvm.getLong(position(lsn + PREV_LSN_OFFSET));
+	}
+
+	/**
+	 * Returns the LSN of the log record right after the specified one.
+	 *
+	 * @param lsn
+	 *            the LSN of a log record
+	 * @return the LSN of the next log record
+	 */
+	public long nextLsn(long lsn) {
+		return lsn + frameSize(nvm.getInt(position(lsn + LENGTH_OFFSET)));
+	}
+
+	/**
+	 * Returns the LSN of the log record right before the specified one.
+	 *
+	 * @param lsn
+	 *            the LSN of a log record
+	 * @return the LSN of the previous log record
+	 */
+	public long prevLsn(long lsn) {
+		return lsn - nvm.getInt(position(lsn - ByteHelper.INT_SIZE));
+	}
+
+	/**
+	 * Waits until the tail covers the specified log record. The calling
+	 * thread helps to move the tail forward instead of blocking.
+	 *
+	 * @param lsn
+	 *            the LSN of a log record
+	 */
 	public void checkPersistence(long lsn) {
-		while (lsn >= logTail.lsn) {
-			moveTailForward();
+		while (lsn >= tailLsn.get()) {
+			if (!moveTailForward())
+				Thread.yield();
 		}
 	}
-		
-	public void moveHeadForward(List<Long> txNums) {
-		logHeadLock.writeLock().lock();
-		int idx = logHead.idx;
-		long lsn = logHead.lsn;
-		long tailLsn = logTail.lsn;
-		
-		while (lsn < tailLsn) {
-			if (ring[idx].rec.op() == LogRecord.OP_START &&
-					txNums.contains(ring[idx].rec.txNumber()))
-				break;
-			ring[idx].rec = null;
-			ring[idx].isPersist = false;
-			idx = (idx + 1) % size;
-			lsn++;
+
+	/**
+	 * Reclaims the log records before the start record of the earliest
+	 * specified transaction.
+	 *
+	 * @param txNums
+	 *            the transactions that are still active
+	 * @return the number of bytes reclaimed
+	 */
+	public long moveHeadForward(List<Long> txNums) {
+		synchronized (headLock) {
+			return moveHeadTo(reclaimableLsn(txNums));
 		}
-		delay();
-		logHead.idx = idx;
-		delay();
-		logHead.lsn = lsn;
-		logHeadLock.writeLock().unlock();
-	}
-	
-	public void moveTailForward() {
-		synchronized (logTail) {
-			int idx = logTail.idx;
-			long lsn = logTail.lsn;
-			
-			while (ring[idx].isPersist) {
-				idx = (idx + 1) % size;
-				lsn++;
+	}
+
+	/**
+	 * Returns the LSN of the start record of the earliest specified
+	 * transaction, or the tail if there is no such record. The log records
+	 * before the returned LSN are not needed by the specified transactions.
+	 *
+	 * @param txNums
+	 *            the transactions that are still active
+	 * @return the LSN up to which the log records can be reclaimed
+	 */
+	public long reclaimableLsn(List<Long> txNums) {
+		synchronized (headLock) {
+			long lsn = headLsn;
+			long tail = tailLsn.get();
+
+			while (lsn < tail) {
+				if (op(lsn) == LogRecord.OP_START
+						&& txNums.contains(get(lsn).txNumber()))
+					break;
+				lsn = nextLsn(lsn);
+			}
+			return lsn;
+		}
+	}
+
+	/**
+	 * Reclaims the log records before the specified LSN, which must be the
+	 * LSN of a frame between the head and the tail.
+	 *
+	 * @param lsn
+	 *            the new head
+	 * @return the number of bytes reclaimed
+	 */
+	public long moveHeadTo(long lsn) {
+		synchronized (headLock) {
+			long head = headLsn;
+			if (lsn <= head)
+				return 0;
+
+			for (long l = head; l < lsn;) {
+				long next = nextLsn(l);
+				putMarker(l, 0);
+				l = next;
 			}
 			delay();
-			logTail.idx = idx;
+			headLsn = lsn;
+			nvm.putLong(HEAD_OFFSET, lsn);
+			return lsn - head;
+		}
+	}
+
+	/**
+	 * Moves the tail over the completely-written frames right after it. The
+	 * tail is advanced one frame at a time by compare-and-set, so concurrent
+	 * callers never block each other; a caller that loses a race simply
+	 * continues from the new tail.
+	 *
+	 * @return true if the tail has been moved by this call
+	 */
+	public boolean moveTailForward() {
+		boolean moved = false;
+		long lsn = tailLsn.get();
+		while (lsn < nextLsn.get() && isWritten(lsn)) {
+			long next = nextLsn(lsn);
+			if (tailLsn.compareAndSet(lsn, next))
+				moved = true;
+			lsn = tailLsn.get();
+		}
+		if (moved) {
 			delay();
-			logTail.lsn = lsn;
+			/*
+			 * The stored tail may lag behind or be overwritten by a stale
+			 * value, which is harmless since the frames after it are found
+			 * again when the ring buffer is reopened.
+			 */
+			nvm.putLong(TAIL_OFFSET, lsn);
 		}
+		return moved;
 	}
-	
+
 	public int size() {
-		return size;
+		return capacity;
 	}
-	
-	public int tailIdx() {
-		return logTail.idx;
+
+	/**
+	 * Returns the number of bytes reserved for the frames, including those
+	 * that have not been completely written yet.
+	 *
+	 * @return the number of bytes in use
+	 */
+	public long usedSize() {
+		return nextLsn.get() - headLsn;
 	}
-	
+
 	public long tailLsn() {
-		return logTail.lsn;
-	}
-	
-	public int headIdx() {
-		return logHead.idx;
+		return tailLsn.get();
 	}
-	
+
 	public long headLsn() {
-		return logHead.lsn;
+		return headLsn;
+	}
+
+	public long drainedLsn() {
+		return drainedLsn;
 	}
 
-	public void persist(LogMgr logMgr) {
-		LogPosition p = null;
-		for (int i = logHead.idx; i < logTail.idx; i++) {
-			List<Constant> l = ring[i].rec.buildRecord();
-			p = logMgr.append(l.toArray(new Constant[l.size()]));
+	/**
+	 * Forces the content of the ring buffer, including the head/tail
+	 * pointers, to be written to the underlying storage.
+	 */
+	public void force() {
+		nvm.force();
+	}
+
+	/**
+	 * Copies the persistent log records that have not been drained yet to
+	 * the specified log manager, at most {@code maxSize} bytes of frames at a
+	 * time. The encoded payloads are copied as they are, without decoding the
+	 * log records. The log manager is flushed once for the whole batch, and then the
+	 * drained LSN stored in the ring buffer is moved forward. Log records
+	 * reclaimed before being drained are skipped.
+	 *
+	 * @param logMgr
+	 *            the log manager receiving the log records
+	 * @param maxSize
+	 *            the maximal number of bytes of frames to be drained
+	 * @return the number of bytes of frames drained
+	 */
+	public long drain(LogMgr logMgr, long maxSize) {
+		synchronized (drainLock) {
+			long from = Math.max(drainedLsn, headLsn);
+			long tail = tailLsn.get();
+			LogPosition p = null;
+			long lsn = from;
+			while (lsn < tail && lsn - from < maxSize) {
+				p = logMgr.append(payload(lsn));
+				lsn = nextLsn(lsn);
+			}
+			if (p != null)
+				logMgr.flush(p);
+			delay();
+			drainedLsn = lsn;
+			nvm.putLong(DRAINED_OFFSET, lsn);
+			return lsn - from;
+		}
+	}
+
+	/**
+	 * Checks if the frame starting at the specified LSN has been completely
+	 * written. Besides the marker, the sizes stored in the frame are also
+	 * checked in case that the garbage of a reclaimed frame happens to match
+	 * the marker.
+	 */
+	private boolean isWritten(long lsn) {
+		if (getMarker(lsn) != lsn + 1)
+			return false;
+		int length = nvm.getInt(position(lsn + LENGTH_OFFSET));
+		if (length < 0 || length > capacity - FRAME_OVERHEAD)
+			return false;
+		int frameSize = frameSize(length);
+		return nvm.getInt(position(lsn + frameSize - ByteHelper.INT_SIZE)) == frameSize;
+	}
+
+	/**
+	 * Returns the operation ID of the log record at the specified LSN without
+	 * decoding the whole record.
+	 */
+	private int op(long lsn) {
+		int pos = position(lsn + PAYLOAD_OFFSET);
+		if (pos + LogRecordCodec.MAX_HEADER_SIZE > HEADER_SIZE + capacity)
+			return get(lsn).op();
+		ByteBuffer src = nvm.duplicate();
+		src.position(pos);
+		return LogRecordCodec.peekOp(src);
+	}
+
+	/**
+	 * Writes the marker of the frame at the specified LSN after the other
+	 * fields of the frame, which become visible to the threads reading the
+	 * marker by {@link #getMarker(long)}.
+	 */
+	private void putMarker(long lsn, long marker) {
+		synchronized (markerLock(lsn)) {
+			nvm.putLong(position(lsn), marker);
 		}
-		logMgr.flush(p);
 	}
-	
+
+	private long getMarker(long lsn) {
+		synchronized (markerLock(lsn)) {
+			return nvm.getLong(position(lsn));
+		}
+	}
+
+	private Object markerLock(long lsn) {
+		return markerLocks[(int) (lsn / ALIGNMENT)
+				& (MARKER_LOCK_STRIPES - 1)];
+	}
+
+	private static int frameSize(int payloadLength) {
+		int size = FRAME_OVERHEAD + payloadLength;
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private int position(long lsn) {
+		return HEADER_SIZE + (int) (lsn % capacity);
+	}
+
+	private void write(long lsn, ByteBuffer src) {
+		ByteBuffer buf = nvm.duplicate();
+		int pos = position(lsn);
+		int length = src.remaining();
+		int firstPart = Math.min(length, HEADER_SIZE + capacity - pos);
+		buf.position(pos);
+		if (firstPart < length) {
+			int limit = src.limit();
+			src.limit(src.position() + firstPart);
+			buf.put(src);
+			src.limit(limit);
+			buf.position(HEADER_SIZE);
+		}
+		buf.put(src);
+	}
+
+	private void read(long lsn, byte[] dst) {
+		ByteBuffer buf = nvm.duplicate();
+		int pos = position(lsn);
+		int firstPart = Math.min(dst.length, HEADER_SIZE + capacity - pos);
+		buf.position(pos);
+		buf.get(dst, 0, firstPart);
+		if (firstPart < dst.length) {
+			buf.position(HEADER_SIZE);
+			buf.get(dst, firstPart, dst.length - firstPart);
+		}
+	}
+
 	private void delay() {
 		long start = System.nanoTime();
 	    long end = 0;
@@ -0,0 +1,40 @@
+package org.vanilladb.core.storage.log;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.vanilladb.core.storage.tx.recovery.LogRecord;
+
+/**
+ * A class that moves backward through the log records of a single transaction
+ * in the {@link NVMLogRingBuffer} by following the chain of previous LSNs,
+ * starting from the last log record of the transaction.
+ */
+public class NVMTxLogIterator implements Iterator<LogRecord> {
+	private NVMLogRingBuffer ringBuffer;
+	private long currentLsn;
+
+	public NVMTxLogIterator(NVMLogRingBuffer ringBuffer, long lastLsn) {
+		this.ringBuffer = ringBuffer;
+		this.currentLsn = lastLsn;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return currentLsn >= 0;
+	}
+
+	@Override
+	public LogRecord next() {
+		if (currentLsn < 0)
+			throw new NoSuchElementException();
+		LogRecord rec = ringBuffer.get(currentLsn);
+		currentLsn = ringBuffer.txPrevLsn(currentLsn);
+		return rec;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
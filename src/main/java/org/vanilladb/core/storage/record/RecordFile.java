@@ -21,11 +21,14 @@ import org.vanilladb.core.sql.Record;
 import org.vanilladb.core.sql.SchemaIncompatibleException;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.BufferAccessStrategy;
+import org.vanilladb.core.storage.buffer.ReadAhead;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * Manages a file of records. There are methods for iterating through the
@@ -40,8 +43,27 @@ import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
  * <p>
  * The {@link #beforeFirst()} method must be called before {@link #next()}.
  * </p>
+ * 
+ * <p>
+ * A scan over a file larger than {@code BULK_SCAN_THRESHOLD} blocks, and any
+ * access to a temporary table, pins the blocks with a
+ * {@link BufferAccessStrategy} so that it only recycles a small ring of
+ * buffers instead of flushing the working set of the buffer pool.
+ * </p>
+ * 
+ * <p>
+ * The blocks following a sequential run of accessed blocks are read ahead by
+ * a {@link ReadAhead}.
+ * </p>
  */
 public class RecordFile implements Record {
+	private static final long BULK_SCAN_THRESHOLD;
+
+	static {
+		BULK_SCAN_THRESHOLD = CoreProperties.getLoader().getPropertyAsLong(
+				RecordFile.class.getName() + ".BULK_SCAN_THRESHOLD", 256);
+	}
+
 	private BlockId headerBlk;
 	private TableInfo ti;
 	private Transaction tx;
@@ -50,6 +72,8 @@ public class RecordFile implements Record {
 	private FileHeaderPage fhp;
 	private long currentBlkNum;
 	private boolean doLog;
+	private BufferAccessStrategy strategy;
+	private ReadAhead readAhead;
 
 	/**
 	 * Constructs an object to manage a file of records. If the file does not
@@ -71,6 +95,9 @@ public class RecordFile implements Record {
 		this.doLog = doLog;
 		fileName = ti.fileName();
 		headerBlk = new BlockId(fileName, 0);
+		// A temporary table is private and accessed in bulk
+		if (isTempTable())
+			strategy = new BufferAccessStrategy();
 	}
 
 	/**
@@ -113,6 +140,20 @@ public class RecordFile implements Record {
 	public void beforeFirst() {
 		close();
 		currentBlkNum = 0; // first data block is block 1
+		if (strategy == null && fileSize() > BULK_SCAN_THRESHOLD)
+			setAccessStrategy(new BufferAccessStrategy());
+	}
+
+	/**
+	 * Sets the buffer access strategy used to pin the blocks of this file.
+	 * 
+	 * @param strategy
+	 *            the buffer access strategy, or null to use the buffer pool as
+	 *            usual
+	 */
+	public void setAccessStrategy(BufferAccessStrategy strategy) {
+		this.strategy = strategy;
+		readAhead = null;
 	}
 
 	/**
@@ -371,11 +412,15 @@ public class RecordFile implements Record {
 		if (rp != null)
 			rp.close();
 		
-		if (b >= fileSize()) // block b not allocated yet
+		long fileSize = fileSize();
+		if (b >= fileSize) // block b not allocated yet
 			return false;
 		currentBlkNum = b;
 		BlockId blk = new BlockId(fileName, currentBlkNum);
-		rp = new RecordPage(blk, ti, tx, doLog);
+		if (readAhead == null)
+			readAhead = new ReadAhead(strategy);
+		readAhead.access(blk, fileSize);
+		rp = new RecordPage(blk, ti, tx, doLog, strategy);
 		return true;
 	}
 
@@ -384,7 +429,7 @@ public class RecordFile implements Record {
 			if (!isTempTable())
 				tx.concurrencyMgr().modifyFile(fileName);
 			RecordFormatter fmtr = new RecordFormatter(ti);
-			Buffer buff = tx.bufferMgr().pinNew(fileName, fmtr);
+			Buffer buff = tx.bufferMgr().pinNew(fileName, fmtr, strategy);
 			tx.bufferMgr().unpin(buff);
 			if (!isTempTable())
 				tx.concurrencyMgr().insertBlock(buff.block());
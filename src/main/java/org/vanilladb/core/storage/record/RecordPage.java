@@ -28,12 +28,14 @@ import org.vanilladb.core.sql.Record;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.BufferAccessStrategy;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
+import org.vanilladb.core.storage.tx.concurrency.PageSnapshot;
 
 /**
  * Manages the placement and access of records in a block.
@@ -58,6 +60,9 @@ public class RecordPage implements Record {
 	private int slotSize;
 	private int currentSlot = -1;
 	private Map<String, Integer> myOffsetMap;
+	// The contents of the block seen by a snapshot transaction, if they are
+	// different from the current ones
+	private PageSnapshot snapshot;
 
 	// Optimization: Materialize the offset map.
 	// /**
@@ -137,11 +142,30 @@ public class RecordPage implements Record {
 	 *            the transaction
 	 */
 	public RecordPage(BlockId blk, TableInfo ti, Transaction tx, boolean doLog) {
+		this(blk, ti, tx, doLog, null);
+	}
+
+	/**
+	 * Creates the record manager for the specified block, pinning the block
+	 * with the specified buffer access strategy.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param ti
+	 *            the table's metadata
+	 * @param tx
+	 *            the transaction
+	 * @param strategy
+	 *            the buffer access strategy, or null to use the buffer pool
+	 *            as usual
+	 */
+	public RecordPage(BlockId blk, TableInfo ti, Transaction tx, boolean doLog,
+			BufferAccessStrategy strategy) {
 		this.blk = blk;
 		this.tx = tx;
 		this.ti = ti;
 		this.doLog = doLog;
-		currentBuff = tx.bufferMgr().pin(blk);
+		currentBuff = tx.bufferMgr().pin(blk, strategy);
 
 		// Optimization: Reduce the cost of prepare the schema information
 		Schema sch = ti.schema();
@@ -163,6 +187,7 @@ public class RecordPage implements Record {
 			tx.bufferMgr().unpin(currentBuff);
 			blk = null;
 			currentBuff = null;
+			snapshot = null;
 		}
 	}
 
@@ -185,7 +210,7 @@ public class RecordPage implements Record {
 	 */
 	public Constant getVal(String fldName) {
 		int position = fieldPos(fldName);
-		return getVal(position, ti.schema().type(fldName));
+		return getVisibleVal(position, ti.schema().type(fldName));
 	}
 
 	/**
@@ -201,6 +226,33 @@ public class RecordPage implements Record {
 		setVal(position, val);
 	}
 
+	/**
+	 * Compares the values of the specified field in two records of this page,
+	 * without materializing them as constants.
+	 * 
+	 * @param id1
+	 *            the ID of the first record
+	 * @param id2
+	 *            the ID of the second record
+	 * @param fldName
+	 *            the name of the field
+	 * @return the result of the comparison, as
+	 *         {@link Constant#compareTo(Constant)}
+	 */
+	public int compareVal(int id1, int id2, String fldName) {
+		lockForRead(id1);
+		lockForRead(id2);
+		int offset = FLAG_SIZE + myOffsetMap.get(fldName);
+		Type type = ti.schema().type(fldName);
+		if (snapshot != null)
+			return snapshot.compareVal(id1 * slotSize + offset, id2 * slotSize
+					+ offset, type);
+		int result = currentBuff.compareVal(id1 * slotSize + offset, id2
+				* slotSize + offset, type);
+		return readSnapshot() ? snapshot.compareVal(id1 * slotSize + offset,
+				id2 * slotSize + offset, type) : result;
+	}
+
 	/**
 	 * Deletes the current record. Deletion is performed by marking the record
 	 * as "deleted" and setting the content as a pointer points to next deleted
@@ -222,7 +274,7 @@ public class RecordPage implements Record {
 	 * @return true, if it succeed. If the slot has been occupied, return false.
 	 */
 	public boolean insertIntoTheCurrentSlot() {
-		if (!getVal(currentPos(), INTEGER).equals(EMPTY_CONST))
+		if (getInt(currentPos()) != EMPTY)
 			return false;
 		
 		setVal(currentPos(), INUSE_CONST);
@@ -299,7 +351,7 @@ public class RecordPage implements Record {
 		while (isValidSlot()) {
 			if (currentSlot % 10 == 0)
 				System.out.print(currentSlot + ": ");
-			int flag = (Integer) getVal(currentPos(), INTEGER).asJavaVal();
+			int flag = getInt(currentPos());
 			System.out.print(flag + " ");
 			if ((currentSlot + 1) % 10 == 0)
 				System.out.println();
@@ -310,9 +362,8 @@ public class RecordPage implements Record {
 
 	public RecordId getNextDeletedSlotId() {
 		int position = currentPos() + FLAG_SIZE;
-		long blkNum = (Long) getVal(position, BIGINT).asJavaVal();
-		int id = (Integer) getVal(position + Page.maxSize(BIGINT), INTEGER)
-				.asJavaVal();
+		long blkNum = getLong(position);
+		int id = getInt(position + Page.maxSize(BIGINT));
 		return new RecordId(new BlockId(blk.fileName(), blkNum), id);
 	}
 
@@ -341,7 +392,9 @@ public class RecordPage implements Record {
 	private boolean searchFor(int flag) {
 		currentSlot++;
 		while (isValidSlot()) {
-			if ((Integer) getVal(currentPos(), INTEGER).asJavaVal() == flag) {
+			int current = flag == INUSE ? getVisibleInt(currentPos())
+					: getInt(currentPos());
+			if (current == flag) {
 				return true;
 			}
 			currentSlot++;
@@ -349,26 +402,74 @@ public class RecordPage implements Record {
 		return false;
 	}
 
-	private Constant getVal(int offset, Type type) {
+	/*
+	 * The getters of the visible values read the snapshot, if any, of the
+	 * transaction, while the others always read the current values for
+	 * modifying the records.
+	 */
+
+	private Constant getVisibleVal(int offset, Type type) {
+		lockForRead(currentSlot);
+		if (snapshot != null)
+			return snapshot.getVal(offset, type);
+		Constant val = currentBuff.getVal(offset, type);
+		return readSnapshot() ? snapshot.getVal(offset, type) : val;
+	}
+
+	private int getVisibleInt(int offset) {
+		lockForRead(currentSlot);
+		if (snapshot != null)
+			return snapshot.getInt(offset);
+		int val = currentBuff.getInt(offset);
+		return readSnapshot() ? snapshot.getInt(offset) : val;
+	}
+
+	private int getInt(int offset) {
+		lockForRead(currentSlot);
+		return currentBuff.getInt(offset);
+	}
+
+	private long getLong(int offset) {
+		lockForRead(currentSlot);
+		return currentBuff.getLong(offset);
+	}
+
+	/**
+	 * Checks if the transaction reads a snapshot of the block different from
+	 * its current contents. This must be called after reading the current
+	 * value, which can be used as is if false is returned.
+	 */
+	private boolean readSnapshot() {
+		if (isTempTable())
+			return false;
+		snapshot = tx.concurrencyMgr().snapshot(currentBuff);
+		return snapshot != null;
+	}
+
+	private void lockForRead(int slot) {
 		try {
 			if (!isTempTable())
-				tx.concurrencyMgr().readRecord(new RecordId(blk, currentSlot));
+				tx.concurrencyMgr().readRecord(new RecordId(blk, slot));
 		} catch (LockAbortException e) {
 			tx.rollback();
 			throw e;
 		}
-		return currentBuff.getVal(offset, type);
 	}
 
 	private void setVal(int offset, Constant val) {
 		if (tx.isReadOnly() && !isTempTable())
 			throw new UnsupportedOperationException();
-		try {
-			if (!isTempTable())
-				tx.concurrencyMgr().modifyRecord(new RecordId(blk, currentSlot));
-		} catch (LockAbortException e) {
-			tx.rollback();
-			throw e;
+		if (!isTempTable()) {
+			RecordId recId = new RecordId(blk, currentSlot);
+			try {
+				tx.concurrencyMgr().modifyRecord(recId);
+			} catch (LockAbortException e) {
+				tx.rollback();
+				throw e;
+			}
+			tx.concurrencyMgr().keepVersion(recId, currentBuff, offset, val);
+			// the snapshot does not have this modification
+			snapshot = null;
 		}
 		LogSeqNum lsn = doLog ? tx.recoveryMgr().logSetVal(currentBuff, offset, val)
 				: null;
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The set of active transactions, which can be updated and read without
+ * locking. Each transaction takes a slot of an array, starting from the one
+ * indexed by its number and probing the following ones, so transactions with
+ * consecutive numbers land on different slots. The transactions that find no
+ * free slot are kept in an overflow set.
+ * 
+ * <p>
+ * A read of the set is not atomic: the transactions registered or
+ * unregistered during the read may or may not be seen.
+ * </p>
+ */
+class ActiveTxRegistry {
+	private static final long EMPTY = -1;
+
+	private AtomicLongArray slots;
+	private int mask;
+	private Set<Long> overflow = Collections
+			.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	private AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Creates a registry.
+	 * 
+	 * @param slotCount
+	 *            the number of slots, rounded up to a power of two
+	 */
+	ActiveTxRegistry(int slotCount) {
+		int size = 1;
+		while (size < slotCount)
+			size <<= 1;
+		slots = new AtomicLongArray(size);
+		mask = size - 1;
+		for (int i = 0; i < size; i++)
+			slots.set(i, EMPTY);
+	}
+
+	void register(long txNum) {
+		count.incrementAndGet();
+		int start = (int) (txNum & mask);
+		for (int i = 0; i <= mask; i++) {
+			int idx = (start + i) & mask;
+			if (slots.get(idx) == EMPTY && slots.compareAndSet(idx, EMPTY, txNum))
+				return;
+		}
+		overflow.add(txNum);
+	}
+
+	void unregister(long txNum) {
+		int start = (int) (txNum & mask);
+		for (int i = 0; i <= mask; i++) {
+			int idx = (start + i) & mask;
+			if (slots.get(idx) == txNum) {
+				slots.set(idx, EMPTY);
+				count.decrementAndGet();
+				return;
+			}
+		}
+		if (overflow.remove(txNum))
+			count.decrementAndGet();
+	}
+
+	/**
+	 * Returns the numbers of the active transactions.
+	 * 
+	 * @return the active transactions
+	 */
+	List<Long> activeTxNums() {
+		List<Long> txNums = new ArrayList<Long>();
+		for (int i = 0; i <= mask; i++) {
+			long txNum = slots.get(i);
+			if (txNum != EMPTY)
+				txNums.add(txNum);
+		}
+		txNums.addAll(overflow);
+		return txNums;
+	}
+
+	/**
+	 * Returns the smallest number of the active transactions.
+	 * 
+	 * @return the oldest active transaction, or -1 if there is none
+	 */
+	long oldestTxNum() {
+		long oldest = EMPTY;
+		for (long txNum : activeTxNums())
+			if (oldest == EMPTY || txNum < oldest)
+				oldest = txNum;
+		return oldest;
+	}
+
+	int activeCount() {
+		return count.get();
+	}
+}
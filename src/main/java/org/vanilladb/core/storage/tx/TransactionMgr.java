@@ -17,10 +17,8 @@ package org.vanilladb.core.storage.tx;
 
 import java.lang.reflect.Constructor;
 import java.sql.Connection;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,17 +29,32 @@ import org.vanilladb.core.storage.tx.concurrency.ConcurrencyMgr;
 import org.vanilladb.core.storage.tx.concurrency.ReadCommittedConcurrencyMgr;
 import org.vanilladb.core.storage.tx.concurrency.RepeatableReadConcurrencyMgr;
 import org.vanilladb.core.storage.tx.concurrency.SerializableConcurrencyMgr;
+import org.vanilladb.core.storage.tx.concurrency.SnapshotConcurrencyMgr;
+import org.vanilladb.core.storage.tx.concurrency.VersionMgr;
 import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 import org.vanilladb.core.util.CoreProperties;
 
 /**
  * The publicly-accessible transaction manager in VanillaDb. This transaction
  * manager is responsible for creating new transaction and maintaining the
- * active transaction list.
+ * active transaction list. Both the transaction numbers and the active
+ * transactions are maintained without locking, so that creating and
+ * completing transactions do not contend on a monitor.
  */
 public class TransactionMgr implements TransactionLifecycleListener {
 	private static Logger logger = Logger.getLogger(TransactionMgr.class.getName());
-	public static Class<?> serialConcurMgrCls, rrConcurMgrCls, rcConcurMgrCls, recoveryMgrCls, bufferMgrCls;
+	public static Class<?> serialConcurMgrCls, rrConcurMgrCls, rcConcurMgrCls, snapshotConcurMgrCls,
+			recoveryMgrCls, bufferMgrCls;
+
+	/**
+	 * The isolation level of the transactions reading the snapshots taken when
+	 * they start. It is not defined by JDBC, and has the same value as the one
+	 * of some JDBC drivers.
+	 */
+	public static final int TRANSACTION_SNAPSHOT = 0x1000;
+
+	private static final int ACTIVE_TX_SLOTS;
+
 	static {
 		serialConcurMgrCls = CoreProperties.getLoader().getPropertyAsClass(
 				TransactionMgr.class.getName() + ".SERIALIZABLE_CONCUR_MGR", SerializableConcurrencyMgr.class,
@@ -52,63 +65,29 @@ public class TransactionMgr implements TransactionLifecycleListener {
 		rcConcurMgrCls = CoreProperties.getLoader().getPropertyAsClass(
 				TransactionMgr.class.getName() + ".READ_COMMITTED_CONCUR_MGR", ReadCommittedConcurrencyMgr.class,
 				ConcurrencyMgr.class);
+		snapshotConcurMgrCls = CoreProperties.getLoader().getPropertyAsClass(
+				TransactionMgr.class.getName() + ".SNAPSHOT_CONCUR_MGR", SnapshotConcurrencyMgr.class,
+				ConcurrencyMgr.class);
 		recoveryMgrCls = CoreProperties.getLoader().getPropertyAsClass(TransactionMgr.class.getName() + ".RECOVERY_MGR",
 				RecoveryMgr.class, RecoveryMgr.class);
+		ACTIVE_TX_SLOTS = CoreProperties.getLoader().getPropertyAsInteger(
+				TransactionMgr.class.getName() + ".ACTIVE_TX_SLOTS", 1024);
 	}
 
-	// Optimization for preventing becoming bottleneck when creating a
-	// transaction
-	// XXX: There is a potential risk for overflowing here
-	// private Long[] threadTxNums = new Long[TaskMgr.THREAD_POOL_SIZE * 10];
-	// private ReentrantReadWriteLock activeTxsLock = new
-	// ReentrantReadWriteLock();
-
-	// Old method for maintaining active transaction list
-	// When the above optimization ready, switch to that one
-	private Set<Long> activeTxs = new HashSet<Long>();
-
-	private long nextTxNum = 0;
-	// Optimization: Use separate lock for nextTxNum
-	private Object txNumLock = new Object();
+	private ActiveTxRegistry activeTxs = new ActiveTxRegistry(ACTIVE_TX_SLOTS);
+	private AtomicLong nextTxNum = new AtomicLong();
 
 	public TransactionMgr() {
-		// for (int i = 0; i < threadTxNums.length; i++)
-		// threadTxNums[i] = -1L;
 	}
 
-	// public synchronized ArrayList<Transaction> getActiveTransactions() {
-	// return activeTxs;
-	// }
-
 	@Override
 	public void onTxCommit(Transaction tx) {
-
-		// activeTxsLock.readLock().lock();
-		// try {
-		// threadTxNums[(int) Thread.currentThread().getId()] = -1L;
-		// } finally {
-		// activeTxsLock.readLock().unlock();
-		// }
-
-		synchronized (this) {
-			activeTxs.remove(tx.getTransactionNumber());
-		}
+		activeTxs.unregister(tx.getTransactionNumber());
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
-
-		// activeTxsLock.readLock().lock();
-		// try {
-		// threadTxNums[(int) Thread.currentThread().getId()] = -1L;
-		// } finally {
-		// activeTxsLock.readLock().unlock();
-		// }
-
-		synchronized (this) {
-			activeTxs.remove(tx.getTransactionNumber());
-
-		}
+		activeTxs.unregister(tx.getTransactionNumber());
 	}
 
 	@Override
@@ -117,78 +96,88 @@ public class TransactionMgr implements TransactionLifecycleListener {
 	}
 
 	/**
-	 * Creates non-quiescent checkpoint record.
+	 * Returns the number of active transactions.
+	 * 
+	 * @return the number of active transactions
+	 */
+	public int activeTxCount() {
+		return activeTxs.activeCount();
+	}
+
+	/**
+	 * Returns the smallest number of the active transactions.
+	 * 
+	 * @return the number of the oldest active transaction, or -1 if there is
+	 *         none
+	 */
+	public long oldestActiveTxNum() {
+		return activeTxs.oldestTxNum();
+	}
+
+	/**
+	 * Creates a fuzzy checkpoint. The dirty buffers are flushed without
+	 * blocking the creation and completion of transactions, and then a
+	 * checkpoint record is written with the active transactions and the redo
+	 * point, i.e., the smaller one of the tail of the log before flushing and
+	 * the smallest recLSN of the buffers still dirty after flushing. The
+	 * active transactions are read without any lock, so the tail of the log
+	 * before reading them is also recorded as the begin point, from which the
+	 * recovery finds the transactions started during the read.
 	 * 
 	 * @param checkpointTx
 	 *            the transaction that performs checkpointing
 	 */
 	public void createCheckpoint(Transaction checkpointTx) {
-		// stop access new tx request and find out active txs by using a write
-		// lock on threadTxNums
-		List<Long> txNums;
-		// for (Transaction tx : activeTxs)
-		// if (tx.getTransactionNumber() != checkpointTx
-		// .getTransactionNumber())
-		// txNums.add(tx.getTransactionNumber());
-
-		// activeTxsLock.writeLock().lock();
-		// try {
-		// for (Long l : threadTxNums) {
-		// if (l >= 0) {
-		// txNums.add(l);
-		// }
-		// }
-		//
-		// // flush all buffers
-		// // CT : Pick a tx and call its bufferMgr flushAll, or get
-		// // bufferPoolMgr (init it at VanillaDb)
-		// checkpointTx.bufferMgr().flushAll();
-		// // wrtie a checkpoint record and flush to disk
-		// LogSeqNum lsn = checkpointTx.recoveryMgr().checkpoint(txNums);
-		// VanillaDb.logMgr().flush(lsn);
-		// System.out.println("Chkpnt :" + txNums);
-		// } finally {
-		// activeTxsLock.writeLock().unlock();
-		// }
-
-		// Old method
-		synchronized (this) {
-			txNums = new LinkedList<Long>(activeTxs);
-			checkpointTx.bufferMgr().flushAll();
-			LogSeqNum lsn = checkpointTx.recoveryMgr().checkpoint(txNums);
-			VanillaDb.nvmLogMgr().flush(lsn);
-		}
+		LogSeqNum redoLsn = VanillaDb.nvmLogMgr().tailLsn();
+		checkpointTx.bufferMgr().flushAll();
+		// A transaction is registered before its start record is written, so
+		// the one missing in the active transactions must start after here
+		LogSeqNum beginLsn = VanillaDb.nvmLogMgr().tailLsn();
+		List<Long> txNums = activeTxs.activeTxNums();
+		LogSeqNum recLsn = checkpointTx.bufferMgr().minRecoveryLsn();
+		if (recLsn != null && recLsn.compareTo(redoLsn) < 0)
+			redoLsn = recLsn;
+		LogSeqNum lsn = checkpointTx.recoveryMgr().checkpoint(txNums, redoLsn,
+				beginLsn);
+		VanillaDb.nvmLogMgr().flush(lsn);
 	}
 
 	public Transaction newTransaction(int isolationLevel, boolean readOnly) {
 		// Dispatch new transaction number
-		long txNum = -1;
-		synchronized (txNumLock) {
-			txNum = nextTxNum;
-			nextTxNum++;
-		}
+		long txNum = nextTxNum.getAndIncrement();
 		return newTransaction(isolationLevel, readOnly, txNum);
 	}
 
 	public Transaction newTransaction(int isolationLevel, boolean readOnly, long txNum) {
 		// Update next transaction number
-		synchronized (txNumLock) {
-			if (txNum >= nextTxNum)
-				nextTxNum = txNum + 1;
-		}
+		long next = nextTxNum.get();
+		while (txNum >= next && !nextTxNum.compareAndSet(next, txNum + 1))
+			next = nextTxNum.get();
 		return createTransaction(isolationLevel, readOnly, txNum);
 	}
 
 	public long getNextTxNum() {
-		synchronized (txNumLock) {
-			return nextTxNum;
-		}
+		return nextTxNum.get();
 	}
 
 	private Transaction createTransaction(int isolationLevel, boolean readOnly, long txNum) {
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("new transaction: " + txNum);
+		if (isolationLevel == TRANSACTION_SNAPSHOT && !VersionMgr.ENABLED)
+			throw new UnsupportedOperationException("the versions of records are not kept");
+
+		// Register the transaction before its start record is written
+		activeTxs.register(txNum);
+		try {
+			return buildTransaction(isolationLevel, readOnly, txNum);
+		} catch (RuntimeException e) {
+			activeTxs.unregister(txNum);
+			throw e;
+		}
+	}
 
+	private Transaction buildTransaction(int isolationLevel, boolean readOnly,
+			long txNum) {
 		// Create a recovery manager
 		RecoveryMgr recoveryMgr = null;
 		try {
@@ -238,22 +227,20 @@ public class TransactionMgr implements TransactionLifecycleListener {
 				e.printStackTrace();
 			}
 			break;
+		case TRANSACTION_SNAPSHOT:
+			try {
+				Class<?> partypes[] = new Class[1];
+				partypes[0] = Long.TYPE;
+				Constructor<?> ct = snapshotConcurMgrCls.getConstructor(partypes);
+				concurMgr = (ConcurrencyMgr) ct.newInstance(new Long(txNum));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			break;
 		default:
 			throw new UnsupportedOperationException("unsupported isolation level");
 		}
 
-		Transaction tx = new Transaction(this, concurMgr, recoveryMgr, bufferMgr, readOnly, txNum);
-
-		// activeTxsLock.readLock().lock();
-		// try {
-		// threadTxNums[(int) Thread.currentThread().getId()] = txNum;
-		// } finally {
-		// activeTxsLock.readLock().unlock();
-		// }
-
-		synchronized (this) {
-			activeTxs.add(tx.getTransactionNumber());
-		}
-		return tx;
+		return new Transaction(this, concurMgr, recoveryMgr, bufferMgr, readOnly, txNum);
 	}
 }
@@ -18,22 +18,47 @@ package org.vanilladb.core.storage.tx.concurrency;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.storage.buffer.Buffer;
 import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * A locking-based concurrency manager that controls when a {@link Transaction}
  * instance should be stalled to allow concurrency execution of multiple
  * transactions. Each transaction will have its own concurrency manager. This
  * class is intended to be extended to provide different isolation levels.
+ * 
+ * <p>
+ * The record locks of a transaction can be escalated to bound the size of the
+ * lock table. Once a transaction holds more than
+ * {@code BLOCK_ESCALATION_THRESHOLD} record locks of the same mode in a block,
+ * they are replaced by a lock on the block, and once it holds more than
+ * {@code FILE_ESCALATION_THRESHOLD} of them in a file, by a lock on the file.
+ * </p>
  */
 public abstract class ConcurrencyMgr implements TransactionLifecycleListener {
+	private static final int BLOCK_ESCALATION_THRESHOLD;
+	private static final int FILE_ESCALATION_THRESHOLD;
+
+	static {
+		BLOCK_ESCALATION_THRESHOLD = CoreProperties.getLoader().getPropertyAsInteger(
+				ConcurrencyMgr.class.getName() + ".BLOCK_ESCALATION_THRESHOLD", 100);
+		FILE_ESCALATION_THRESHOLD = CoreProperties.getLoader().getPropertyAsInteger(
+				ConcurrencyMgr.class.getName() + ".FILE_ESCALATION_THRESHOLD", 5000);
+	}
+
 	protected long txNum;
 
 	protected static LockTable lockTbl = new LockTable();
 
+	protected static VersionMgr versionMgr = VersionMgr.ENABLED ? new VersionMgr()
+			: null;
+
 	/**
 	 * Sets lock according to the transaction's isolation level on the specified
 	 * file for changing its properties.
@@ -97,6 +122,90 @@ public abstract class ConcurrencyMgr implements TransactionLifecycleListener {
 	 */
 	public abstract void readRecord(RecordId recId);
 
+	/*
+	 * Methods for locking records with escalation
+	 */
+	private LockEscalator sEscalator, xEscalator;
+
+	/**
+	 * Sets an exclusive lock on the specified record, with the intention locks
+	 * on its block and file, unless the record is covered by an escalated
+	 * exclusive lock.
+	 * 
+	 * @param recId
+	 *            the record id
+	 */
+	protected void xLockRecord(RecordId recId) {
+		if (xEscalator == null)
+			xEscalator = new LockEscalator(lockTbl, txNum, LockTable.X_LOCK,
+					BLOCK_ESCALATION_THRESHOLD, FILE_ESCALATION_THRESHOLD);
+		xEscalator.lock(recId);
+	}
+
+	/**
+	 * Sets a shared lock on the specified record, with the intention locks on
+	 * its block and file, unless the record is covered by an escalated lock.
+	 * 
+	 * @param recId
+	 *            the record id
+	 */
+	protected void sLockRecord(RecordId recId) {
+		if (xEscalator != null && xEscalator.covers(recId))
+			return;
+		if (sEscalator == null)
+			sEscalator = new LockEscalator(lockTbl, txNum, LockTable.S_LOCK,
+					BLOCK_ESCALATION_THRESHOLD, FILE_ESCALATION_THRESHOLD);
+		sEscalator.lock(recId);
+	}
+
+	/*
+	 * Methods for keeping the versions of records
+	 */
+
+	/**
+	 * Keeps the bytes of the specified record to be overwritten by the value,
+	 * if the versions of records are kept. This must be called after the
+	 * record is locked for modification and before the buffer is modified.
+	 * 
+	 * @param recId
+	 *            the record id
+	 * @param buff
+	 *            the buffer holding the record
+	 * @param offset
+	 *            the byte offset of the value in the buffer
+	 * @param val
+	 *            the new value
+	 */
+	public void keepVersion(RecordId recId, Buffer buff, int offset,
+			Constant val) {
+		if (versionMgr != null)
+			versionMgr.keep(txNum, recId, buff, offset, Page.size(val));
+	}
+
+	/**
+	 * Returns the contents of the specified buffer that the transaction should
+	 * read records from, or null if the records are read from the buffer
+	 * directly. A value read from the buffer before calling this method can be
+	 * used as is if null is returned.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 * @return the snapshot of the buffer, or null
+	 */
+	public PageSnapshot snapshot(Buffer buff) {
+		return null;
+	}
+
+	protected void commitVersions() {
+		if (versionMgr != null)
+			versionMgr.commit(txNum);
+	}
+
+	protected void rollbackVersions() {
+		if (versionMgr != null)
+			versionMgr.rollback(txNum);
+	}
+
 	/*
 	 * Methods for B-Tree index locking
 	 */
@@ -200,4 +309,37 @@ public abstract class ConcurrencyMgr implements TransactionLifecycleListener {
 	public void releaseRecordFileHeader(BlockId blk) {
 		lockTbl.release(blk, txNum, LockTable.X_LOCK);
 	}
+
+	/*
+	 * Metrics of the lock table
+	 */
+
+	/**
+	 * Returns the number of lock requests aborted to resolve or to prevent a
+	 * deadlock.
+	 * 
+	 * @return the number of deadlock aborts
+	 */
+	public static long deadlockAbortCount() {
+		return lockTbl.deadlockAbortCount();
+	}
+
+	/**
+	 * Returns the number of lock requests aborted for waiting too long.
+	 * 
+	 * @return the number of timeout aborts
+	 */
+	public static long timeoutAbortCount() {
+		return lockTbl.timeoutAbortCount();
+	}
+
+	/**
+	 * Returns the number of lock requests aborted because their threads were
+	 * interrupted.
+	 * 
+	 * @return the number of interrupt aborts
+	 */
+	public static long interruptAbortCount() {
+		return lockTbl.interruptAbortCount();
+	}
 }
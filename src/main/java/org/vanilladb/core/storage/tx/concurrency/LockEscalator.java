@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+
+/**
+ * Locks the records for a transaction in one mode (S or X), and escalates
+ * the record locks to a coarser lock of the same mode once there are too many
+ * of them. When the transaction holds more than {@code blockThreshold} record
+ * locks in a block, they are replaced by a lock on the block; when it holds
+ * more than {@code fileThreshold} record locks in a file, including the ones
+ * replaced by the block locks, they are all replaced by a lock on the file.
+ * The coarser lock is acquired before the finer ones are released, and the
+ * records covered by it are not locked again.
+ * 
+ * <p>
+ * An escalation never waits for the coarser lock, since the other
+ * transactions holding intention locks on the same block or file would make
+ * the transaction wait, or wound them, for the locks it does not need. If the
+ * coarser lock cannot be granted at once, the record locks are kept, and the
+ * escalation is retried once another threshold's worth of records are locked.
+ * </p>
+ */
+class LockEscalator {
+	private LockTable lockTbl;
+	private long txNum;
+	private int lockType, intentionType;
+	private int blockThreshold, fileThreshold;
+
+	// The record locks not escalated yet, grouped by their blocks
+	private Map<BlockId, Set<RecordId>> recordLocks = new HashMap<BlockId, Set<RecordId>>();
+	private Map<String, Integer> fileCounts = new HashMap<String, Integer>();
+	private Set<BlockId> lockedBlks = new HashSet<BlockId>();
+	private Set<String> lockedFiles = new HashSet<String>();
+	// The raised thresholds of the blocks and files failed to be escalated
+	private Map<BlockId, Integer> blockRetries = new HashMap<BlockId, Integer>();
+	private Map<String, Integer> fileRetries = new HashMap<String, Integer>();
+
+	/**
+	 * Creates a lock escalator.
+	 * 
+	 * @param lockTbl
+	 *            the lock table
+	 * @param txNum
+	 *            the transaction number
+	 * @param lockType
+	 *            {@link LockTable#S_LOCK} or {@link LockTable#X_LOCK}
+	 * @param blockThreshold
+	 *            the maximal number of record locks in a block
+	 * @param fileThreshold
+	 *            the maximal number of record locks in a file
+	 */
+	LockEscalator(LockTable lockTbl, long txNum, int lockType,
+			int blockThreshold, int fileThreshold) {
+		this.lockTbl = lockTbl;
+		this.txNum = txNum;
+		this.lockType = lockType;
+		this.intentionType = lockType == LockTable.X_LOCK ? LockTable.IX_LOCK
+				: LockTable.IS_LOCK;
+		this.blockThreshold = blockThreshold;
+		this.fileThreshold = fileThreshold;
+	}
+
+	/**
+	 * Checks if the specified record is covered by an escalated lock.
+	 * 
+	 * @param recId
+	 *            the record id
+	 * @return true if the block or file of the record is locked
+	 */
+	boolean covers(RecordId recId) {
+		return lockedBlks.contains(recId.block())
+				|| lockedFiles.contains(recId.block().fileName());
+	}
+
+	/**
+	 * Locks the specified record, with the intention locks on its file and
+	 * block, and escalates the locks if needed.
+	 * 
+	 * @param recId
+	 *            the record id
+	 */
+	void lock(RecordId recId) {
+		if (covers(recId))
+			return;
+		BlockId blk = recId.block();
+		String fileName = blk.fileName();
+		lockTbl.lock(fileName, txNum, intentionType);
+		lockTbl.lock(blk, txNum, intentionType);
+		lockTbl.lock(recId, txNum, lockType);
+
+		Set<RecordId> recs = recordLocks.get(blk);
+		if (recs == null) {
+			recs = new HashSet<RecordId>();
+			recordLocks.put(blk, recs);
+		}
+		if (!recs.add(recId))
+			return;
+		Integer count = fileCounts.get(fileName);
+		count = count == null ? 1 : count + 1;
+		fileCounts.put(fileName, count);
+
+		if (count > threshold(fileRetries, fileName, fileThreshold)
+				&& escalate(fileName, count))
+			return;
+		if (recs.size() > threshold(blockRetries, blk, blockThreshold))
+			escalate(blk, recs);
+	}
+
+	private static <K> int threshold(Map<K, Integer> retries, K key,
+			int threshold) {
+		Integer retry = retries.get(key);
+		return retry == null ? threshold : retry;
+	}
+
+	private boolean escalate(BlockId blk, Set<RecordId> recs) {
+		if (!lockTbl.tryLock(blk, txNum, lockType)) {
+			blockRetries.put(blk, recs.size() + blockThreshold);
+			return false;
+		}
+		lockedBlks.add(blk);
+		for (RecordId recId : recs)
+			lockTbl.release(recId, txNum, lockType);
+		recordLocks.remove(blk);
+		blockRetries.remove(blk);
+		return true;
+	}
+
+	private boolean escalate(String fileName, int count) {
+		if (!lockTbl.tryLock(fileName, txNum, lockType)) {
+			fileRetries.put(fileName, count + fileThreshold);
+			return false;
+		}
+		lockedFiles.add(fileName);
+		Iterator<Map.Entry<BlockId, Set<RecordId>>> iter = recordLocks
+				.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<BlockId, Set<RecordId>> entry = iter.next();
+			if (!entry.getKey().fileName().equals(fileName))
+				continue;
+			for (RecordId recId : entry.getValue())
+				lockTbl.release(recId, txNum, lockType);
+			blockRetries.remove(entry.getKey());
+			iter.remove();
+		}
+		Iterator<BlockId> blkIter = lockedBlks.iterator();
+		while (blkIter.hasNext()) {
+			BlockId blk = blkIter.next();
+			if (!blk.fileName().equals(fileName))
+				continue;
+			lockTbl.release(blk, txNum, lockType);
+			blkIter.remove();
+		}
+		fileCounts.remove(fileName);
+		fileRetries.remove(fileName);
+		return true;
+	}
+}
@@ -15,14 +15,22 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.concurrency;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.server.task.Task;
@@ -35,30 +43,76 @@ import org.vanilladb.core.util.CoreProperties;
  * granularity.
  * 
  * <p>
+ * The lock heads of the items are spread over {@code NUM_PARTITIONS}
+ * partitions, each of which maps its items in its own concurrent map. Every
+ * lock head is guarded by its own monitor, so the requests on different items
+ * never block each other.
+ * </p>
+ * 
+ * <p>
  * If a transaction requests to lock an item that causes a conflict with an
- * existing lock on that item, then the transaction is placed into a wait list
- * and will be notified (awaked) to compete for the lock whenever the conflict
- * is resolved. Currently, there is only one wait list for all items.
+ * existing lock or a waiting request on that item, then the request is
+ * appended to the FIFO queue of that item. Whenever a lock is released, the
+ * queued requests that have become compatible are granted in their arrival
+ * order, and only the threads of those requests are woken up. A queued request
+ * waits only behind the conflicting requests of older transactions, and a
+ * transaction that already holds a lock on the item (e.g., to upgrade it) does
+ * not wait behind the queue at all.
+ * </p>
+ * 
+ * <p>
+ * Deadlocks are handled according to {@code DEADLOCK_HANDLING}. By default,
+ * a transaction requesting a conflicting lock wounds (i.e., aborts) the
+ * younger holders, and an older transaction never waits for a younger one.
+ * In the detection mode, the requests wait in a plain FIFO order, and a
+ * background task builds the waits-for graph from the lock queues every
+ * {@code DETECTION_PERIOD} milliseconds and aborts the youngest transaction
+ * of every cycle that persists over two rounds. In both modes, a request
+ * waiting for longer than {@code MAX_TIME} is aborted.
  * </p>
  */
 class LockTable {
+	private static Logger logger = Logger.getLogger(LockTable.class.getName());
+
 	private static final long MAX_TIME;
 	private static final long EPSILON;
+	private static final int NUM_PARTITIONS;
+	private static final int DEADLOCK_HANDLING;
+	private static final long DETECTION_PERIOD;
 	final static int IS_LOCK = 0, IX_LOCK = 1, S_LOCK = 2, SIX_LOCK = 3,
 			X_LOCK = 4;
+	final static int WOUND_WAIT = 0, DETECTION = 1;
+
+	// COMPATIBLE[a][b] tells whether lock types a and b can be held together
+	private static final boolean[][] COMPATIBLE = {
+			{ true, true, true, true, false },
+			{ true, true, false, false, false },
+			{ true, false, true, false, false },
+			{ true, false, false, false, false },
+			{ false, false, false, false, false } };
 
 	static {
 		MAX_TIME = CoreProperties.getLoader().getPropertyAsLong(
 				LockTable.class.getName() + ".MAX_TIME", 10000);
 		EPSILON = CoreProperties.getLoader().getPropertyAsLong(LockTable.class.getName()
 				+ ".EPSILON", 50);
+		NUM_PARTITIONS = CoreProperties.getLoader().getPropertyAsInteger(
+				LockTable.class.getName() + ".NUM_PARTITIONS", 16);
+		DEADLOCK_HANDLING = CoreProperties.getLoader().getPropertyAsInteger(
+				LockTable.class.getName() + ".DEADLOCK_HANDLING", WOUND_WAIT);
+		DETECTION_PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				LockTable.class.getName() + ".DETECTION_PERIOD", 10);
 	}
 
 	class Lockers {
-		Set<Long> sLockers, ixLockers, isLockers, requestSet;
+		Set<Long> sLockers, ixLockers, isLockers;
 		// only one tx can hold xLock(sixLock) on single item
 		long sixLocker, xLocker;
 		static final long NONE = -1; // for sixLocker, xLocker
+		// the waiting requests in their arrival order
+		List<LockRequest> requests;
+		// set once this lock head has been taken out of the lock table
+		boolean removed;
 
 		Lockers() {
 			sLockers = new HashSet<Long>();
@@ -66,109 +120,141 @@ class LockTable {
 			isLockers = new HashSet<Long>();
 			sixLocker = NONE;
 			xLocker = NONE;
-			requestSet = new HashSet<Long>();
+			requests = new LinkedList<LockRequest>();
 		}
 		
 		@Override
 		public String toString() {
 			return "S: " + sLockers + ",IX: " + ixLockers + ",IS: " + isLockers
-					+ ",SIX: " + sixLocker + ",X: " + xLocker + ", request set: " + requestSet;
+					+ ",SIX: " + sixLocker + ",X: " + xLocker + ", requests: " + requests;
 		}
 	}
 
-	class LocktableNotifier extends Task {
+	/**
+	 * A lock request waiting in the queue of an item.
+	 */
+	static class LockRequest {
+		final long txNum;
+		final int lockType;
+		final Thread thread = Thread.currentThread();
+		// written under the monitor of the lock head
+		volatile boolean granted;
+
+		LockRequest(long txNum, int lockType) {
+			this.txNum = txNum;
+			this.lockType = lockType;
+		}
+
+		@Override
+		public String toString() {
+			return "tx." + txNum + ":" + lockType;
+		}
+	}
+
+	class DeadlockDetector extends Task {
 
 		@Override
 		public void run() {
+			if (logger.isLoggable(Level.INFO))
+				logger.info("Start detecting deadlocks");
 			while (true) {
 				try {
-					Long txNum = toBeNotified.take();
-					Object anchor = txWaitMap.get(txNum);
-
-					if (anchor != null) {
-						synchronized (anchor) {
-							anchor.notifyAll();
-						}
-
-					}
+					Thread.sleep(DETECTION_PERIOD);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
+				detectDeadlocks();
 			}
 		}
 	}
 
-	private Map<Object, Lockers> lockerMap = new HashMap<Object, Lockers>();
+	private int deadlockHandling;
+	private ConcurrentMap<Object, Lockers>[] partitions;
 	private Map<Long, Set<Object>> lockByMap = new ConcurrentHashMap<Long, Set<Object>>();
 	private Set<Long> txnsToBeAborted = Collections
 			.synchronizedSet(new HashSet<Long>());
-	private Map<Long, Object> txWaitMap = new ConcurrentHashMap<Long, Object>();
-	private BlockingQueue<Long> toBeNotified = new ArrayBlockingQueue<Long>(
-			1000);
-	private final Object anchors[] = new Object[1009];
+	private Map<Long, LockRequest> txWaitMap = new ConcurrentHashMap<Long, LockRequest>();
+	// The txs found in a cycle by the last round of detection
+	private Set<Long> deadlockSuspects = new HashSet<Long>();
+	private AtomicLong deadlockAbortCount = new AtomicLong();
+	private AtomicLong timeoutAbortCount = new AtomicLong();
+	private AtomicLong interruptAbortCount = new AtomicLong();
 
 	public LockTable() {
-		for (int i = 0; i < anchors.length; ++i) {
-			anchors[i] = new Object();
+		this(DEADLOCK_HANDLING);
+	}
+
+	/**
+	 * Creates a lock table handling deadlocks in the specified way.
+	 * 
+	 * @param deadlockHandling
+	 *            {@link #WOUND_WAIT} or {@link #DETECTION}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	LockTable(int deadlockHandling) {
+		this.deadlockHandling = deadlockHandling;
+		partitions = new ConcurrentMap[Math.max(1, NUM_PARTITIONS)];
+		for (int i = 0; i < partitions.length; ++i) {
+			partitions[i] = new ConcurrentHashMap<Object, Lockers>();
 		}
-		VanillaDb.taskMgr().runTask(new LocktableNotifier());
+		if (deadlockHandling == DETECTION)
+			VanillaDb.taskMgr().runTask(new DeadlockDetector());
 	}
 
-	private Object getAnchor(Object o) {
-		int code = o.hashCode() % anchors.length;
+	private ConcurrentMap<Object, Lockers> partitionOf(Object o) {
+		int code = o.hashCode() % partitions.length;
 		if (code < 0) {
-			code += anchors.length;
+			code += partitions.length;
 		}
-		return anchors[code];
+		return partitions[code];
 	}
 
 	private void avoidDeadlock(Lockers lks, long txNum, int lockType)
 			throws LockAbortException {
 		// IS_LOCK = 0, IX_LOCK = 1, S_LOCK = 2, SIX_LOCK = 3, X_LOCK = 4
 
-		if (txnsToBeAborted.contains(txNum))
+		if (txnsToBeAborted.contains(txNum)) {
+			deadlockAbortCount.incrementAndGet();
 			throw new LockAbortException("abort tx." + txNum + " for preventing deadlock");
+		}
+
+		// Leave the deadlocks to the detector
+		if (deadlockHandling == DETECTION)
+			return;
 
 		if (lockType == IX_LOCK || lockType == SIX_LOCK || lockType == X_LOCK) {
-			for (Long tx : lks.sLockers) {
-				if (tx > txNum) {
-					txnsToBeAborted.add(tx);
-					if (!toBeNotified.contains(tx))
-						toBeNotified.add(tx);
-				}
-			}
+			for (Long tx : lks.sLockers)
+				if (tx > txNum)
+					abortForDeadlock(tx);
 		}
 		if (lockType == S_LOCK || lockType == SIX_LOCK || lockType == X_LOCK) {
-			for (Long tx : lks.ixLockers) {
-				if (tx > txNum) {
-					txnsToBeAborted.add(tx);
-					if (!toBeNotified.contains(tx))
-						toBeNotified.add(tx);
-				}
-			}
+			for (Long tx : lks.ixLockers)
+				if (tx > txNum)
+					abortForDeadlock(tx);
 		}
 		if (lockType == X_LOCK) {
-			for (Long tx : lks.isLockers) {
-				if (tx > txNum) {
-					txnsToBeAborted.add(tx);
-					if (!toBeNotified.contains(tx))
-						toBeNotified.add(tx);
-				}
-			}
+			for (Long tx : lks.isLockers)
+				if (tx > txNum)
+					abortForDeadlock(tx);
 		}
 		if (lockType == IX_LOCK || lockType == S_LOCK || lockType == SIX_LOCK
 				|| lockType == X_LOCK) {
-			if (lks.sixLocker > txNum) {
-				txnsToBeAborted.add(lks.sixLocker);
-				if (!toBeNotified.contains(lks.sixLocker))
-					toBeNotified.add(lks.sixLocker);
-			}
-		}
-		if (lks.xLocker > txNum) {
-			txnsToBeAborted.add(lks.xLocker);
-			if (!toBeNotified.contains(lks.xLocker))
-				toBeNotified.add(lks.xLocker);
+			if (lks.sixLocker > txNum)
+				abortForDeadlock(lks.sixLocker);
 		}
+		if (lks.xLocker > txNum)
+			abortForDeadlock(lks.xLocker);
+	}
+
+	/**
+	 * Marks the specified transaction to be aborted, and wakes it up if it is
+	 * waiting for a lock.
+	 */
+	private void abortForDeadlock(long txNum) {
+		txnsToBeAborted.add(txNum);
+		LockRequest req = txWaitMap.get(txNum);
+		if (req != null)
+			LockSupport.unpark(req.thread);
 	}
 
 	/**
@@ -184,32 +270,7 @@ class LockTable {
 	 * 
 	 */
 	void sLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-
-			if (hasSLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!sLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, S_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!sLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.sLockers.add(txNum);
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException("abort tx." + txNum + " by interrupted");
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, S_LOCK);
 	}
 
 	/**
@@ -225,32 +286,7 @@ class LockTable {
 	 * 
 	 */
 	void xLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-
-			if (hasXLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!xLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, X_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!xLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.xLocker = txNum;
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, X_LOCK);
 	}
 
 	/**
@@ -266,32 +302,7 @@ class LockTable {
 	 * 
 	 */
 	void sixLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-
-			if (hasSixLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!sixLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, SIX_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!sixLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.sixLocker = txNum;
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, SIX_LOCK);
 	}
 
 	/**
@@ -306,30 +317,7 @@ class LockTable {
 	 *            a transaction number
 	 */
 	void isLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
-			if (hasIsLock(lks, txNum))
-				return;
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!isLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, IS_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
-				}
-				if (!isLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.isLockers.add(txNum);
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
-			}
-		}
-		txWaitMap.remove(txNum);
+		lock(obj, txNum, IS_LOCK);
 	}
 
 	/**
@@ -344,32 +332,122 @@ class LockTable {
 	 *            a transaction number
 	 */
 	void ixLock(Object obj, long txNum) {
-		Object anchor = getAnchor(obj);
-		txWaitMap.put(txNum, anchor);
-		synchronized (anchor) {
-			Lockers lks = prepareLockers(obj);
+		lock(obj, txNum, IX_LOCK);
+	}
+
+	/**
+	 * Grants a lock of the specified type on the specified item.
+	 * 
+	 * @param obj
+	 *            a lockable item
+	 * @param txNum
+	 *            a transaction number
+	 * @param lockType
+	 *            the type of the lock
+	 */
+	void lock(Object obj, long txNum, int lockType) {
+		Lockers lks;
+		LockRequest req;
+
+		// Grant the lock at once, or queue up the request
+		while (true) {
+			lks = prepareLockers(obj);
+			synchronized (lks) {
+				// The lock head has been removed after we got it
+				if (lks.removed)
+					continue;
+
+				if (hasLock(lks, txNum, lockType))
+					return;
+
+				avoidDeadlock(lks, txNum, lockType);
+				// A new request is queued behind all the waiting ones
+				if (grantable(lks, txNum, lockType, lks.requests.size())) {
+					grant(lks, txNum, lockType);
+					getObjectSet(txNum).add(obj);
+					return;
+				}
+				req = new LockRequest(txNum, lockType);
+				lks.requests.add(req);
+				txWaitMap.put(txNum, req);
+				break;
+			}
+		}
+
+		// Wait until a releasing tx grants the request
+		long timestamp = System.currentTimeMillis();
+		try {
+			while (true) {
+				if (!req.granted && !txnsToBeAborted.contains(txNum)) {
+					long remaining = MAX_TIME - EPSILON
+							- (System.currentTimeMillis() - timestamp);
+					if (remaining > 0)
+						LockSupport.parkNanos(this,
+								TimeUnit.MILLISECONDS.toNanos(remaining));
+				}
+				synchronized (lks) {
+					if (req.granted)
+						break;
+					String reason = null;
+					if (Thread.interrupted()) {
+						reason = "abort tx." + txNum + " by interrupted";
+						interruptAbortCount.incrementAndGet();
+					} else if (txnsToBeAborted.contains(txNum)) {
+						reason = "abort tx." + txNum + " for preventing deadlock";
+						deadlockAbortCount.incrementAndGet();
+					} else if (waitingTooLong(timestamp)) {
+						reason = "abort tx." + txNum + " for waiting too long";
+						timeoutAbortCount.incrementAndGet();
+					}
+					if (reason != null) {
+						lks.requests.remove(req);
+						grantWaiters(lks);
+						removeIfUnused(obj, lks);
+						throw new LockAbortException(reason);
+					}
+					avoidDeadlock(lks, txNum, lockType);
+				}
+			}
+		} finally {
+			txWaitMap.remove(txNum);
+		}
+		getObjectSet(txNum).add(obj);
+	}
 
-			if (hasIxLock(lks, txNum))
-				return;
-
-			try {
-				long timestamp = System.currentTimeMillis();
-				while (!ixLockable(lks, txNum) && !waitingTooLong(timestamp)) {
-					avoidDeadlock(lks, txNum, IX_LOCK);
-					lks.requestSet.add(txNum);
-					
-					anchor.wait(MAX_TIME);
-					lks.requestSet.remove(txNum);
+	/**
+	 * Grants a lock of the specified type on the specified item only if it
+	 * can be granted at once. Unlike {@link #lock(Object, long, int)}, the
+	 * method neither waits nor wounds other transactions.
+	 * 
+	 * @param obj
+	 *            a lockable item
+	 * @param txNum
+	 *            a transaction number
+	 * @param lockType
+	 *            the type of the lock
+	 * @return true if the lock is held by the transaction
+	 */
+	boolean tryLock(Object obj, long txNum, int lockType) {
+		while (true) {
+			Lockers lks = prepareLockers(obj);
+			synchronized (lks) {
+				// The lock head has been removed after we got it
+				if (lks.removed)
+					continue;
+
+				if (hasLock(lks, txNum, lockType))
+					return true;
+
+				if (!txnsToBeAborted.contains(txNum)
+						&& grantable(lks, txNum, lockType, lks.requests.size())) {
+					grant(lks, txNum, lockType);
+					getObjectSet(txNum).add(obj);
+					return true;
 				}
-				if (!ixLockable(lks, txNum))
-					throw new LockAbortException();
-				lks.ixLockers.add(txNum);
-				getObjectSet(txNum).add(obj);
-			} catch (InterruptedException e) {
-				throw new LockAbortException();
+				removeIfUnused(obj, lks);
+				return false;
 			}
 		}
-		txWaitMap.remove(txNum);
 	}
 
 	/**
@@ -385,29 +463,25 @@ class LockTable {
 	 *            the type of lock
 	 */
 	void release(Object obj, long txNum, int lockType) {
-		Object anchor = getAnchor(obj);
-		synchronized (anchor) {
-			Lockers lks = lockerMap.get(obj);
-			/*
-			 * In some situation, tx will release the lock of the object that
-			 * have been released.
-			 */
-			if (lks != null) {
-				releaseLock(lks, anchor, txNum, lockType);
-
-				// Check if this transaction have any other lock on this object
-				if (!hasSLock(lks, txNum) && !hasXLock(lks, txNum)
-						&& !hasSixLock(lks, txNum) && !hasIsLock(lks, txNum)
-						&& !hasIxLock(lks, txNum)) {
-					getObjectSet(txNum).remove(obj);
-
-					// Remove the locker, if there is no other transaction
-					// having it
-					if (!sLocked(lks) && !xLocked(lks) && !sixLocked(lks)
-							&& !isLocked(lks) && !ixLocked(lks)
-							&& lks.requestSet.isEmpty())
-						lockerMap.remove(obj);
-				}
+		Lockers lks = partitionOf(obj).get(obj);
+		/*
+		 * In some situation, tx will release the lock of the object that
+		 * have been released.
+		 */
+		if (lks == null)
+			return;
+		synchronized (lks) {
+			releaseLock(lks, txNum, lockType);
+
+			// Check if this transaction have any other lock on this object
+			if (!hasSLock(lks, txNum) && !hasXLock(lks, txNum)
+					&& !hasSixLock(lks, txNum) && !hasIsLock(lks, txNum)
+					&& !hasIxLock(lks, txNum)) {
+				getObjectSet(txNum).remove(obj);
+
+				// Remove the locker, if there is no other transaction
+				// having it
+				removeIfUnused(obj, lks);
 			}
 		}
 	}
@@ -424,100 +498,329 @@ class LockTable {
 	 */
 	void releaseAll(long txNum, boolean sLockOnly) {
 		Set<Object> objectsToRelease = getObjectSet(txNum);
-		for (Object obj : objectsToRelease) {
-			Object anchor = getAnchor(obj);
-			synchronized (anchor) {
-				Lockers lks = lockerMap.get(obj);
-
-				if (lks != null) {
+		Iterator<Object> iter = objectsToRelease.iterator();
+		while (iter.hasNext()) {
+			Object obj = iter.next();
+			Lockers lks = partitionOf(obj).get(obj);
+			if (lks == null) {
+				iter.remove();
+				continue;
+			}
+			synchronized (lks) {
+				if (hasSLock(lks, txNum))
+					releaseLock(lks, txNum, S_LOCK);
 
-					if (hasSLock(lks, txNum))
-						releaseLock(lks, anchor, txNum, S_LOCK);
+				if (hasXLock(lks, txNum) && !sLockOnly)
+					releaseLock(lks, txNum, X_LOCK);
 
-					if (hasXLock(lks, txNum) && !sLockOnly)
-						releaseLock(lks, anchor, txNum, X_LOCK);
+				if (hasSixLock(lks, txNum))
+					releaseLock(lks, txNum, SIX_LOCK);
 
-					if (hasSixLock(lks, txNum))
-						releaseLock(lks, anchor, txNum, SIX_LOCK);
+				while (hasIsLock(lks, txNum))
+					releaseLock(lks, txNum, IS_LOCK);
 
-					while (hasIsLock(lks, txNum))
-						releaseLock(lks, anchor, txNum, IS_LOCK);
+				while (hasIxLock(lks, txNum) && !sLockOnly)
+					releaseLock(lks, txNum, IX_LOCK);
 
-					while (hasIxLock(lks, txNum) && !sLockOnly)
-						releaseLock(lks, anchor, txNum, IX_LOCK);
+				// Keep track of the locks that are still held
+				if (!hasXLock(lks, txNum) && !hasIxLock(lks, txNum))
+					iter.remove();
 
-					// Remove the locker, if there is no other transaction
-					// having it
-					if (!sLocked(lks) && !xLocked(lks) && !sixLocked(lks)
-							&& !isLocked(lks) && !ixLocked(lks)
-							&& lks.requestSet.isEmpty())
-						lockerMap.remove(obj);
-				}
+				// Remove the locker, if there is no other transaction
+				// having it
+				removeIfUnused(obj, lks);
 			}
 		}
-		txWaitMap.remove(txNum);
-		txnsToBeAborted.remove(txNum);
-		lockByMap.remove(txNum);
+		if (!sLockOnly) {
+			txWaitMap.remove(txNum);
+			txnsToBeAborted.remove(txNum);
+			lockByMap.remove(txNum);
+		}
 	}
 
-	private void releaseLock(Lockers lks, Object anchor, long txNum,
-			int lockType) {
-		if (lks == null)
-			return;
-		anchor.notifyAll();
+	private void releaseLock(Lockers lks, long txNum, int lockType) {
 		switch (lockType) {
 		case X_LOCK:
-			if (lks.xLocker == txNum) {
+			if (lks.xLocker == txNum)
 				lks.xLocker = -1;
-				
-				anchor.notifyAll();
-			}
-			return;
+			break;
 		case SIX_LOCK:
-			if (lks.sixLocker == txNum) {
+			if (lks.sixLocker == txNum)
 				lks.sixLocker = -1;
-				
-				anchor.notifyAll();
-			}
-			return;
+			break;
 		case S_LOCK:
-			Set<Long> sl = lks.sLockers;
-			if (sl != null && sl.contains(txNum)) {
-				sl.remove((Long) txNum);
-				if (sl.isEmpty())
-					anchor.notifyAll();
-			}
-			return;
+			lks.sLockers.remove((Long) txNum);
+			break;
 		case IS_LOCK:
-			Set<Long> isl = lks.isLockers;
-			if (isl != null && isl.contains(txNum)) {
-				isl.remove((Long) txNum);
-				if (isl.isEmpty())
-					anchor.notifyAll();
-			}
-			return;
+			lks.isLockers.remove((Long) txNum);
+			break;
 		case IX_LOCK:
-			Set<Long> ixl = lks.ixLockers;
-			if (ixl != null && ixl.contains(txNum)) {
-				ixl.remove((Long) txNum);
-				if (ixl.isEmpty())
-					anchor.notifyAll();
+			lks.ixLockers.remove((Long) txNum);
+			break;
+		default:
+			throw new IllegalArgumentException();
+		}
+		grantWaiters(lks);
+	}
+
+	/**
+	 * Grants the queued requests that have become compatible, in their arrival
+	 * order, and wakes up their threads. Must be called under the monitor of
+	 * the lock head.
+	 */
+	private void grantWaiters(Lockers lks) {
+		int position = 0;
+		Iterator<LockRequest> iter = lks.requests.iterator();
+		while (iter.hasNext()) {
+			LockRequest req = iter.next();
+			if (grantable(lks, req.txNum, req.lockType, position)) {
+				grant(lks, req.txNum, req.lockType);
+				iter.remove();
+				req.granted = true;
+				LockSupport.unpark(req.thread);
+			} else
+				position++;
+		}
+	}
+
+	/**
+	 * Checks if the specified lock can be granted, given that it is preceded
+	 * by the specified number of requests at the head of the queue. Under
+	 * wound-wait, only the conflicting requests of older transactions hold it
+	 * back, so that an older transaction never waits for a younger one, as
+	 * assumed by {@link #avoidDeadlock(Lockers, long, int)}.
+	 */
+	private boolean grantable(Lockers lks, long txNum, int lockType,
+			int position) {
+		if (!lockable(lks, txNum, lockType))
+			return false;
+
+		// A holder of the item does not wait behind the queue
+		if (holdsAny(lks, txNum))
+			return true;
+		Iterator<LockRequest> iter = lks.requests.iterator();
+		for (int i = 0; i < position; i++)
+			if (blocks(iter.next(), txNum, lockType))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Checks if the specified request queued ahead holds back a request of
+	 * the specified transaction.
+	 */
+	private boolean blocks(LockRequest ahead, long txNum, int lockType) {
+		if (ahead.txNum == txNum || COMPATIBLE[ahead.lockType][lockType])
+			return false;
+		return deadlockHandling == DETECTION || ahead.txNum < txNum;
+	}
+
+	/**
+	 * Builds the waits-for graph from the lock queues, and aborts the
+	 * youngest transaction of each cycle. To avoid aborting a transaction
+	 * for a cycle made up of edges seen at different moments, a victim is
+	 * aborted only if it has also been found in a cycle by the previous round.
+	 * 
+	 * @return the number of transactions aborted
+	 */
+	synchronized int detectDeadlocks() {
+		Map<Long, Set<Long>> waitsFor = new HashMap<Long, Set<Long>>();
+		for (ConcurrentMap<Object, Lockers> lockerMap : partitions) {
+			for (Lockers lks : lockerMap.values()) {
+				synchronized (lks) {
+					addWaitsForEdges(lks, waitsFor);
+				}
 			}
+		}
+
+		// Break the cycles one by one
+		Set<Long> suspects = new HashSet<Long>();
+		int count = 0;
+		List<Long> cycle;
+		while ((cycle = findCycle(waitsFor)) != null) {
+			suspects.addAll(cycle);
+			long victim = Collections.max(cycle);
+			if (deadlockSuspects.contains(victim)
+					&& txWaitMap.containsKey(victim)) {
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("abort tx." + victim + " in deadlock "
+							+ cycle);
+				abortForDeadlock(victim);
+				count++;
+			}
+			waitsFor.remove(victim);
+		}
+		deadlockSuspects = suspects;
+		return count;
+	}
+
+	private void addWaitsForEdges(Lockers lks, Map<Long, Set<Long>> waitsFor) {
+		int position = 0;
+		for (LockRequest req : lks.requests) {
+			Set<Long> blockers = new HashSet<Long>();
+			addHolders(blockers, lks.sLockers, S_LOCK, req);
+			addHolders(blockers, lks.ixLockers, IX_LOCK, req);
+			addHolders(blockers, lks.isLockers, IS_LOCK, req);
+			if (lks.sixLocker != Lockers.NONE)
+				addHolders(blockers, Collections.singleton(lks.sixLocker),
+						SIX_LOCK, req);
+			if (lks.xLocker != Lockers.NONE)
+				addHolders(blockers, Collections.singleton(lks.xLocker),
+						X_LOCK, req);
+			if (!holdsAny(lks, req.txNum)) {
+				Iterator<LockRequest> iter = lks.requests.iterator();
+				for (int i = 0; i < position; i++) {
+					LockRequest ahead = iter.next();
+					if (blocks(ahead, req.txNum, req.lockType))
+						blockers.add(ahead.txNum);
+				}
+			}
+			if (!blockers.isEmpty()) {
+				Set<Long> edges = waitsFor.get(req.txNum);
+				if (edges == null) {
+					edges = new HashSet<Long>();
+					waitsFor.put(req.txNum, edges);
+				}
+				edges.addAll(blockers);
+			}
+			position++;
+		}
+	}
+
+	private void addHolders(Set<Long> blockers, Set<Long> holders,
+			int lockType, LockRequest req) {
+		if (COMPATIBLE[lockType][req.lockType])
 			return;
+		for (Long txNum : holders)
+			if (txNum != req.txNum)
+				blockers.add(txNum);
+	}
+
+	/**
+	 * Returns the transactions on a cycle of the waits-for graph, or null if
+	 * the graph has no cycle.
+	 */
+	private List<Long> findCycle(Map<Long, Set<Long>> waitsFor) {
+		Set<Long> visited = new HashSet<Long>();
+		for (Long start : waitsFor.keySet()) {
+			if (visited.contains(start))
+				continue;
+			List<Long> path = new ArrayList<Long>();
+			List<Iterator<Long>> iters = new ArrayList<Iterator<Long>>();
+			Set<Long> onPath = new HashSet<Long>();
+			path.add(start);
+			iters.add(waitsFor.get(start).iterator());
+			onPath.add(start);
+			visited.add(start);
+			while (!path.isEmpty()) {
+				Iterator<Long> iter = iters.get(iters.size() - 1);
+				if (!iter.hasNext()) {
+					onPath.remove(path.remove(path.size() - 1));
+					iters.remove(iters.size() - 1);
+					continue;
+				}
+				Long next = iter.next();
+				if (onPath.contains(next))
+					return new ArrayList<Long>(path.subList(path.indexOf(next),
+							path.size()));
+				Set<Long> edges = waitsFor.get(next);
+				if (edges == null || !visited.add(next))
+					continue;
+				path.add(next);
+				iters.add(edges.iterator());
+				onPath.add(next);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of lock requests aborted to resolve or to prevent a
+	 * deadlock.
+	 * 
+	 * @return the number of deadlock aborts
+	 */
+	long deadlockAbortCount() {
+		return deadlockAbortCount.get();
+	}
+
+	/**
+	 * Returns the number of lock requests aborted for waiting too long.
+	 * 
+	 * @return the number of timeout aborts
+	 */
+	long timeoutAbortCount() {
+		return timeoutAbortCount.get();
+	}
+
+	/**
+	 * Returns the number of lock requests aborted because their threads were
+	 * interrupted.
+	 * 
+	 * @return the number of interrupt aborts
+	 */
+	long interruptAbortCount() {
+		return interruptAbortCount.get();
+	}
+
+	private void grant(Lockers lks, long txNum, int lockType) {
+		switch (lockType) {
+		case X_LOCK:
+			lks.xLocker = txNum;
+			break;
+		case SIX_LOCK:
+			lks.sixLocker = txNum;
+			break;
+		case S_LOCK:
+			lks.sLockers.add(txNum);
+			break;
+		case IS_LOCK:
+			lks.isLockers.add(txNum);
+			break;
+		case IX_LOCK:
+			lks.ixLockers.add(txNum);
+			break;
 		default:
 			throw new IllegalArgumentException();
 		}
 	}
 
+	/**
+	 * Takes the lock head out of the lock table if no one holds or waits for
+	 * it. Must be called under the monitor of the lock head.
+	 */
+	private void removeIfUnused(Object obj, Lockers lks) {
+		if (!sLocked(lks) && !xLocked(lks) && !sixLocked(lks)
+				&& !isLocked(lks) && !ixLocked(lks) && lks.requests.isEmpty()) {
+			lks.removed = true;
+			partitionOf(obj).remove(obj, lks);
+		}
+	}
+
 	private Lockers prepareLockers(Object obj) {
+		ConcurrentMap<Object, Lockers> lockerMap = partitionOf(obj);
 		Lockers lockers = lockerMap.get(obj);
 		if (lockers == null) {
 			lockers = new Lockers();
-			lockerMap.put(obj, lockers);
+			Lockers existing = lockerMap.putIfAbsent(obj, lockers);
+			if (existing != null)
+				lockers = existing;
 		}
 		return lockers;
 	}
 
+	/**
+	 * Returns the number of items locked by the specified transaction.
+	 * 
+	 * @param txNum
+	 *            a transaction number
+	 * @return the number of locked items
+	 */
+	int lockedItemCount(long txNum) {
+		Set<Object> objectSet = lockByMap.get(txNum);
+		return objectSet == null ? 0 : objectSet.size();
+	}
+
 	private Set<Object> getObjectSet(long txNum) {
 		Set<Object> objectSet = lockByMap.get(txNum);
 		if (objectSet == null) {
@@ -527,6 +830,46 @@ class LockTable {
 		return objectSet;
 	}
 
+	private boolean hasLock(Lockers lks, long txNum, int lockType) {
+		switch (lockType) {
+		case X_LOCK:
+			return hasXLock(lks, txNum);
+		case SIX_LOCK:
+			return hasSixLock(lks, txNum);
+		case S_LOCK:
+			return hasSLock(lks, txNum);
+		case IS_LOCK:
+			return hasIsLock(lks, txNum);
+		case IX_LOCK:
+			return hasIxLock(lks, txNum);
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private boolean holdsAny(Lockers lks, long txNum) {
+		return hasSLock(lks, txNum) || hasXLock(lks, txNum)
+				|| hasSixLock(lks, txNum) || hasIsLock(lks, txNum)
+				|| hasIxLock(lks, txNum);
+	}
+
+	private boolean lockable(Lockers lks, long txNum, int lockType) {
+		switch (lockType) {
+		case X_LOCK:
+			return xLockable(lks, txNum);
+		case SIX_LOCK:
+			return sixLockable(lks, txNum);
+		case S_LOCK:
+			return sLockable(lks, txNum);
+		case IS_LOCK:
+			return isLockable(lks, txNum);
+		case IX_LOCK:
+			return ixLockable(lks, txNum);
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
 	private boolean waitingTooLong(long starttime) {
 		return System.currentTimeMillis() - starttime + EPSILON > MAX_TIME;
 	}
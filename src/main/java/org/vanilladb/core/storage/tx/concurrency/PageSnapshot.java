@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.util.ByteHelper;
+
+/**
+ * A read-only copy of the contents of a buffer as seen by a snapshot. The
+ * offsets are the same as those of the
+ * {@link org.vanilladb.core.storage.buffer.Buffer Buffer} it was taken from.
+ */
+public class PageSnapshot {
+	private ByteBuffer contents;
+
+	PageSnapshot(byte[] image) {
+		contents = ByteBuffer.wrap(image);
+	}
+
+	/**
+	 * Returns the value at the specified offset of the snapshot.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param type
+	 *            the type of the value
+	 * @return the constant value at that offset
+	 */
+	public Constant getVal(int offset, Type type) {
+		int size;
+		if (type.isFixedSize()) {
+			size = type.maxSize();
+		} else {
+			size = contents.getInt(offset);
+			offset += ByteHelper.INT_SIZE;
+		}
+		return Constant.newInstance(type,
+				Arrays.copyOfRange(contents.array(), offset, offset + size));
+	}
+
+	/**
+	 * Returns the integer at the specified offset of the snapshot.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @return the integer at that offset
+	 */
+	public int getInt(int offset) {
+		return contents.getInt(offset);
+	}
+
+	/**
+	 * Returns the long integer at the specified offset of the snapshot.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @return the long integer at that offset
+	 */
+	public long getLong(int offset) {
+		return contents.getLong(offset);
+	}
+
+	/**
+	 * Compares two values of the same type in the snapshot.
+	 * 
+	 * @param offset1
+	 *            the byte offset of the first value
+	 * @param offset2
+	 *            the byte offset of the second value
+	 * @param type
+	 *            the type of both values
+	 * @return the result of the comparison, as
+	 *         {@link Constant#compareTo(Constant)}
+	 */
+	public int compareVal(int offset1, int offset2, Type type) {
+		return getVal(offset1, type).compareTo(getVal(offset2, type));
+	}
+}
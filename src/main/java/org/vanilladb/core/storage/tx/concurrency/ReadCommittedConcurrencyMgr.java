@@ -27,11 +27,13 @@ public class ReadCommittedConcurrencyMgr extends ConcurrencyMgr {
 
 	@Override
 	public void onTxCommit(Transaction tx) {
+		commitVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
+		rollbackVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
@@ -80,9 +82,7 @@ public class ReadCommittedConcurrencyMgr extends ConcurrencyMgr {
 	
 	@Override
 	public void modifyRecord(RecordId recId) {
-		lockTbl.ixLock(recId.block().fileName(), txNum);
-		lockTbl.ixLock(recId.block(), txNum);
-		lockTbl.xLock(recId, txNum);
+		xLockRecord(recId);
 	}
 
 	@Override
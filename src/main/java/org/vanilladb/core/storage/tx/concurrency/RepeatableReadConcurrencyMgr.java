@@ -27,11 +27,13 @@ public class RepeatableReadConcurrencyMgr extends ConcurrencyMgr {
 
 	@Override
 	public void onTxCommit(Transaction tx) {
+		commitVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
+		rollbackVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
@@ -74,9 +76,7 @@ public class RepeatableReadConcurrencyMgr extends ConcurrencyMgr {
 	
 	@Override
 	public void modifyRecord(RecordId recId) {
-		lockTbl.ixLock(recId.block().fileName(), txNum);
-		lockTbl.ixLock(recId.block(), txNum);
-		lockTbl.xLock(recId, txNum);
+		xLockRecord(recId);
 	}
 
 	@Override
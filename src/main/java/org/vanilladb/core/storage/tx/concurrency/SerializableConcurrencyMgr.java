@@ -27,11 +27,13 @@ public class SerializableConcurrencyMgr extends ConcurrencyMgr {
 
 	@Override
 	public void onTxCommit(Transaction tx) {
+		commitVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
 	@Override
 	public void onTxRollback(Transaction tx) {
+		rollbackVersions();
 		lockTbl.releaseAll(txNum, false);
 	}
 
@@ -70,16 +72,12 @@ public class SerializableConcurrencyMgr extends ConcurrencyMgr {
 	
 	@Override
 	public void modifyRecord(RecordId recId) {
-		lockTbl.ixLock(recId.block().fileName(), txNum);
-		lockTbl.ixLock(recId.block(), txNum);
-		lockTbl.xLock(recId, txNum);
+		xLockRecord(recId);
 	}
 
 	@Override
 	public void readRecord(RecordId recId) {
-		lockTbl.isLock(recId.block().fileName(), txNum);
-		lockTbl.isLock(recId.block(), txNum);
-		lockTbl.sLock(recId, txNum);
+		sLockRecord(recId);
 	}
 
 	@Override
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * A concurrency manager providing snapshot isolation. The records are read
+ * from the snapshot taken when the transaction starts, without any lock, so
+ * readers never block writers and vice versa. The modifications are locked as
+ * in {@link SerializableConcurrencyMgr}, and a transaction is aborted if it
+ * modifies a record that has been modified by a transaction committed after
+ * its snapshot (i.e., the first updater wins).
+ * 
+ * <p>
+ * The index structures are not versioned. They are still read under the
+ * locks of the index blocks, but may return entries that are invisible to the
+ * snapshot.
+ * </p>
+ */
+public class SnapshotConcurrencyMgr extends ConcurrencyMgr {
+	private long snapshotTime;
+
+	public SnapshotConcurrencyMgr(long txNumber) {
+		if (versionMgr == null)
+			throw new UnsupportedOperationException(
+					"the versions of records are not kept");
+		txNum = txNumber;
+		snapshotTime = versionMgr.beginSnapshot(txNum);
+	}
+
+	@Override
+	public void onTxCommit(Transaction tx) {
+		commitVersions();
+		lockTbl.releaseAll(txNum, false);
+	}
+
+	@Override
+	public void onTxRollback(Transaction tx) {
+		rollbackVersions();
+		lockTbl.releaseAll(txNum, false);
+	}
+
+	@Override
+	public void onTxEndStatement(Transaction tx) {
+		// do nothing
+	}
+
+	@Override
+	public void modifyFile(String fileName) {
+		lockTbl.xLock(fileName, txNum);
+	}
+
+	@Override
+	public void readFile(String fileName) {
+		// reads the snapshot without lock
+	}
+
+	@Override
+	public void insertBlock(BlockId blk) {
+		lockTbl.xLock(blk.fileName(), txNum);
+		lockTbl.xLock(blk, txNum);
+	}
+
+	@Override
+	public void modifyBlock(BlockId blk) {
+		lockTbl.ixLock(blk.fileName(), txNum);
+		lockTbl.xLock(blk, txNum);
+	}
+
+	@Override
+	public void readBlock(BlockId blk) {
+		// reads the snapshot without lock
+	}
+
+	@Override
+	public void modifyRecord(RecordId recId) {
+		xLockRecord(recId);
+		if (versionMgr.isModifiedAfter(recId, txNum, snapshotTime))
+			throw new LockAbortException("abort tx." + txNum
+					+ " for modifying " + recId + " after its snapshot");
+	}
+
+	@Override
+	public void readRecord(RecordId recId) {
+		// reads the snapshot without lock
+	}
+
+	@Override
+	public void modifyIndex(String dataFileName) {
+		lockTbl.ixLock(dataFileName, txNum);
+	}
+
+	@Override
+	public void readIndex(String dataFileName) {
+		// reads the snapshot without lock
+	}
+
+	@Override
+	public PageSnapshot snapshot(Buffer buff) {
+		return versionMgr.snapshot(buff, txNum, snapshotTime);
+	}
+}
@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * Keeps the old versions of the records for the transactions reading
+ * snapshots.
+ * 
+ * <p>
+ * Before a record is modified, the raw bytes to be overwritten are kept in
+ * the version chain of its block, tagged with the modifying transaction.
+ * When the transaction commits, it gets a commit timestamp from a logical
+ * clock, and a snapshot taken at time {@code t} sees exactly the
+ * modifications of the transactions committed at or before {@code t}. The
+ * snapshot of a block is rebuilt by copying the current contents of its buffer
+ * and restoring the bytes of every invisible modification, from the newest to
+ * the oldest one. The versions of a rolled back transaction are dropped after
+ * it has been undone.
+ * </p>
+ * 
+ * <p>
+ * A background task drops the versions visible to every active snapshot every
+ * {@code GC_PERIOD} milliseconds, since no snapshot will ever restore them.
+ * </p>
+ */
+public class VersionMgr {
+	private static Logger logger = Logger.getLogger(VersionMgr.class.getName());
+
+	/**
+	 * Whether the versions of the records are kept. Snapshot transactions can
+	 * only be created with versions kept.
+	 */
+	public static final boolean ENABLED;
+	private static final long GC_PERIOD;
+
+	static {
+		ENABLED = CoreProperties.getLoader().getPropertyAsBoolean(
+				VersionMgr.class.getName() + ".ENABLED", false);
+		GC_PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				VersionMgr.class.getName() + ".GC_PERIOD", 1000);
+	}
+
+	/**
+	 * The bytes of a record overwritten by a transaction.
+	 */
+	static class Version {
+		final long txNum;
+		final int slot;
+		final int offset;
+		final byte[] before;
+
+		Version(long txNum, int slot, int offset, byte[] before) {
+			this.txNum = txNum;
+			this.slot = slot;
+			this.offset = offset;
+			this.before = before;
+		}
+	}
+
+	/**
+	 * The versions of a block in their creation order, guarded by the monitor
+	 * of the chain.
+	 */
+	static class VersionChain {
+		List<Version> versions = new ArrayList<Version>();
+		// set once this chain has been taken out of the version manager
+		boolean removed;
+	}
+
+	class VersionCollector extends Task {
+
+		@Override
+		public void run() {
+			if (logger.isLoggable(Level.INFO))
+				logger.info("Start collecting old versions");
+			while (true) {
+				try {
+					Thread.sleep(GC_PERIOD);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				collectGarbage();
+			}
+		}
+	}
+
+	private ConcurrentMap<BlockId, VersionChain> chains = new ConcurrentHashMap<BlockId, VersionChain>();
+	// The blocks holding the versions of each uncommitted tx
+	private Map<Long, Set<BlockId>> modifiedBlks = new ConcurrentHashMap<Long, Set<BlockId>>();
+	private Map<Long, Long> commitTimes = new ConcurrentHashMap<Long, Long>();
+	// The snapshot time of each active snapshot tx, guarded by this
+	private Map<Long, Long> snapshotTimes = new HashMap<Long, Long>();
+	private long clock;
+
+	public VersionMgr() {
+		this(GC_PERIOD > 0);
+	}
+
+	/**
+	 * Creates a version manager.
+	 * 
+	 * @param collectGarbage
+	 *            true if the old versions are to be collected by a background
+	 *            task
+	 */
+	VersionMgr(boolean collectGarbage) {
+		if (collectGarbage)
+			VanillaDb.taskMgr().runTask(new VersionCollector());
+	}
+
+	/**
+	 * Takes a snapshot for the specified transaction.
+	 * 
+	 * @param txNum
+	 *            the snapshot transaction
+	 * @return the snapshot time
+	 */
+	synchronized long beginSnapshot(long txNum) {
+		snapshotTimes.put(txNum, clock);
+		return clock;
+	}
+
+	/**
+	 * Keeps the bytes of a record to be overwritten by the specified
+	 * transaction. This must be called before the buffer is modified.
+	 * 
+	 * @param txNum
+	 *            the modifying transaction
+	 * @param recId
+	 *            the record to be modified
+	 * @param buff
+	 *            the buffer holding the record
+	 * @param offset
+	 *            the byte offset of the modification
+	 * @param length
+	 *            the number of bytes to be overwritten
+	 */
+	void keep(long txNum, RecordId recId, Buffer buff, int offset, int length) {
+		BlockId blk = recId.block();
+		Version v = new Version(txNum, recId.id(), offset, buff.getBytes(
+				offset, length));
+		while (true) {
+			VersionChain chain = chains.get(blk);
+			if (chain == null) {
+				VersionChain newChain = new VersionChain();
+				chain = chains.putIfAbsent(blk, newChain);
+				if (chain == null)
+					chain = newChain;
+			}
+			synchronized (chain) {
+				if (chain.removed)
+					continue;
+				chain.versions.add(v);
+			}
+			break;
+		}
+
+		Set<BlockId> blks = modifiedBlks.get(txNum);
+		if (blks == null) {
+			blks = new HashSet<BlockId>();
+			modifiedBlks.put(txNum, blks);
+		}
+		blks.add(blk);
+	}
+
+	/**
+	 * Makes the versions of the specified transaction visible to the
+	 * snapshots taken from now on, and ends its snapshot if any. This must be
+	 * called before the locks of the transaction are released.
+	 * 
+	 * @param txNum
+	 *            the committing transaction
+	 */
+	void commit(long txNum) {
+		boolean modified = modifiedBlks.remove(txNum) != null;
+		synchronized (this) {
+			snapshotTimes.remove(txNum);
+			if (modified)
+				commitTimes.put(txNum, ++clock);
+		}
+	}
+
+	/**
+	 * Drops the versions of the specified transaction, and ends its snapshot if
+	 * any. This must be called after the transaction has been undone.
+	 * 
+	 * @param txNum
+	 *            the rolled back transaction
+	 */
+	void rollback(long txNum) {
+		Set<BlockId> blks = modifiedBlks.remove(txNum);
+		if (blks != null) {
+			for (BlockId blk : blks) {
+				VersionChain chain = chains.get(blk);
+				if (chain == null)
+					continue;
+				synchronized (chain) {
+					Iterator<Version> iter = chain.versions.iterator();
+					while (iter.hasNext())
+						if (iter.next().txNum == txNum)
+							iter.remove();
+				}
+			}
+		}
+		synchronized (this) {
+			snapshotTimes.remove(txNum);
+		}
+	}
+
+	/**
+	 * Returns the contents of the specified buffer as seen by a snapshot, or
+	 * null if the snapshot sees the current contents. A value read from the
+	 * buffer before calling this method can be used as is if null is
+	 * returned.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 * @param txNum
+	 *            the snapshot transaction, whose own modifications are visible
+	 * @param snapshotTime
+	 *            the snapshot time
+	 * @return the snapshot of the buffer, or null
+	 */
+	PageSnapshot snapshot(Buffer buff, long txNum, long snapshotTime) {
+		BlockId blk = buff.block();
+		VersionChain chain = chains.get(blk);
+		if (chain == null)
+			return null;
+		synchronized (chain) {
+			if (!hasInvisibleVersion(chain, -1, txNum, snapshotTime))
+				return null;
+		}
+
+		// Copy the buffer before reading the chain, so that every
+		// modification in the copy is found in the chain
+		byte[] image = buff.getBytes(0, Buffer.BUFFER_SIZE);
+		chain = chains.get(blk);
+		if (chain != null) {
+			synchronized (chain) {
+				for (int i = chain.versions.size() - 1; i >= 0; i--) {
+					Version v = chain.versions.get(i);
+					if (!isVisible(v, txNum, snapshotTime))
+						System.arraycopy(v.before, 0, image, v.offset,
+								v.before.length);
+				}
+			}
+		}
+		return new PageSnapshot(image);
+	}
+
+	/**
+	 * Checks if the specified record has been modified by another transaction
+	 * that is invisible to the snapshot.
+	 * 
+	 * @param recId
+	 *            the record
+	 * @param txNum
+	 *            the snapshot transaction
+	 * @param snapshotTime
+	 *            the snapshot time
+	 * @return true if the record has been modified after the snapshot
+	 */
+	boolean isModifiedAfter(RecordId recId, long txNum, long snapshotTime) {
+		VersionChain chain = chains.get(recId.block());
+		if (chain == null)
+			return false;
+		synchronized (chain) {
+			return hasInvisibleVersion(chain, recId.id(), txNum, snapshotTime);
+		}
+	}
+
+	/**
+	 * Drops the versions visible to every active snapshot.
+	 * 
+	 * @return the number of versions dropped
+	 */
+	int collectGarbage() {
+		long horizon;
+		synchronized (this) {
+			horizon = clock;
+			for (Long time : snapshotTimes.values())
+				if (time < horizon)
+					horizon = time;
+		}
+
+		int count = 0;
+		for (Map.Entry<BlockId, VersionChain> entry : chains.entrySet()) {
+			VersionChain chain = entry.getValue();
+			synchronized (chain) {
+				Iterator<Version> iter = chain.versions.iterator();
+				while (iter.hasNext()) {
+					Long time = commitTimes.get(iter.next().txNum);
+					if (time != null && time <= horizon) {
+						iter.remove();
+						count++;
+					}
+				}
+				if (chain.versions.isEmpty()) {
+					chain.removed = true;
+					chains.remove(entry.getKey(), chain);
+				}
+			}
+		}
+
+		// The txs committed before the horizon have no versions left
+		Iterator<Long> iter = commitTimes.values().iterator();
+		while (iter.hasNext())
+			if (iter.next() <= horizon)
+				iter.remove();
+		return count;
+	}
+
+	/**
+	 * Returns the number of versions kept.
+	 * 
+	 * @return the number of versions
+	 */
+	int versionCount() {
+		int count = 0;
+		for (VersionChain chain : chains.values())
+			synchronized (chain) {
+				count += chain.versions.size();
+			}
+		return count;
+	}
+
+	private boolean hasInvisibleVersion(VersionChain chain, int slot,
+			long txNum, long snapshotTime) {
+		for (Version v : chain.versions)
+			if ((slot < 0 || v.slot == slot)
+					&& !isVisible(v, txNum, snapshotTime))
+				return true;
+		return false;
+	}
+
+	private boolean isVisible(Version v, long txNum, long snapshotTime) {
+		if (v.txNum == txNum)
+			return true;
+		Long time = commitTimes.get(v.txNum);
+		return time != null && time <= snapshotTime;
+	}
+}
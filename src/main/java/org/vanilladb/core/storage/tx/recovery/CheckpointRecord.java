@@ -34,6 +34,8 @@ import org.vanilladb.core.storage.tx.Transaction;
  */
 class CheckpointRecord implements LogRecord {
 	private List<Long> txNums;
+	private LogSeqNum redoLsn;
+	private LogSeqNum beginLsn;
 	private LogSeqNum lsn;
 	/**
 	 * Creates a quiescent checkpoint record.
@@ -50,6 +52,27 @@ class CheckpointRecord implements LogRecord {
 		
 	}
 
+	/**
+	 * Creates a fuzzy checkpoint record, which requires the log records from
+	 * the specified redo point to be redone during recovery.
+	 */
+	public CheckpointRecord(List<Long> txNums, LogSeqNum redoLsn) {
+		this(txNums, redoLsn, null);
+	}
+
+	/**
+	 * Creates a fuzzy checkpoint record, which requires the log records from
+	 * the specified redo point to be redone during recovery. The transactions
+	 * started from the specified begin point may be missing in the active
+	 * transactions, and must be found by their start records.
+	 */
+	public CheckpointRecord(List<Long> txNums, LogSeqNum redoLsn,
+			LogSeqNum beginLsn) {
+		this.txNums = txNums;
+		this.redoLsn = redoLsn;
+		this.beginLsn = beginLsn;
+	}
+
 	/**
 	 * Creates a log record by reading no other values from the basic log
 	 * record.
@@ -63,12 +86,20 @@ class CheckpointRecord implements LogRecord {
 		for (int i = 0; i < txCount; i++) {
 			txNums.add((Long) rec.nextVal(BIGINT).asJavaVal());
 		}
+		long redo = (Long) rec.nextVal(BIGINT).asJavaVal();
+		if (redo >= 0)
+			this.redoLsn = new LogSeqNum(redo);
+		long begin = (Long) rec.nextVal(BIGINT).asJavaVal();
+		if (begin >= 0)
+			this.beginLsn = new LogSeqNum(begin);
 	}
 
 	/**
 	 * Writes a checkpoint record to the log. This log record contains the
 	 * {@link LogRecord#OP_CHECKPOINT} operator ID, number of active transctions
-	 * during checkpointing and a list of active transaction ids.
+	 * during checkpointing, a list of active transaction ids, the redo point
+	 * (-1 if the redo starts from this record) and the begin point (-1 if no
+	 * transaction can be missing in the list).
 	 * 
 	 * @return the LSN of the log record
 	 */
@@ -119,6 +150,10 @@ class CheckpointRecord implements LogRecord {
 		
 		if (txNums.size() > 0)
 			strbuf.delete(strbuf.length() - 1, strbuf.length());
+		if (redoLsn != null)
+			strbuf.append(" REDO " + redoLsn);
+		if (beginLsn != null)
+			strbuf.append(" BEGIN " + beginLsn);
 		
 		return strbuf.toString() + ">";
 	}
@@ -127,6 +162,28 @@ class CheckpointRecord implements LogRecord {
 		return this.txNums;
 	}
 
+	/**
+	 * Returns the LSN from which the log records must be redone, or null if
+	 * all modifications before this record had been flushed.
+	 * 
+	 * @return the redo point
+	 */
+	public LogSeqNum redoLsn() {
+		return this.redoLsn;
+	}
+
+	/**
+	 * Returns the LSN of the log tail when the active transactions were
+	 * collected, or null if no transaction can be missing in them. The
+	 * transactions started from this point must be found by scanning the log
+	 * back to it.
+	 * 
+	 * @return the begin point
+	 */
+	public LogSeqNum beginLsn() {
+		return this.beginLsn;
+	}
+
 	public boolean isContainTxNum(long txNum) {
 		return this.txNums.contains(txNum);
 	}
@@ -139,6 +196,8 @@ class CheckpointRecord implements LogRecord {
 		int recLength = txNums.size();
 		for (int i = 0; i < recLength; i++)
 			rec.add(new BigIntConstant(txNums.get(i)));
+		rec.add(new BigIntConstant(redoLsn == null ? -1 : redoLsn.val()));
+		rec.add(new BigIntConstant(beginLsn == null ? -1 : beginLsn.val()));
 		return rec;
 	}
 
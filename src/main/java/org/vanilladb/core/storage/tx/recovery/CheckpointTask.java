@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.log.NVMLogMgr;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.util.CoreProperties;
 
@@ -83,9 +84,15 @@ public class CheckpointTask extends Task {
 				VanillaDb.txMgr().createCheckpoint(tx);
 				tx.commit();
 			}
-			if (logger.isLoggable(Level.INFO))
-				logger.info("Buffer utilization: " + 
-						VanillaDb.nvmLogMgr().utilization());
+			if (logger.isLoggable(Level.INFO)) {
+				NVMLogMgr nvmLogMgr = VanillaDb.nvmLogMgr();
+				logger.info("Buffer utilization: " + nvmLogMgr.utilization()
+						+ ", reclaimed bytes: " + nvmLogMgr.reclaimedSize()
+						+ ", forced checkpoints: "
+						+ nvmLogMgr.forcedCheckpointCount() + ", stalls: "
+						+ nvmLogMgr.stallCount() + " (" + nvmLogMgr.stallTime()
+						+ " ms), aborts: " + nvmLogMgr.abortCount());
+			}
 			//System.out.println("checkpoint count : " + checkpointCount);
 		}
 		else if (MY_METHOD == METHOD_PERIODIC) {
@@ -135,6 +135,26 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 		return rec;
 	}
 
+	String tableName() {
+		return tblName;
+	}
+
+	String fieldName() {
+		return fldName;
+	}
+
+	Constant searchKey() {
+		return searchKey;
+	}
+
+	long recordBlockNumber() {
+		return recordBlockNum;
+	}
+
+	int recordSlotId() {
+		return recordSlotId;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
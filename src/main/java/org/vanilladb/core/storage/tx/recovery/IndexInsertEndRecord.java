@@ -136,6 +136,26 @@ public class IndexInsertEndRecord extends LogicalEndRecord implements LogRecord
 		return rec;
 	}
 
+	String tableName() {
+		return tblName;
+	}
+
+	String fieldName() {
+		return fldName;
+	}
+
+	Constant searchKey() {
+		return searchKey;
+	}
+
+	long recordBlockNumber() {
+		return recordBlockNum;
+	}
+
+	int recordSlotId() {
+		return recordSlotId;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
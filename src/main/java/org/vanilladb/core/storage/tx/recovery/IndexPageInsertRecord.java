@@ -162,6 +162,26 @@ public class IndexPageInsertRecord implements LogRecord {
 		return rec;
 	}
 
+	String indexName() {
+		return indexName;
+	}
+
+	boolean isDirPage() {
+		return isDirPage;
+	}
+
+	Type keyType() {
+		return keyType;
+	}
+
+	long blockNumber() {
+		return blkNum;
+	}
+
+	int slotId() {
+		return slotId;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
@@ -15,31 +15,20 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
-import static org.vanilladb.core.sql.Type.INTEGER;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_DELETE_END;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_INSERT_END;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_PAGE_DELETE;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_PAGE_DELETE_CLR;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_PAGE_INSERT;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_PAGE_INSERT_CLR;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_LOGICAL_ABORT;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_LOGICAL_START;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_DELETE_END;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_INSERT_END;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_ROLLBACK;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE_CLR;
-import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
+import java.nio.ByteBuffer;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.log.BasicLogRecord;
-import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.log.LogPosition;
 
+/**
+ * Reads the log records in a log file forwards, for translating the log file
+ * into a readable form. The records are encoded by the {@link LogRecordCodec}
+ * and decoded through a buffer reused across the records.
+ */
 public class LogReader {
 	private static final int LAST_POS_POINTER = 0;
 
@@ -54,6 +43,7 @@ public class LogReader {
 
 	// Log Record
 	private LogRecord currentRec;
+	private ByteBuffer bytes;
 
 	public LogReader(String logFileName) {
 		fileSize = VanillaDb.fileMgr().size(logFileName);
@@ -78,8 +68,9 @@ public class LogReader {
 		}
 
 		// get record
-		// TODO : Need to check currentPos type
-		//currentRec = readRecord(new BasicLogRecord(page, new LogSeqNum(currentBlk.number(), currentPos)));
+		bytes = new BasicLogRecord(page, new LogPosition(currentBlk.number(),
+				currentPos)).readBytes(bytes);
+		currentRec = LogRecordCodec.decode(bytes);
 		// move to next record position
 		int nextPos = (Integer) page.getVal(currentPos - pointerSize, Type.INTEGER).asJavaVal();
 		currentPos = nextPos + pointerSize;
@@ -93,46 +84,6 @@ public class LogReader {
 		return currentRec.getLSN() + currentRec.toString();
 	}
 
-	private LogRecord readRecord(BasicLogRecord rec) {
-		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		switch (op) {
-		case OP_CHECKPOINT:
-			return new CheckpointRecord(rec);
-		case OP_START:
-			return new StartRecord(rec);
-		case OP_COMMIT:
-			return new CommitRecord(rec);
-		case OP_ROLLBACK:
-			return new RollbackRecord(rec);
-		case OP_SET_VALUE:
-			return new SetValueRecord(rec);
-		case OP_LOGICAL_START:
-			return new LogicalStartRecord(rec);
-		case OP_LOGICAL_ABORT:
-			return new LogicalAbortRecord(rec);
-		case OP_RECORD_FILE_INSERT_END:
-			return new RecordFileInsertEndRecord(rec);
-		case OP_RECORD_FILE_DELETE_END:
-			return new RecordFileDeleteEndRecord(rec);
-		case OP_INDEX_FILE_INSERT_END:
-			return new IndexInsertEndRecord(rec);
-		case OP_INDEX_FILE_DELETE_END:
-			return new IndexDeleteEndRecord(rec);
-		case OP_INDEX_PAGE_INSERT:
-			return new IndexPageInsertRecord(rec);
-		case OP_INDEX_PAGE_DELETE:
-			return new IndexPageDeleteRecord(rec);
-		case OP_SET_VALUE_CLR:
-			return new SetValueClr(rec);
-		case OP_INDEX_PAGE_INSERT_CLR:
-			return new IndexPageInsertClr(rec);
-		case OP_INDEX_PAGE_DELETE_CLR:
-			return new IndexPageDeleteClr(rec);
-		default:
-			return null;
-		}
-	}
-
 	private void moveToNextBlock() {
 		BlockId nextBlk = new BlockId(currentBlk.fileName(), currentBlk.number() + 1);
 		page.read(nextBlk);
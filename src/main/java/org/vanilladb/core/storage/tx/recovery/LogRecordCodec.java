@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.BasicLogRecord;
+import org.vanilladb.core.storage.log.LogSeqNum;
+
+/**
+ * The binary codec of log records. Every log record is encoded compactly
+ * without building the list of constants returned by
+ * {@link LogRecord#buildRecord()}:
+ * 
+ * <pre>
+ * | BINARY | op (varint) | txNum (varint) | fields of the record |
+ * </pre>
+ * 
+ * where integers are variable-length encoded, strings are stored as their
+ * length followed by their chars, and values are stored as their typed fields
+ * (a string value as a string). Records are encoded straight from the fields
+ * of the log record, so encoding allocates no objects. A leading
+ * {@code CONSTANTS} byte marks a record encoded as its constants, laid out in
+ * the same way as they are in a log page, which is still decoded for the logs
+ * written by earlier versions.
+ */
+public final class LogRecordCodec {
+	/**
+	 * The maximal number of bytes needed to read the operation ID.
+	 */
+	public static final int MAX_HEADER_SIZE = 1 + 10;
+
+	private static final byte CONSTANTS = 0, BINARY = 1;
+
+	private LogRecordCodec() {
+	}
+
+	/**
+	 * Encodes the specified log record at the current position of the buffer.
+	 * 
+	 * @param rec
+	 *            the log record
+	 * @param dst
+	 *            the buffer
+	 * @throws BufferOverflowException
+	 *             if there is no enough space in the buffer
+	 */
+	public static void encode(LogRecord rec, ByteBuffer dst) {
+		int op = rec.op();
+		putHeader(dst, op, rec.txNumber());
+		switch (op) {
+		case LogRecord.OP_SET_VALUE:
+		case LogRecord.OP_SET_VALUE_CLR:
+			SetValueRecord svr = (SetValueRecord) rec;
+			BlockId blk = svr.block();
+			putString(dst, blk.fileName());
+			putVarLong(dst, blk.number());
+			putVarLong(dst, svr.offset());
+			putVarLong(dst, svr.oldVal().getType().getSqlType());
+			putVal(dst, svr.oldVal());
+			putVal(dst, svr.newVal());
+			if (op == LogRecord.OP_SET_VALUE_CLR)
+				putVarLong(dst, ((SetValueClr) rec).getUndoNextLSN().val() + 1);
+			return;
+		case LogRecord.OP_START:
+		case LogRecord.OP_COMMIT:
+		case LogRecord.OP_ROLLBACK:
+		case LogRecord.OP_LOGICAL_START:
+			return;
+		case LogRecord.OP_LOGICAL_ABORT:
+			putVarLong(dst, ((LogicalAbortRecord) rec).getlogicalStartLSN().val());
+			return;
+		case LogRecord.OP_CHECKPOINT:
+			CheckpointRecord ckpt = (CheckpointRecord) rec;
+			List<Long> txNums = ckpt.activeTxNums();
+			putVarLong(dst, txNums.size());
+			for (int i = 0; i < txNums.size(); i++)
+				putVarLong(dst, txNums.get(i));
+			putLsn(dst, ckpt.redoLsn());
+			putLsn(dst, ckpt.beginLsn());
+			return;
+		case LogRecord.OP_RECORD_FILE_INSERT_END:
+			RecordFileInsertEndRecord rfie = (RecordFileInsertEndRecord) rec;
+			putString(dst, rfie.tableName());
+			putVarLong(dst, rfie.blockNumber());
+			putVarLong(dst, rfie.slotId());
+			putVarLong(dst, rfie.getlogicalStartLSN().val());
+			return;
+		case LogRecord.OP_RECORD_FILE_DELETE_END:
+			RecordFileDeleteEndRecord rfde = (RecordFileDeleteEndRecord) rec;
+			putString(dst, rfde.tableName());
+			putVarLong(dst, rfde.blockNumber());
+			putVarLong(dst, rfde.slotId());
+			putVarLong(dst, rfde.getlogicalStartLSN().val());
+			return;
+		case LogRecord.OP_INDEX_FILE_INSERT_END:
+			IndexInsertEndRecord iie = (IndexInsertEndRecord) rec;
+			putString(dst, iie.tableName());
+			putString(dst, iie.fieldName());
+			putVarLong(dst, iie.searchKey().getType().getSqlType());
+			putVal(dst, iie.searchKey());
+			putVarLong(dst, iie.recordBlockNumber());
+			putVarLong(dst, iie.recordSlotId());
+			putVarLong(dst, iie.getlogicalStartLSN().val());
+			return;
+		case LogRecord.OP_INDEX_FILE_DELETE_END:
+			IndexDeleteEndRecord ide = (IndexDeleteEndRecord) rec;
+			putString(dst, ide.tableName());
+			putString(dst, ide.fieldName());
+			putVarLong(dst, ide.searchKey().getType().getSqlType());
+			putVal(dst, ide.searchKey());
+			putVarLong(dst, ide.recordBlockNumber());
+			putVarLong(dst, ide.recordSlotId());
+			putVarLong(dst, ide.getlogicalStartLSN().val());
+			return;
+		case LogRecord.OP_INDEX_PAGE_INSERT:
+		case LogRecord.OP_INDEX_PAGE_INSERT_CLR:
+			IndexPageInsertRecord ipi = (IndexPageInsertRecord) rec;
+			putString(dst, ipi.indexName());
+			dst.put((byte) (ipi.isDirPage() ? 1 : 0));
+			putVarLong(dst, ipi.keyType().getSqlType());
+			putVarLong(dst, ipi.blockNumber());
+			putVarLong(dst, ipi.slotId());
+			if (op == LogRecord.OP_INDEX_PAGE_INSERT_CLR)
+				putVarLong(dst, ((IndexPageInsertClr) rec).getUndoNextLSN().val());
+			return;
+		case LogRecord.OP_INDEX_PAGE_DELETE:
+		case LogRecord.OP_INDEX_PAGE_DELETE_CLR:
+			IndexPageDeleteRecord ipd = (IndexPageDeleteRecord) rec;
+			putString(dst, ipd.indexName());
+			dst.put((byte) (ipd.isDirPage() ? 1 : 0));
+			putVarLong(dst, ipd.keyType().getSqlType());
+			putVarLong(dst, ipd.blockNumber());
+			putVarLong(dst, ipd.slotId());
+			if (op == LogRecord.OP_INDEX_PAGE_DELETE_CLR)
+				putVarLong(dst, ((IndexPageDeleteClr) rec).getUndoNextLSN().val());
+			return;
+		default:
+			throw new UnsupportedOperationException("unknown log record " + op);
+		}
+	}
+
+	/**
+	 * Decodes the log record starting at the current position of the buffer.
+	 * 
+	 * @param src
+	 *            the buffer
+	 * @return the log record, whose LSN is not set
+	 */
+	public static LogRecord decode(ByteBuffer src) {
+		if (src.get() == CONSTANTS)
+			return LogRecordIterator.readRecord(new BasicLogRecord(src));
+
+		int op = (int) getVarLong(src);
+		long txNum = getVarLong(src);
+		switch (op) {
+		case LogRecord.OP_SET_VALUE:
+		case LogRecord.OP_SET_VALUE_CLR:
+			BlockId blk = new BlockId(getString(src), getVarLong(src));
+			int offset = (int) getVarLong(src);
+			Type type = Type.newInstance((int) getVarLong(src));
+			Constant val = getVal(src, type);
+			Constant newVal = getVal(src, type);
+			if (op == LogRecord.OP_SET_VALUE)
+				return new SetValueRecord(txNum, blk, offset, val, newVal);
+			return new SetValueClr(txNum, blk, offset, val, newVal,
+					new LogSeqNum(getVarLong(src) - 1));
+		case LogRecord.OP_START:
+			return new StartRecord(txNum);
+		case LogRecord.OP_COMMIT:
+			return new CommitRecord(txNum);
+		case LogRecord.OP_ROLLBACK:
+			return new RollbackRecord(txNum);
+		case LogRecord.OP_LOGICAL_START:
+			return new LogicalStartRecord(txNum);
+		case LogRecord.OP_LOGICAL_ABORT:
+			return new LogicalAbortRecord(txNum, new LogSeqNum(getVarLong(src)));
+		case LogRecord.OP_CHECKPOINT:
+			int txCount = (int) getVarLong(src);
+			List<Long> txNums = new ArrayList<Long>(txCount);
+			for (int i = 0; i < txCount; i++)
+				txNums.add(getVarLong(src));
+			LogSeqNum redoLsn = getLsn(src);
+			return new CheckpointRecord(txNums, redoLsn, getLsn(src));
+		case LogRecord.OP_RECORD_FILE_INSERT_END:
+			return new RecordFileInsertEndRecord(txNum, getString(src),
+					getVarLong(src), (int) getVarLong(src),
+					new LogSeqNum(getVarLong(src)));
+		case LogRecord.OP_RECORD_FILE_DELETE_END:
+			return new RecordFileDeleteEndRecord(txNum, getString(src),
+					getVarLong(src), (int) getVarLong(src),
+					new LogSeqNum(getVarLong(src)));
+		case LogRecord.OP_INDEX_FILE_INSERT_END:
+		case LogRecord.OP_INDEX_FILE_DELETE_END:
+			String tblName = getString(src);
+			String fldName = getString(src);
+			Constant key = getVal(src, Type.newInstance((int) getVarLong(src)));
+			long recordBlkNum = getVarLong(src);
+			int recordSlotId = (int) getVarLong(src);
+			LogSeqNum logicalStartLsn = new LogSeqNum(getVarLong(src));
+			if (op == LogRecord.OP_INDEX_FILE_INSERT_END)
+				return new IndexInsertEndRecord(txNum, tblName, fldName, key,
+						recordBlkNum, recordSlotId, logicalStartLsn);
+			return new IndexDeleteEndRecord(txNum, tblName, fldName, key,
+					recordBlkNum, recordSlotId, logicalStartLsn);
+		case LogRecord.OP_INDEX_PAGE_INSERT:
+		case LogRecord.OP_INDEX_PAGE_INSERT_CLR:
+		case LogRecord.OP_INDEX_PAGE_DELETE:
+		case LogRecord.OP_INDEX_PAGE_DELETE_CLR:
+			String indexName = getString(src);
+			boolean isDirPage = src.get() == 1;
+			Type keyType = Type.newInstance((int) getVarLong(src));
+			long blkNum = getVarLong(src);
+			int slotId = (int) getVarLong(src);
+			switch (op) {
+			case LogRecord.OP_INDEX_PAGE_INSERT:
+				return new IndexPageInsertRecord(txNum, indexName, isDirPage,
+						keyType, blkNum, slotId);
+			case LogRecord.OP_INDEX_PAGE_DELETE:
+				return new IndexPageDeleteRecord(txNum, indexName, isDirPage,
+						keyType, blkNum, slotId);
+			case LogRecord.OP_INDEX_PAGE_INSERT_CLR:
+				return new IndexPageInsertClr(txNum, indexName, isDirPage,
+						keyType, blkNum, slotId, new LogSeqNum(getVarLong(src)));
+			default:
+				return new IndexPageDeleteClr(txNum, indexName, isDirPage,
+						keyType, blkNum, slotId, new LogSeqNum(getVarLong(src)));
+			}
+		default:
+			throw new UnsupportedOperationException("unknown binary log record " + op);
+		}
+	}
+
+	/**
+	 * Reads the operation ID of the log record starting at the current
+	 * position of the buffer.
+	 * 
+	 * @param src
+	 *            the buffer
+	 * @return the operation ID
+	 */
+	public static int peekOp(ByteBuffer src) {
+		if (src.get() == CONSTANTS)
+			return src.getInt();
+		return (int) getVarLong(src);
+	}
+
+	private static void putHeader(ByteBuffer dst, int op, long txNum) {
+		dst.put(BINARY);
+		putVarLong(dst, op);
+		putVarLong(dst, txNum);
+	}
+
+	/**
+	 * Writes the value through its typed field. The boxed value returned by
+	 * {@link Constant#asJavaVal()} is the one held by the constant, so no
+	 * bytes are copied out of it.
+	 */
+	private static void putVal(ByteBuffer dst, Constant val) {
+		switch (val.getType().getSqlType()) {
+		case java.sql.Types.INTEGER:
+			dst.putInt((Integer) val.asJavaVal());
+			return;
+		case java.sql.Types.BIGINT:
+			dst.putLong((Long) val.asJavaVal());
+			return;
+		case java.sql.Types.DOUBLE:
+			dst.putDouble((Double) val.asJavaVal());
+			return;
+		case java.sql.Types.VARCHAR:
+			putString(dst, (String) val.asJavaVal());
+			return;
+		default:
+			throw new UnsupportedOperationException("unsupported SQL type: "
+					+ val.getType().getSqlType());
+		}
+	}
+
+	private static Constant getVal(ByteBuffer src, Type type) {
+		switch (type.getSqlType()) {
+		case java.sql.Types.INTEGER:
+			return new IntegerConstant(src.getInt());
+		case java.sql.Types.BIGINT:
+			return new BigIntConstant(src.getLong());
+		case java.sql.Types.DOUBLE:
+			return new DoubleConstant(src.getDouble());
+		case java.sql.Types.VARCHAR:
+			return new VarcharConstant(getString(src), type);
+		default:
+			throw new UnsupportedOperationException("unsupported SQL type: "
+					+ type.getSqlType());
+		}
+	}
+
+	private static void putLsn(ByteBuffer dst, LogSeqNum lsn) {
+		putVarLong(dst, lsn == null ? -1 : lsn.val());
+	}
+
+	private static LogSeqNum getLsn(ByteBuffer src) {
+		long val = getVarLong(src);
+		return val < 0 ? null : new LogSeqNum(val);
+	}
+
+	/**
+	 * Writes the length of the string followed by its chars, each of which
+	 * takes a single byte if it is an ASCII char, without encoding the string
+	 * into a new array.
+	 */
+	private static void putString(ByteBuffer dst, String s) {
+		int len = s.length();
+		putVarLong(dst, len);
+		for (int i = 0; i < len; i++)
+			putUnsignedVarLong(dst, s.charAt(i));
+	}
+
+	private static String getString(ByteBuffer src) {
+		char[] chars = new char[(int) getVarLong(src)];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) getUnsignedVarLong(src);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes a zigzag-encoded variable-length long, so small negative values
+	 * such as the operation IDs take a single byte as well.
+	 */
+	private static void putVarLong(ByteBuffer dst, long val) {
+		putUnsignedVarLong(dst, (val << 1) ^ (val >> 63));
+	}
+
+	private static long getVarLong(ByteBuffer src) {
+		long v = getUnsignedVarLong(src);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void putUnsignedVarLong(ByteBuffer dst, long v) {
+		while ((v & ~0x7FL) != 0) {
+			dst.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		dst.put((byte) v);
+	}
+
+	private static long getUnsignedVarLong(ByteBuffer src) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = src.get();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+}
@@ -33,6 +33,8 @@ import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_SET_VALUE_CLR;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
 
+import java.nio.ByteBuffer;
+
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.log.BasicLogRecord;
 
@@ -40,10 +42,13 @@ import org.vanilladb.core.storage.log.BasicLogRecord;
  * A class that provides the ability to read records from the log in reverse
  * order. Unlike the similar class
  * {@link org.vanilladb.core.storage.log.LogIterator LogIterator}, this class
- * understands the meaning of the log records.
+ * understands the meaning of the log records, which are drained from the NVM
+ * log as encoded by the {@link LogRecordCodec}. The bytes of each record are
+ * copied into a buffer reused across the records and decoded from there.
  */
 public class LogRecordIterator implements ReversibleIterator<LogRecord> {
 	private ReversibleIterator<BasicLogRecord> iter = VanillaDb.logMgr().iterator();
+	private ByteBuffer bytes;
 
 	@Override
 	public boolean hasNext() {
@@ -51,54 +56,13 @@ public class LogRecordIterator implements ReversibleIterator<LogRecord> {
 	}
 
 	/**
-	 * Constructs a log record from the values in the current basic log record.
-	 * The method first reads an integer, which denotes the type of the log
-	 * record. Based on that type, the method calls the appropriate LogRecord
-	 * constructor to read the remaining values.
+	 * Decodes the log record in the current basic log record.
 	 * 
-	 * @return the next log record, or null if no more records
+	 * @return the next log record
 	 */
-	
 	@Override
 	public LogRecord next() {
-		BasicLogRecord rec = iter.next();
-		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		switch (op) {
-		case OP_CHECKPOINT:
-			return new CheckpointRecord(rec);
-		case OP_START:
-			return new StartRecord(rec);
-		case OP_COMMIT:
-			return new CommitRecord(rec);
-		case OP_ROLLBACK:
-			return new RollbackRecord(rec);
-		case OP_SET_VALUE:
-			return new SetValueRecord(rec);
-		case OP_LOGICAL_START:
-			return new LogicalStartRecord(rec);
-		case OP_LOGICAL_ABORT:
-			return new LogicalAbortRecord(rec);
-		case OP_RECORD_FILE_INSERT_END:
-			return new RecordFileInsertEndRecord(rec);
-		case OP_RECORD_FILE_DELETE_END:
-			return new RecordFileDeleteEndRecord(rec);
-		case OP_INDEX_FILE_INSERT_END:
-			return new IndexInsertEndRecord(rec);
-		case OP_INDEX_FILE_DELETE_END:
-			return new IndexDeleteEndRecord(rec);
-		case OP_INDEX_PAGE_INSERT:
-			return new IndexPageInsertRecord(rec);
-		case OP_INDEX_PAGE_DELETE:
-			return new IndexPageDeleteRecord(rec);
-		case OP_SET_VALUE_CLR:
-			return new SetValueClr(rec);
-		case OP_INDEX_PAGE_INSERT_CLR:
-			return new IndexPageInsertClr(rec);
-		case OP_INDEX_PAGE_DELETE_CLR:
-			return new IndexPageDeleteClr(rec);
-		default:
-			throw new UnsupportedOperationException();
-		}
+		return decode(iter.next());
 	}
 
 	@Override
@@ -113,7 +77,25 @@ public class LogRecordIterator implements ReversibleIterator<LogRecord> {
 
 	@Override
 	public LogRecord previous() {
-		BasicLogRecord rec = iter.previous();
+		return decode(iter.previous());
+	}
+
+	private LogRecord decode(BasicLogRecord rec) {
+		bytes = rec.readBytes(bytes);
+		return LogRecordCodec.decode(bytes);
+	}
+
+	/**
+	 * Constructs a log record from the values in the specified basic log
+	 * record. The method first reads an integer, which denotes the type of the
+	 * log record. Based on that type, the method calls the appropriate
+	 * LogRecord constructor to read the remaining values.
+	 * 
+	 * @param rec
+	 *            the basic log record
+	 * @return the log record
+	 */
+	public static LogRecord readRecord(BasicLogRecord rec) {
 		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
 		switch (op) {
 		case OP_CHECKPOINT:
@@ -119,6 +119,18 @@ public class RecordFileDeleteEndRecord extends LogicalEndRecord implements LogRe
 		return rec;
 	}
 
+	String tableName() {
+		return tblName;
+	}
+
+	long blockNumber() {
+		return blkNum;
+	}
+
+	int slotId() {
+		return slotId;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
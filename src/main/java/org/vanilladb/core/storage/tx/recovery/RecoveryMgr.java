@@ -17,6 +17,12 @@ package org.vanilladb.core.storage.tx.recovery;
 
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_DELETE_END;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_INDEX_FILE_INSERT_END;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_LOGICAL_ABORT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_LOGICAL_START;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_DELETE_END;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_RECORD_FILE_INSERT_END;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_ROLLBACK;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
 
@@ -35,12 +41,32 @@ import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * The recovery manager. Each transaction has its own recovery manager.
  */
 public class RecoveryMgr implements TransactionLifecycleListener {
 
+	/**
+	 * The number of threads used to redo and undo the log records during the
+	 * system recovery. The log records are replayed by the recovery
+	 * transaction alone if it is 1.
+	 */
+	public static final int RECOVERY_THREADS;
+	/**
+	 * The maximal number of log records dispatched to the recovery threads
+	 * before waiting for them to be replayed.
+	 */
+	public static final int RECOVERY_BATCH_SIZE;
+
+	static {
+		RECOVERY_THREADS = CoreProperties.getLoader().getPropertyAsInteger(
+				RecoveryMgr.class.getName() + ".RECOVERY_THREADS", 4);
+		RECOVERY_BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				RecoveryMgr.class.getName() + ".RECOVERY_BATCH_SIZE", 10000);
+	}
+
 	private static boolean enableLogging = true;
 
 	public static void enableLogging(boolean log) {
@@ -93,6 +119,7 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		if (!tx.isReadOnly() && enableLogging) {
 			LogSeqNum lsn = new CommitRecord(txNum).writeToLog();
 			VanillaDb.nvmLogMgr().flush(lsn);
+			VanillaDb.nvmLogMgr().removeTxLogChain(txNum);
 		}
 	}
 
@@ -106,6 +133,7 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			doRollback(tx);
 			LogSeqNum lsn = new RollbackRecord(txNum).writeToLog();
 			VanillaDb.nvmLogMgr().flush(lsn);
+			VanillaDb.nvmLogMgr().removeTxLogChain(txNum);
 		}
 	}
 
@@ -120,11 +148,20 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	 * @param txNums
 	 *            the transactions that are being executed when writing the
 	 *            checkpoint.
+	 * @param redoLsn
+	 *            the LSN from which the log records must be redone
+	 * @param beginLsn
+	 *            the LSN of the log tail before the transactions were
+	 *            collected
 	 * @return the LSN of the log record.
 	 */
-	public LogSeqNum checkpoint(List<Long> txNums) {
-		VanillaDb.nvmLogMgr().checkpoint(txNums);
-		return new CheckpointRecord(txNums).writeToLog();
+	public LogSeqNum checkpoint(List<Long> txNums, LogSeqNum redoLsn,
+			LogSeqNum beginLsn) {
+		LogSeqNum keptLsn = redoLsn;
+		if (keptLsn == null || beginLsn.compareTo(keptLsn) < 0)
+			keptLsn = beginLsn;
+		VanillaDb.nvmLogMgr().checkpoint(txNums, keptLsn);
+		return new CheckpointRecord(txNums, redoLsn, beginLsn).writeToLog();
 	}
 
 	/**
@@ -359,8 +396,18 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	 * calls {@link LogRecord#undo(Transaction)} on that record. The method
 	 * stops iterating forward when it encounters a CHECKPOINT record and finds
 	 * all the transactions which were executing when the checkpoint took place,
-	 * or when the end of the log is reached. The method then iterates backward
-	 * and redoes all finished transactions. TODO fix comments...
+	 * or when the end of the log is reached. Since a fuzzy checkpoint reads the
+	 * active transactions without blocking new ones, the method keeps finding
+	 * the start and end records back to the begin point of the checkpoint and
+	 * stops at its redo point. The method then iterates backward and redoes
+	 * all the log records from there.
+	 * <p>
+	 * Set value records are replayed in parallel. In the redo phase, they are
+	 * partitioned by block so that the history of each page is repeated in
+	 * order; in the undo phase, they are partitioned by transaction so that
+	 * the chain of each loser is undone in order. Any other record that does
+	 * something on redo or undo waits for the dispatched records and is then
+	 * replayed by the recovery transaction.
 	 */
 	private void doRecover(Transaction tx) {
 		Set<Long> finishedTxs = new HashSet<Long>();
@@ -379,8 +426,6 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 
 			int op = rec.op();
 			if (op == OP_CHECKPOINT) {
-				// Since we flush all dirtyPage at checkpoint, therefore no need
-				// to find the start record of active txNum
 				txsOnCheckpointing = ((CheckpointRecord) rec).activeTxNums();
 				for (long acTxn : txsOnCheckpointing) {
 					// txNum give us info of possible unFinshedTxs,
@@ -389,7 +434,14 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 					if (!finishedTxs.contains(acTxn))
 						unCompletedTxs.add(acTxn);
 				}
-				// Start Redo From checkpoint
+				// The transactions started after the begin point may be
+				// missing in the checkpoint, so keep analyzing back to it and
+				// start Redo From the redo point of the checkpoint
+				if (((CheckpointRecord) rec).beginLsn() != null)
+					analyzeToBeginPoint(iter, (CheckpointRecord) rec,
+							finishedTxs, unCompletedTxs);
+				else
+					moveToRedoPoint(iter, (CheckpointRecord) rec);
 				break;
 			}
 
@@ -408,22 +460,44 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		 * redo phase: Repeating History
 		 */
 
-		while (iter.hasPrevious()) {
-			LogRecord rec = iter.previous();
-
-			rec.redo(tx);
-
+		RecoveryWorkerPool pool = new RecoveryWorkerPool(tx, false,
+				RECOVERY_THREADS, RECOVERY_BATCH_SIZE);
+		try {
+			while (iter.hasPrevious()) {
+				LogRecord rec = iter.previous();
+
+				if (rec instanceof SetValueRecord)
+					pool.dispatch(rec, ((SetValueRecord) rec).block()
+							.hashCode());
+				else if (!isRedoless(rec.op())) {
+					pool.sync();
+					rec.redo(tx);
+				}
+			}
+		} finally {
+			pool.close();
 		}
 
 		// remove the recovery tx from unCompletedTxs set
 		unCompletedTxs.remove(tx.getTransactionNumber());
 
-		iter = new LogRecordIterator();
+		iter = VanillaDb.nvmLogMgr().getLogRecordIterator();
 		/*
 		 * undo phase: undo all actions performed by the active txs during last
 		 * crash
 		 */
 
+		pool = new RecoveryWorkerPool(tx, true, RECOVERY_THREADS,
+				RECOVERY_BATCH_SIZE);
+		try {
+			undoLosers(tx, iter, unCompletedTxs, pool);
+		} finally {
+			pool.close();
+		}
+	}
+
+	private void undoLosers(Transaction tx, ReversibleIterator<LogRecord> iter,
+			Set<Long> unCompletedTxs, RecoveryWorkerPool pool) {
 		while (iter.hasNext()) {
 			LogRecord rec = iter.next();
 
@@ -445,6 +519,7 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			else if (rec instanceof LogicalEndRecord) {
 
 				// Undo this Logical operation;
+				pool.sync();
 				rec.undo(tx);
 				/*
 				 * Extract the logicalStartLSN form rec by casting it as a
@@ -471,8 +546,12 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 				 * back
 				 */
 				txUnDoNextLSN.put(rec.txNumber(), undoNextLSN);
-			} else
+			} else if (rec instanceof SetValueRecord)
+				pool.dispatch(rec, rec.txNumber());
+			else {
+				pool.sync();
 				rec.undo(tx);
+			}
 
 			if (unCompletedTxs.size() == 0)
 				break;
@@ -480,6 +559,72 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		}
 	}
 
+	/**
+	 * Moves the iterator backward to the redo point of the specified fuzzy
+	 * checkpoint, before which the modifications had been flushed.
+	 */
+	private void moveToRedoPoint(ReversibleIterator<LogRecord> iter,
+			CheckpointRecord ckpt) {
+		LogSeqNum redoLsn = ckpt.redoLsn();
+		if (redoLsn == null)
+			return;
+		while (iter.hasNext()) {
+			LogRecord rec = iter.next();
+			if (rec.getLSN().compareTo(redoLsn) <= 0)
+				return;
+		}
+	}
+
+	/**
+	 * Moves the iterator backward to the begin point or the redo point of the
+	 * specified fuzzy checkpoint, whichever is smaller, and collects the
+	 * transactions started or finished on the way. A transaction that starts
+	 * after the begin point may be missing in the active transactions of the
+	 * checkpoint, while one in them may have finished before the checkpoint
+	 * record was written.
+	 */
+	private void analyzeToBeginPoint(ReversibleIterator<LogRecord> iter,
+			CheckpointRecord ckpt, Set<Long> finishedTxs,
+			Set<Long> unCompletedTxs) {
+		LogSeqNum stopLsn = ckpt.beginLsn();
+		LogSeqNum redoLsn = ckpt.redoLsn();
+		if (redoLsn != null && redoLsn.compareTo(stopLsn) < 0)
+			stopLsn = redoLsn;
+		while (iter.hasNext()) {
+			LogRecord rec = iter.next();
+			int op = rec.op();
+			if (op == OP_COMMIT || op == OP_ROLLBACK) {
+				finishedTxs.add(rec.txNumber());
+				unCompletedTxs.remove(rec.txNumber());
+			} else if (op == OP_START && !finishedTxs.contains(rec.txNumber())) {
+				unCompletedTxs.add(rec.txNumber());
+			}
+			if (rec.getLSN().compareTo(stopLsn) <= 0)
+				return;
+		}
+	}
+
+	/**
+	 * Checks if the log records of the specified operation do nothing on redo.
+	 */
+	private static boolean isRedoless(int op) {
+		switch (op) {
+		case OP_CHECKPOINT:
+		case OP_START:
+		case OP_COMMIT:
+		case OP_ROLLBACK:
+		case OP_LOGICAL_START:
+		case OP_LOGICAL_ABORT:
+		case OP_RECORD_FILE_INSERT_END:
+		case OP_RECORD_FILE_DELETE_END:
+		case OP_INDEX_FILE_INSERT_END:
+		case OP_INDEX_FILE_DELETE_END:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	private void doPartialRecover(Transaction tx, int stepsInUndo) {
 		Set<Long> finishedTxs = new HashSet<Long>();
 		Set<Long> unCompletedTxs = new HashSet<Long>();
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * Replays log records on a pool of worker threads during the system recovery.
+ * Each log record is dispatched to a partition chosen by its key, and the
+ * records of a partition are replayed in the dispatching order by the same
+ * worker transaction. Records with different keys may be replayed
+ * concurrently, so the caller must choose keys such that only independent
+ * records land in different partitions (e.g., the block for redo, or the
+ * transaction for undo).
+ * <p>
+ * The dispatched records are buffered until {@link #sync()} is called or the
+ * batch is full. With a single thread, the records are replayed immediately
+ * by the recovery transaction itself.
+ */
+class RecoveryWorkerPool {
+
+	private Transaction tx;
+	private boolean undo;
+	private int batchSize;
+	private ExecutorService executor;
+	private Transaction[] workerTxs;
+	private List<List<LogRecord>> partitions;
+	private int pendingCount;
+
+	/**
+	 * Creates a worker pool.
+	 *
+	 * @param tx
+	 *            the recovery transaction
+	 * @param undo
+	 *            true if the dispatched records are to be undone; false if
+	 *            they are to be redone
+	 * @param threads
+	 *            the number of worker threads
+	 * @param batchSize
+	 *            the maximal number of records buffered before replaying them
+	 */
+	RecoveryWorkerPool(Transaction tx, boolean undo, int threads, int batchSize) {
+		this.tx = tx;
+		this.undo = undo;
+		this.batchSize = batchSize;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads);
+			workerTxs = new Transaction[threads];
+			partitions = new ArrayList<List<LogRecord>>(threads);
+			for (int i = 0; i < threads; i++) {
+				workerTxs[i] = VanillaDb.txMgr().newTransaction(
+						Connection.TRANSACTION_SERIALIZABLE, true);
+				partitions.add(new ArrayList<LogRecord>());
+			}
+		}
+	}
+
+	/**
+	 * Dispatches a log record to the partition of the specified key.
+	 *
+	 * @param rec
+	 *            the log record
+	 * @param key
+	 *            the key identifying the records that must be replayed in
+	 *            order
+	 */
+	void dispatch(LogRecord rec, long key) {
+		if (executor == null) {
+			replay(rec, tx);
+			return;
+		}
+		int idx = (int) ((key & Long.MAX_VALUE) % partitions.size());
+		partitions.get(idx).add(rec);
+		if (++pendingCount >= batchSize)
+			sync();
+	}
+
+	/**
+	 * Replays all the dispatched records and waits for them to complete.
+	 */
+	void sync() {
+		if (pendingCount == 0)
+			return;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int i = 0; i < partitions.size(); i++) {
+			final List<LogRecord> recs = partitions.get(i);
+			if (recs.isEmpty())
+				continue;
+			final Transaction workerTx = workerTxs[i];
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (LogRecord rec : recs)
+						replay(rec, workerTx);
+					return null;
+				}
+			}));
+			partitions.set(i, new ArrayList<LogRecord>());
+		}
+		pendingCount = 0;
+		try {
+			for (Future<Void> future : futures)
+				future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("recovery worker failed", e);
+		}
+	}
+
+	/**
+	 * Replays the remaining records and releases the worker threads.
+	 */
+	void close() {
+		if (executor == null)
+			return;
+		try {
+			sync();
+		} finally {
+			executor.shutdown();
+			for (Transaction workerTx : workerTxs)
+				workerTx.commit();
+		}
+	}
+
+	private void replay(LogRecord rec, Transaction tx) {
+		if (undo)
+			rec.undo(tx);
+		else
+			rec.redo(tx);
+	}
+}
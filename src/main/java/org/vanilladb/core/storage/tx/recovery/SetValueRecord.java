@@ -117,7 +117,8 @@ class SetValueRecord implements LogRecord {
 	/**
 	 * Replaces the specified data value with the value saved in the log record.
 	 * The method pins a buffer to the specified block, calls setInt to restore
-	 * the saved value (using a dummy LSN), and unpins the buffer.
+	 * the saved value (using the LSN of the compensation log record), and
+	 * unpins the buffer.
 	 * 
 	 * @see LogRecord#undo(Transaction)
 	 */
@@ -128,7 +129,7 @@ class SetValueRecord implements LogRecord {
 		LogSeqNum lsn = tx.recoveryMgr().logSetValClr(this.txNum, buff, offset, val, this.lsn);
 		VanillaDb.nvmLogMgr().flush(lsn);
 		
-		buff.setVal(offset, val, tx.getTransactionNumber(), null);
+		buff.setVal(offset, val, tx.getTransactionNumber(), lsn);
 		tx.bufferMgr().unpin(buff);
 		// Note that UndoNextLSN should be set to this log record's lsn in order
 		// to let RecoveryMgr to skip this log record. Since this record should
@@ -167,6 +168,22 @@ class SetValueRecord implements LogRecord {
 		return rec;
 	}
 
+	BlockId block() {
+		return blk;
+	}
+
+	int offset() {
+		return offset;
+	}
+
+	Constant oldVal() {
+		return val;
+	}
+
+	Constant newVal() {
+		return newVal;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
@@ -23,10 +23,15 @@ import org.junit.runners.Suite.SuiteClasses;
 import org.vanilladb.core.IsolatedClassLoaderSuite.IsolationRoot;
 import org.vanilladb.core.server.ServerInit;
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.buffer.BufferAccessStrategyTest;
 import org.vanilladb.core.storage.buffer.BufferConcurrencyTest;
 import org.vanilladb.core.storage.buffer.BufferMgrConcurrencyTest;
+import org.vanilladb.core.storage.buffer.BufferPoolDumpTest;
 import org.vanilladb.core.storage.buffer.BufferPoolConcurrencyTest;
 import org.vanilladb.core.storage.buffer.BufferTest;
+import org.vanilladb.core.storage.buffer.BufferWaitQueueTest;
+import org.vanilladb.core.storage.buffer.ReadAheadTest;
+import org.vanilladb.core.storage.buffer.ReplacementPolicyTest;
 import org.vanilladb.core.storage.file.FileMgr;
 import org.vanilladb.core.storage.file.FileTest;
 import org.vanilladb.core.storage.file.PageConcurrencyTest;
@@ -34,13 +39,19 @@ import org.vanilladb.core.storage.index.btree.BTreeIndexTest;
 import org.vanilladb.core.storage.index.btree.BTreeLeafTest;
 import org.vanilladb.core.storage.index.btree.BTreePageTest;
 import org.vanilladb.core.storage.index.hash.HashIndexTest;
+import org.vanilladb.core.storage.log.LogMgrConcurrencyTest;
+import org.vanilladb.core.storage.log.NVMLogRingBufferConcurrencyTest;
+import org.vanilladb.core.storage.log.NVMLogRingBufferTest;
 import org.vanilladb.core.storage.metadata.CatalogTest;
 import org.vanilladb.core.storage.metadata.statistics.HistogramTest;
 import org.vanilladb.core.storage.record.RecordTest;
 import org.vanilladb.core.storage.tx.TxTest;
 import org.vanilladb.core.storage.tx.concurrency.ConcurrencyTest;
 import org.vanilladb.core.storage.tx.concurrency.LockTableTest;
+import org.vanilladb.core.storage.tx.concurrency.SnapshotIsolationTest;
+import org.vanilladb.core.storage.tx.recovery.LogRecordCodecTest;
 import org.vanilladb.core.storage.tx.recovery.RecoveryBasicTest;
+import org.vanilladb.core.storage.tx.recovery.RecoveryWorkerPoolTest;
 
 @RunWith(IsolatedClassLoaderSuite.class)
 @SuiteClasses({
@@ -50,6 +61,12 @@ import org.vanilladb.core.storage.tx.recovery.RecoveryBasicTest;
 	// storage.buffer
 	BufferTest.class, BufferConcurrencyTest.class,
 	BufferMgrConcurrencyTest.class, BufferPoolConcurrencyTest.class,
+	ReplacementPolicyTest.class, BufferAccessStrategyTest.class,
+	BufferWaitQueueTest.class, ReadAheadTest.class, BufferPoolDumpTest.class,
+	
+	// storage.log
+	LogMgrConcurrencyTest.class, NVMLogRingBufferTest.class,
+	NVMLogRingBufferConcurrencyTest.class,
 	
 	// storage.record
 	RecordTest.class,
@@ -71,10 +88,10 @@ import org.vanilladb.core.storage.tx.recovery.RecoveryBasicTest;
 	TxTest.class,
 	
 	// storage.tx.concurrency
-	ConcurrencyTest.class, LockTableTest.class,
+	ConcurrencyTest.class, LockTableTest.class, SnapshotIsolationTest.class,
 	
 	// storage.tx.recovery
-	RecoveryBasicTest.class,
+	LogRecordCodecTest.class, RecoveryBasicTest.class, RecoveryWorkerPoolTest.class,
 })
 @IsolationRoot(VanillaDb.class)
 public class StorageEngineTestSuite {
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.BlockId;
+
+import junit.framework.Assert;
+
+public class BufferAccessStrategyTest {
+	private static Logger logger = Logger.getLogger(BufferAccessStrategyTest.class.getName());
+
+	private static final int BUFFER_COUNT = 16;
+	private static final int HOT_COUNT = 8;
+	private static final int RING_SIZE = 4;
+	private static final int SCAN_COUNT = 100;
+
+	private static final String TEST_FILE_NAME = "_tempaccessstrategytest";
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(BufferAccessStrategyTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN BUFFER ACCESS STRATEGY TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH BUFFER ACCESS STRATEGY TEST");
+	}
+
+	@Test
+	public void testRing() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_COUNT);
+
+		// Load the working set
+		for (int blkNum = 0; blkNum < HOT_COUNT; blkNum++)
+			bufferPool.unpin(bufferPool.pin(new BlockId(TEST_FILE_NAME, blkNum)));
+
+		// Scan through many blocks with a small ring
+		BufferAccessStrategy strategy = new BufferAccessStrategy(RING_SIZE);
+		Set<Buffer> used = new HashSet<Buffer>();
+		for (int blkNum = HOT_COUNT; blkNum < HOT_COUNT + SCAN_COUNT; blkNum++) {
+			Buffer buff = bufferPool.pin(new BlockId(TEST_FILE_NAME, blkNum),
+					strategy);
+			used.add(buff);
+			bufferPool.unpin(buff);
+		}
+		Assert.assertEquals("*****BufferAccessStrategyTest: bad ring",
+				RING_SIZE, used.size());
+
+		// The working set must still be buffered
+		long hits = bufferPool.hitCount();
+		for (int blkNum = 0; blkNum < HOT_COUNT; blkNum++)
+			bufferPool.unpin(bufferPool.pin(new BlockId(TEST_FILE_NAME, blkNum)));
+		Assert.assertEquals("*****BufferAccessStrategyTest: bad ring",
+				hits + HOT_COUNT, bufferPool.hitCount());
+	}
+}
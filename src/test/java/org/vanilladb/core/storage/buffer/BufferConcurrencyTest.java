@@ -24,6 +24,8 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharConstant;
 import org.vanilladb.core.util.BarrierStartRunner;
 
 import junit.framework.Assert;
@@ -32,6 +34,8 @@ public class BufferConcurrencyTest {
 	private static Logger logger = Logger.getLogger(BufferConcurrencyTest.class.getName());
 
 	private static final int CLIENT_COUNT = 100;
+	private static final int READER_COUNT = 8;
+	private static final int MAX_VALUE_LENGTH = 64;
 
 	@BeforeClass
 	public static void init() {
@@ -68,6 +72,88 @@ public class BufferConcurrencyTest {
 		Assert.assertEquals("testBufferPinCount failed", buffer.isPinned(), false);
 	}
 
+	@Test
+	public void testOptimisticReading() {
+		Buffer buffer = new Buffer();
+		buffer.setVal(0, new VarcharConstant(""));
+		CyclicBarrier startBarrier = new CyclicBarrier(READER_COUNT + 1);
+		CyclicBarrier endBarrier = new CyclicBarrier(READER_COUNT + 2);
+
+		// Readers race with a writer changing the length of the value
+		Reader[] readers = new Reader[READER_COUNT];
+		for (int i = 0; i < READER_COUNT; i++) {
+			readers[i] = new Reader(startBarrier, endBarrier, buffer);
+			readers[i].start();
+		}
+		new Writer(startBarrier, endBarrier, buffer).start();
+
+		// Wait for running
+		try {
+			endBarrier.await();
+		} catch (InterruptedException | BrokenBarrierException e) {
+			e.printStackTrace();
+		}
+
+		// A reader must never see a torn value
+		for (Reader reader : readers) {
+			Assert.assertNull("*****BufferConcurrencyTest: bad optimistic read",
+					reader.getException());
+			Assert.assertEquals(
+					"*****BufferConcurrencyTest: bad optimistic read", 0,
+					reader.tornCount);
+		}
+	}
+
+	private static String valueOf(int i) {
+		int len = i % MAX_VALUE_LENGTH;
+		char c = (char) ('a' + len % 26);
+		StringBuilder sb = new StringBuilder(len);
+		for (int j = 0; j < len; j++)
+			sb.append(c);
+		return sb.toString();
+	}
+
+	class Reader extends BarrierStartRunner {
+
+		Buffer buf;
+		int tornCount;
+
+		public Reader(CyclicBarrier startBarrier, CyclicBarrier endBarrier, Buffer buf) {
+			super(startBarrier, endBarrier);
+
+			this.buf = buf;
+		}
+
+		@Override
+		public void runTask() {
+			Type type = Type.VARCHAR(MAX_VALUE_LENGTH);
+			for (int i = 0; i < 100000; i++) {
+				String s = (String) buf.getVal(0, type).asJavaVal();
+				if (!s.equals(valueOf(s.length())))
+					tornCount++;
+			}
+		}
+
+	}
+
+	class Writer extends BarrierStartRunner {
+
+		Buffer buf;
+
+		public Writer(CyclicBarrier startBarrier, CyclicBarrier endBarrier, Buffer buf) {
+			super(startBarrier, endBarrier);
+
+			this.buf = buf;
+		}
+
+		@Override
+		public void runTask() {
+			for (int i = 0; i < 100000; i++)
+				buf.setVal(0, new VarcharConstant(valueOf(i)));
+		}
+
+	}
+
 	class Pinner extends BarrierStartRunner {
 
 		Buffer buf;
@@ -16,6 +16,7 @@
 package org.vanilladb.core.storage.buffer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
 import java.util.logging.Level;
@@ -104,6 +105,114 @@ public class BufferMgrConcurrencyTest {
 		}
 	}
 
+	@Test
+	public void testNoOvertaking() throws InterruptedException {
+		Transaction initTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		Transaction waitingTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		Transaction lateTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+
+		// leave no buffer available in buffer pool
+		int avail = initTx.bufferMgr().available();
+		for (int i = 0; i < avail - 1; i++)
+			initTx.bufferMgr().pin(new BlockId(TEST_FILE1_NAME, i));
+		Buffer last = BufferMgr.bufferPool.pin(new BlockId(TEST_FILE1_NAME,
+				avail - 1));
+
+		Pinner waiting = new Pinner(waitingTx, 0);
+		Pinner late = new Pinner(lateTx, 1);
+		try {
+			waiting.start();
+			long deadline = System.currentTimeMillis() + 1000;
+			while (BufferMgr.waitQueue.isEmpty()
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+
+			// Free a buffer without waking up the queued thread
+			BufferMgr.bufferPool.unpin(last);
+
+			// The late thread must not take the buffer from the queued one
+			late.start();
+			waiting.join(500);
+			assertTrue("*****BufferMgrConcurrencyTest: bad fifo",
+					!waiting.isAlive() && waiting.pinned);
+			assertTrue("*****BufferMgrConcurrencyTest: bad fifo", !late.pinned);
+		} finally {
+			initTx.rollback();
+		}
+
+		// The late thread gets a buffer released later
+		late.join();
+		assertTrue("*****BufferMgrConcurrencyTest: bad fifo", late.pinned);
+		waitingTx.rollback();
+		lateTx.rollback();
+	}
+
+	@Test
+	public void testResidentPinNotQueued() throws InterruptedException {
+		Transaction initTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		Transaction waitingTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		Transaction hotTx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+
+		// leave no buffer available in buffer pool
+		int avail = initTx.bufferMgr().available();
+		for (int i = 0; i < avail; i++)
+			initTx.bufferMgr().pin(new BlockId(TEST_FILE1_NAME, i));
+
+		Pinner waiting = new Pinner(waitingTx, 0);
+		try {
+			waiting.start();
+			long deadline = System.currentTimeMillis() + 1000;
+			while (BufferMgr.waitQueue.isEmpty()
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertTrue("*****BufferMgrConcurrencyTest: bad resident pin",
+					!BufferMgr.waitQueue.isEmpty());
+
+			// A buffered block is pinned without waiting behind the queue
+			long start = System.currentTimeMillis();
+			Buffer buff = hotTx.bufferMgr().pin(
+					new BlockId(TEST_FILE1_NAME, 0));
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("*****BufferMgrConcurrencyTest: bad resident pin",
+					elapsed < 100);
+			assertTrue("*****BufferMgrConcurrencyTest: bad resident pin",
+					new BlockId(TEST_FILE1_NAME, 0).equals(buff.block()));
+			assertTrue("*****BufferMgrConcurrencyTest: bad resident pin",
+					!waiting.pinned);
+			hotTx.rollback();
+		} finally {
+			initTx.rollback();
+		}
+
+		waiting.join();
+		assertTrue("*****BufferMgrConcurrencyTest: bad resident pin",
+				waiting.pinned);
+		waitingTx.rollback();
+	}
+
+	class Pinner extends Thread {
+		Transaction tx;
+		int blkNum;
+		volatile boolean pinned;
+
+		Pinner(Transaction tx, int blkNum) {
+			this.tx = tx;
+			this.blkNum = blkNum;
+		}
+
+		@Override
+		public void run() {
+			tx.bufferMgr().pin(new BlockId(TEST_FILE2_NAME, blkNum));
+			pinned = true;
+		}
+	}
+
 	synchronized static void appendToResult(String s) {
 		result += s + "\n";
 	}
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.buffer;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.logging.Level;
@@ -95,6 +97,43 @@ public class BufferPoolConcurrencyTest {
 		}
 	}
 
+	@Test
+	public void testPartitions() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_COUNT, 4);
+		Assert.assertEquals("*****BufferPoolConcurrencyTest: bad partitions",
+				4, bufferPool.partitionCount());
+
+		// Every buffer can be used, no matter where the blocks hash to
+		Set<Buffer> buffers = new HashSet<Buffer>();
+		for (int blkNum = 0; blkNum < BUFFER_COUNT; blkNum++) {
+			Buffer buff = bufferPool.pin(new BlockId(TEST_FILE_NAME, blkNum));
+			Assert.assertNotNull(
+					"*****BufferPoolConcurrencyTest: bad partitions", buff);
+			buffers.add(buff);
+		}
+		Assert.assertEquals("*****BufferPoolConcurrencyTest: bad partitions",
+				BUFFER_COUNT, buffers.size());
+		Assert.assertEquals("*****BufferPoolConcurrencyTest: bad partitions",
+				0, bufferPool.available());
+		Assert.assertNull("*****BufferPoolConcurrencyTest: bad partitions",
+				bufferPool.pin(new BlockId(TEST_FILE_NAME, BUFFER_COUNT)));
+
+		// A block must be found wherever its buffer came from
+		long hits = bufferPool.hitCount();
+		for (int blkNum = 0; blkNum < BUFFER_COUNT; blkNum++) {
+			BlockId blk = new BlockId(TEST_FILE_NAME, blkNum);
+			Buffer buff = bufferPool.pin(blk);
+			Assert.assertEquals(
+					"*****BufferPoolConcurrencyTest: bad partitions", blk,
+					buff.block());
+			bufferPool.unpin(buff, buff);
+		}
+		Assert.assertEquals("*****BufferPoolConcurrencyTest: bad partitions",
+				hits + BUFFER_COUNT, bufferPool.hitCount());
+		Assert.assertEquals("*****BufferPoolConcurrencyTest: bad partitions",
+				BUFFER_COUNT, bufferPool.available());
+	}
+
 	class Pinner extends BarrierStartRunner {
 
 		BufferPoolMgr bufferPool;
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.FileMgr;
+
+import junit.framework.Assert;
+
+public class BufferPoolDumpTest {
+	private static Logger logger = Logger.getLogger(BufferPoolDumpTest.class.getName());
+
+	private static final int BLOCK_COUNT = 8;
+	private static final int HOT_BLOCK_COUNT = 4;
+
+	private static final String TEST_FILE_NAME = "bufferpooldumptest.tbl";
+	private static final String TEMP_FILE_NAME = FileMgr.TMP_FILE_NAME_PREFIX
+			+ "bufferpooldumptest";
+
+	private static File dumpFile;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(BufferPoolDumpTest.class);
+		dumpFile = new File(VanillaDb.fileMgr().dbDirectory(),
+				"bufferpooldumptest.dump");
+
+		// Dump a pool in which the first blocks are used more often
+		BufferPoolMgr bufferPool = new BufferPoolMgr(2 * BLOCK_COUNT, 1);
+		PageFormatter fmtr = new PageFormatter() {
+			@Override
+			public void format(Buffer buf) {
+				// do nothing
+			}
+		};
+		long firstBlkNum = -1;
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			Buffer buff = bufferPool.pinNew(TEST_FILE_NAME, fmtr, null);
+			if (firstBlkNum < 0)
+				firstBlkNum = buff.block().number();
+			bufferPool.unpin(buff);
+		}
+		for (int round = 0; round < 3; round++)
+			for (int i = 0; i < HOT_BLOCK_COUNT; i++)
+				bufferPool.unpin(bufferPool.pin(new BlockId(TEST_FILE_NAME,
+						firstBlkNum + i)));
+		bufferPool.unpin(bufferPool.pinNew(TEMP_FILE_NAME, fmtr, null));
+		try {
+			BufferPoolDumpTask.dump(bufferPool, dumpFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN BUFFER POOL DUMP TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		dumpFile.delete();
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH BUFFER POOL DUMP TEST");
+	}
+
+	@Test
+	public void testWarmUp() throws IOException {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(2 * BLOCK_COUNT, 1);
+		Assert.assertEquals("*****BufferPoolDumpTest: bad warm-up",
+				BLOCK_COUNT, BufferPoolDumpTask.load(bufferPool, dumpFile, 2,
+						Thread.NORM_PRIORITY));
+
+		// Every dumped block must be found in the pool
+		long size = VanillaDb.fileMgr().size(TEST_FILE_NAME);
+		for (long blkNum = size - BLOCK_COUNT; blkNum < size; blkNum++)
+			bufferPool.unpin(bufferPool.pin(new BlockId(TEST_FILE_NAME, blkNum)));
+		Assert.assertEquals("*****BufferPoolDumpTest: bad warm-up",
+				BLOCK_COUNT, bufferPool.hitCount());
+		Assert.assertEquals("*****BufferPoolDumpTest: bad warm-up", 0,
+				bufferPool.missCount());
+	}
+
+	@Test
+	public void testHotBlocksFirst() throws IOException {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(HOT_BLOCK_COUNT, 1);
+		Assert.assertEquals("*****BufferPoolDumpTest: bad hot blocks",
+				HOT_BLOCK_COUNT, BufferPoolDumpTask.load(bufferPool, dumpFile,
+						2, Thread.NORM_PRIORITY));
+
+		// Only the most used blocks are loaded
+		long firstBlkNum = VanillaDb.fileMgr().size(TEST_FILE_NAME)
+				- BLOCK_COUNT;
+		for (int i = 0; i < HOT_BLOCK_COUNT; i++)
+			bufferPool.unpin(bufferPool.pin(new BlockId(TEST_FILE_NAME,
+					firstBlkNum + i)));
+		Assert.assertEquals("*****BufferPoolDumpTest: bad hot blocks",
+				HOT_BLOCK_COUNT, bufferPool.hitCount());
+	}
+}
@@ -16,6 +16,8 @@
 package org.vanilladb.core.storage.buffer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.sql.Type.VARCHAR;
@@ -145,6 +147,31 @@ public class BufferTest {
 		assertEquals("*****BufferTest: bad available", avail7, avail1);
 	}
 
+	@Test
+	public void testWriteDirtyBuffers() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(8);
+		Buffer[] buffs = new Buffer[4];
+		for (int i = 0; i < buffs.length; i++) {
+			buffs[i] = bufferPool.pin(new BlockId(fileName, 10 + i));
+			buffs[i].setVal(0, new IntegerConstant(i), 1, null);
+		}
+
+		// Only the unpinned buffers are written
+		bufferPool.unpin(buffs[0], buffs[1]);
+		assertEquals("*****BufferTest: bad dirty buffer writing", 2,
+				bufferPool.writeDirtyBuffers(8));
+		assertFalse("*****BufferTest: bad dirty buffer writing",
+				buffs[0].isDirty());
+		assertTrue("*****BufferTest: bad dirty buffer writing",
+				buffs[2].isDirty());
+
+		bufferPool.unpin(buffs[2], buffs[3]);
+		assertEquals("*****BufferTest: bad dirty buffer writing", 2,
+				bufferPool.writeDirtyBuffers(8));
+		assertEquals("*****BufferTest: bad dirty buffer writing", 0,
+				bufferPool.writeDirtyBuffers(8));
+	}
+
 	/**
 	 * Tests the buffer manager when a transaction requires buffers more than
 	 * the buffer pool size.
@@ -168,4 +195,125 @@ public class BufferTest {
 				tx.bufferMgr().unpin(buf);
 		}
 	}
+
+	@Test
+	public void testPinWhileReplacing() {
+		Buffer buff = new Buffer();
+		assertTrue("*****BufferTest: bad replacing", buff.tryStartReplacing());
+		assertEquals("*****BufferTest: bad replacing", -1, buff.tryPin());
+		assertFalse("*****BufferTest: bad replacing", buff.isPinned());
+		assertFalse("*****BufferTest: bad replacing",
+				buff.tryStartReplacing());
+
+		// The replacer gets the buffer pinned, which blocks other replacers
+		buff.finishReplacing();
+		assertTrue("*****BufferTest: bad replacing", buff.isPinned());
+		assertFalse("*****BufferTest: bad replacing",
+				buff.tryStartReplacing());
+		assertEquals("*****BufferTest: bad replacing", 2, buff.tryPin());
+		assertEquals("*****BufferTest: bad replacing", 1, buff.unpin());
+		assertEquals("*****BufferTest: bad replacing", 0, buff.unpin());
+		assertTrue("*****BufferTest: bad replacing", buff.tryStartReplacing());
+	}
+
+	@Test
+	public void testUnpinPastZero() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(8);
+		Buffer buff = bufferPool.pin(new BlockId(fileName, 20));
+		buff.setVal(0, new IntegerConstant(20), 1, null);
+		bufferPool.unpin(buff);
+		int avail = bufferPool.available();
+
+		// The extra unpin changes neither the flags nor the pool
+		assertEquals("*****BufferTest: bad extra unpin", -1, buff.unpin());
+		bufferPool.unpin(buff);
+		assertEquals("*****BufferTest: bad extra unpin", avail,
+				bufferPool.available());
+		assertFalse("*****BufferTest: bad extra unpin", buff.isPinned());
+		assertTrue("*****BufferTest: bad extra unpin", buff.isDirty());
+		assertEquals("*****BufferTest: bad extra unpin", 1, buff.tryPin());
+		assertEquals("*****BufferTest: bad extra unpin", 0, buff.unpin());
+	}
+
+	@Test
+	public void testDirtyFlagUnderConcurrentPins() throws InterruptedException {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(8);
+		BlockId blk = new BlockId(fileName, 21);
+		Buffer buff = bufferPool.pin(blk);
+
+		Repinner[] repinners = new Repinner[4];
+		for (int i = 0; i < repinners.length; i++) {
+			repinners[i] = new Repinner(bufferPool, blk, 20000);
+			repinners[i].start();
+		}
+		// Set the flag while the pin count is being changed
+		for (int i = 0; i < 100; i++)
+			buff.setVal(0, new IntegerConstant(i), 1, null);
+		for (Repinner repinner : repinners)
+			repinner.join();
+
+		for (Repinner repinner : repinners)
+			assertFalse("*****BufferTest: bad concurrent pinning",
+					repinner.failed);
+		assertTrue("*****BufferTest: bad concurrent pinning", buff.isDirty());
+		bufferPool.unpin(buff);
+		assertFalse("*****BufferTest: bad concurrent pinning",
+				buff.isPinned());
+		assertEquals("*****BufferTest: bad concurrent pinning", 8,
+				bufferPool.available());
+	}
+
+	@Test
+	public void testPinRacingReplacement() throws InterruptedException {
+		// A single frame, so that every miss replaces the block being pinned
+		BufferPoolMgr bufferPool = new BufferPoolMgr(1);
+		BlockId blk = new BlockId(fileName, 22);
+		Repinner repinner = new Repinner(bufferPool, blk, 20000);
+		Repinner replacer = new Repinner(bufferPool, new BlockId(fileName,
+				23), 2000);
+		repinner.start();
+		replacer.start();
+		repinner.join();
+		replacer.join();
+
+		assertFalse("*****BufferTest: bad pinning under replacement",
+				repinner.failed);
+		assertFalse("*****BufferTest: bad pinning under replacement",
+				replacer.failed);
+		assertEquals("*****BufferTest: bad pinning under replacement", 1,
+				bufferPool.available());
+	}
+
+	/**
+	 * Pins and unpins a block repeatedly, and checks that the pinned buffer
+	 * holds the block until it is unpinned.
+	 */
+	class Repinner extends Thread {
+		BufferPoolMgr bufferPool;
+		BlockId blk;
+		int times;
+		volatile boolean failed;
+
+		Repinner(BufferPoolMgr bufferPool, BlockId blk, int times) {
+			this.bufferPool = bufferPool;
+			this.blk = blk;
+			this.times = times;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < times; i++) {
+				Buffer buff = bufferPool.pin(blk);
+				// The only frame may be pinned by the other thread
+				if (buff == null)
+					continue;
+				if (!blk.equals(buff.block()))
+					failed = true;
+				Thread.yield();
+				if (!blk.equals(buff.block()))
+					failed = true;
+				bufferPool.unpin(buff);
+			}
+		}
+	}
 }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+
+import junit.framework.Assert;
+
+public class BufferWaitQueueTest {
+	private static Logger logger = Logger.getLogger(BufferWaitQueueTest.class.getName());
+
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(BufferWaitQueueTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN BUFFER WAIT QUEUE TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH BUFFER WAIT QUEUE TEST");
+	}
+
+	@Test
+	public void testFifo() throws InterruptedException {
+		final BufferWaitQueue queue = new BufferWaitQueue();
+		Waker first = new Waker(queue);
+		first.start();
+		first.enqueued.await(TIMEOUT, TimeUnit.NANOSECONDS);
+		Waker second = new Waker(queue);
+		second.start();
+		second.enqueued.await(TIMEOUT, TimeUnit.NANOSECONDS);
+
+		// Only the head of the queue is woken up
+		queue.signalNext();
+		first.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT));
+		Assert.assertFalse("*****BufferWaitQueueTest: bad fifo", first.isAlive());
+		Assert.assertTrue("*****BufferWaitQueueTest: bad fifo", second.isAlive());
+
+		// The next one becomes the head after the first one leaves
+		queue.signalNext();
+		second.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT));
+		Assert.assertFalse("*****BufferWaitQueueTest: bad fifo", second.isAlive());
+		Assert.assertTrue("*****BufferWaitQueueTest: bad fifo", queue.isEmpty());
+	}
+
+	class Waker extends Thread {
+
+		BufferWaitQueue queue;
+		CountDownLatch enqueued = new CountDownLatch(1);
+
+		Waker(BufferWaitQueue queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			BufferWaitQueue.Waiter waiter = queue.enqueue();
+			enqueued.countDown();
+			try {
+				queue.await(waiter, TIMEOUT);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} finally {
+				queue.remove(waiter, false);
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.BlockId;
+
+import junit.framework.Assert;
+
+public class ReadAheadTest {
+	private static Logger logger = Logger.getLogger(ReadAheadTest.class.getName());
+
+	private static final int BUFFER_COUNT = 32;
+	private static final int FILE_SIZE = 100;
+	private static final int MIN_WINDOW = 2;
+	private static final int MAX_WINDOW = 8;
+
+	private static final String TEST_FILE_NAME = "_tempreadaheadtest";
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(ReadAheadTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN READ AHEAD TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH READ AHEAD TEST");
+	}
+
+	@Test
+	public void testSequentialScan() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_COUNT);
+		ReadAhead readAhead = new ReadAhead(bufferPool, null, MIN_WINDOW,
+				MAX_WINDOW);
+
+		// Two consecutive blocks start the read-ahead
+		access(bufferPool, readAhead, 0);
+		access(bufferPool, readAhead, 1);
+		waitForPrefetching(bufferPool, MIN_WINDOW);
+
+		// The prefetched blocks must be found in the pool
+		long hits = bufferPool.hitCount();
+		access(bufferPool, readAhead, 2);
+		access(bufferPool, readAhead, 3);
+		Assert.assertEquals("*****ReadAheadTest: bad read-ahead", hits + 2,
+				bufferPool.hitCount());
+
+		// The window grows as the scan goes on
+		waitForPrefetching(bufferPool, MIN_WINDOW + 2 * MIN_WINDOW);
+	}
+
+	@Test
+	public void testRandomAccess() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_COUNT);
+		ReadAhead readAhead = new ReadAhead(bufferPool, null, MIN_WINDOW,
+				MAX_WINDOW);
+		for (int blkNum : new int[] { 5, 3, 40, 7, 56, 20, 9 })
+			access(bufferPool, readAhead, blkNum);
+		Assert.assertEquals("*****ReadAheadTest: bad random access", 0,
+				bufferPool.prefetchCount());
+	}
+
+	@Test
+	public void testEndOfFile() {
+		BufferPoolMgr bufferPool = new BufferPoolMgr(BUFFER_COUNT);
+		ReadAhead readAhead = new ReadAhead(bufferPool, null, MIN_WINDOW,
+				MAX_WINDOW);
+		access(bufferPool, readAhead, FILE_SIZE - 2);
+		access(bufferPool, readAhead, FILE_SIZE - 1);
+		Assert.assertEquals("*****ReadAheadTest: bad end of file", 0,
+				bufferPool.prefetchCount());
+	}
+
+	private void access(BufferPoolMgr bufferPool, ReadAhead readAhead,
+			long blkNum) {
+		BlockId blk = new BlockId(TEST_FILE_NAME, blkNum);
+		readAhead.access(blk, FILE_SIZE);
+		bufferPool.unpin(bufferPool.pin(blk));
+	}
+
+	private void waitForPrefetching(BufferPoolMgr bufferPool, long count) {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bufferPool.prefetchCount() < count) {
+			if (System.currentTimeMillis() > deadline)
+				Assert.fail("*****ReadAheadTest: bad read-ahead");
+			Thread.yield();
+		}
+		Assert.assertEquals("*****ReadAheadTest: bad read-ahead", count,
+				bufferPool.prefetchCount());
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+
+import junit.framework.Assert;
+
+public class ReplacementPolicyTest {
+	private static Logger logger = Logger.getLogger(ReplacementPolicyTest.class.getName());
+
+	private static final int BUFFER_COUNT = 8;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(ReplacementPolicyTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN REPLACEMENT POLICY TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH REPLACEMENT POLICY TEST");
+	}
+
+	@Test
+	public void testPinnedBuffers() {
+		ReplacementPolicy[] policies = new ReplacementPolicy[] {
+				new RoundRobinPolicy(BUFFER_COUNT),
+				new ClockPolicy(BUFFER_COUNT), new LruKPolicy(BUFFER_COUNT) };
+		for (ReplacementPolicy policy : policies) {
+			boolean[] pinned = new boolean[BUFFER_COUNT];
+			for (int i = 0; i < BUFFER_COUNT; i++)
+				pinned[i] = i != 5;
+			Assert.assertEquals("*****ReplacementPolicyTest: bad replacement",
+					5, policy.replace(new FakeReplacer(pinned)));
+
+			pinned[5] = true;
+			Assert.assertEquals("*****ReplacementPolicyTest: bad replacement",
+					-1, policy.replace(new FakeReplacer(pinned)));
+		}
+	}
+
+	@Test
+	public void testScanResistance() {
+		ReplacementPolicy[] policies = new ReplacementPolicy[] {
+				new ClockPolicy(BUFFER_COUNT), new LruKPolicy(BUFFER_COUNT) };
+		for (ReplacementPolicy policy : policies) {
+			FakeReplacer replacer = new FakeReplacer(new boolean[BUFFER_COUNT]);
+
+			// Fill up the pool and use the first half repeatedly
+			for (int i = 0; i < BUFFER_COUNT; i++) {
+				policy.onReplace(i);
+				policy.onPin(i);
+			}
+			for (int round = 0; round < 3; round++)
+				for (int i = 0; i < BUFFER_COUNT / 2; i++)
+					policy.onPin(i);
+
+			// A scan must only replace the buffers it has touched itself
+			for (int i = 0; i < BUFFER_COUNT; i++) {
+				int idx = policy.replace(replacer);
+				Assert.assertTrue("*****ReplacementPolicyTest: bad scan resistance",
+						idx >= BUFFER_COUNT / 2);
+				policy.onReplace(idx);
+				policy.onPin(idx);
+			}
+		}
+	}
+
+	@Test
+	public void testLruKOrder() {
+		LruKPolicy policy = new LruKPolicy(BUFFER_COUNT);
+
+		// The buffers pinned later have more recent K-th pins, except that
+		// the last buffer is pinned only once
+		for (int i = 0; i < BUFFER_COUNT - 1; i++) {
+			policy.onPin(i);
+			policy.onPin(i);
+		}
+		policy.onPin(BUFFER_COUNT - 1);
+
+		int[] expected = new int[BUFFER_COUNT];
+		expected[0] = BUFFER_COUNT - 1;
+		for (int i = 1; i < BUFFER_COUNT; i++)
+			expected[i] = i - 1;
+		Assert.assertTrue("*****ReplacementPolicyTest: bad lru-k order",
+				Arrays.equals(expected, policy.nextVictims(BUFFER_COUNT)));
+
+		// The buffers in use are skipped in the same order
+		boolean[] pinned = new boolean[BUFFER_COUNT];
+		for (int i = 0; i < 3; i++)
+			pinned[expected[i]] = true;
+		Assert.assertEquals("*****ReplacementPolicyTest: bad lru-k order",
+				expected[3], policy.replace(new FakeReplacer(pinned)));
+	}
+
+	class FakeReplacer implements ReplacementPolicy.Replacer {
+
+		boolean[] pinned;
+
+		FakeReplacer(boolean[] pinned) {
+			this.pinned = pinned;
+		}
+
+		@Override
+		public boolean tryReplace(int idx) {
+			return !pinned[idx];
+		}
+	}
+}
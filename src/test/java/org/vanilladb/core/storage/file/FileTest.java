@@ -18,6 +18,8 @@ package org.vanilladb.core.storage.file;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.vanilladb.core.sql.Type.BIGINT;
+import static org.vanilladb.core.sql.Type.DOUBLE;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.sql.Type.VARCHAR;
 import static org.vanilladb.core.storage.file.Page.BLOCK_SIZE;
@@ -33,7 +35,11 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.vanilladb.core.server.ServerInit;
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
 import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.sql.VarcharConstant;
 
 public class FileTest {
@@ -193,6 +199,70 @@ public class FileTest {
 		}
 	}
 
+	@Test
+	public void testTypedAccessors() {
+		// primitives and constants must share the same layout
+		p1.putInt(0, -123);
+		p1.putLong(INT_SIZE, 1L << 40);
+		p1.putDouble(INT_SIZE + 8, -0.5);
+		assertEquals("*****FileTest: bad typed accessor",
+				new IntegerConstant(-123), p1.getVal(0, INTEGER));
+		assertEquals("*****FileTest: bad typed accessor", new BigIntConstant(
+				1L << 40), p1.getVal(INT_SIZE, BIGINT));
+		assertEquals("*****FileTest: bad typed accessor", new DoubleConstant(
+				-0.5), p1.getVal(INT_SIZE + 8, DOUBLE));
+		p1.setVal(0, new IntegerConstant(456));
+		p1.setVal(INT_SIZE, new BigIntConstant(-7));
+		assertEquals("*****FileTest: bad typed accessor", 456, p1.getInt(0));
+		assertEquals("*****FileTest: bad typed accessor", -7,
+				p1.getLong(INT_SIZE));
+	}
+
+	@Test
+	public void testPeekVal() {
+		// unsynchronized reads must agree with the synchronized ones
+		Constant[] vals = new Constant[] { new IntegerConstant(-123),
+				new BigIntConstant(1L << 40), new DoubleConstant(-0.5),
+				new VarcharConstant("peek") };
+		for (Constant val : vals) {
+			p1.setVal(0, val);
+			assertEquals("*****FileTest: bad peekVal", val,
+					p1.peekVal(0, val.getType()));
+		}
+		p1.putInt(0, -123);
+		p1.putLong(INT_SIZE, 1L << 40);
+		assertEquals("*****FileTest: bad peekVal", -123, p1.peekInt(0));
+		assertEquals("*****FileTest: bad peekVal", 1L << 40,
+				p1.peekLong(INT_SIZE));
+	}
+
+	@Test
+	public void testCompareInPlace() {
+		Constant[][] pairs = new Constant[][] {
+				{ new IntegerConstant(-1), new IntegerConstant(1) },
+				{ new BigIntConstant(5), new BigIntConstant(5) },
+				{ new DoubleConstant(2.5), new DoubleConstant(-2.5) },
+				{ new VarcharConstant("abc"), new VarcharConstant("abd") },
+				{ new VarcharConstant("abc"), new VarcharConstant("ab") },
+				{ new VarcharConstant("\u00e9t\u00e9"),
+						new VarcharConstant("ete") },
+				// UTF-16 and code point orders disagree here
+				{ new VarcharConstant("\ud83d\ude00"),
+						new VarcharConstant("\uff21") } };
+		int offset2 = BLOCK_SIZE / 2;
+		for (Constant[] pair : pairs) {
+			Type type = pair[0].getType();
+			p1.setVal(0, pair[0]);
+			p1.setVal(offset2, pair[1]);
+			assertEquals("*****FileTest: bad in-place compare",
+					Integer.signum(pair[0].compareTo(pair[1])),
+					Integer.signum(p1.compareVal(0, offset2, type)));
+			assertEquals("*****FileTest: bad in-place compare",
+					Integer.signum(pair[1].compareTo(pair[0])),
+					Integer.signum(p1.compareVal(offset2, 0, type)));
+		}
+	}
+
 	@Test
 	public void testBlockId() {
 		BlockId b1 = new BlockId("abc", 0);
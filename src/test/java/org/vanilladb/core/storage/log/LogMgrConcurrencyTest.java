@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.tx.recovery.ReversibleIterator;
+import org.vanilladb.core.util.BarrierStartRunner;
+
+import junit.framework.Assert;
+
+public class LogMgrConcurrencyTest {
+	private static Logger logger = Logger.getLogger(LogMgrConcurrencyTest.class.getName());
+
+	private static final int CLIENT_COUNT = 32;
+	private static final int RECORD_COUNT = 200;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LogMgrConcurrencyTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN LOG MGR CONCURRENCY TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH LOG MGR CONCURRENCY TEST");
+	}
+
+	@Test
+	public void testConcurrentFlushing() {
+		LogMgr logMgr = new LogMgr("logmgrconcurrencytest.log");
+		CyclicBarrier startBarrier = new CyclicBarrier(CLIENT_COUNT);
+		CyclicBarrier endBarrier = new CyclicBarrier(CLIENT_COUNT + 1);
+
+		// Create multiple threads
+		Committer[] committers = new Committer[CLIENT_COUNT];
+		for (int i = 0; i < CLIENT_COUNT; i++) {
+			committers[i] = new Committer(startBarrier, endBarrier, logMgr, i);
+			committers[i].start();
+		}
+
+		// Wait for running
+		try {
+			endBarrier.await();
+		} catch (InterruptedException | BrokenBarrierException e) {
+			e.printStackTrace();
+		}
+
+		// Check the results
+		for (Committer committer : committers)
+			Assert.assertNull("testConcurrentFlushing failed",
+					committer.getException());
+		int[] counts = new int[CLIENT_COUNT];
+		ReversibleIterator<BasicLogRecord> iter = logMgr.iterator();
+		while (iter.hasNext()) {
+			BasicLogRecord rec = iter.next();
+			counts[(Integer) rec.nextVal(Type.INTEGER).asJavaVal()]++;
+		}
+		for (int i = 0; i < CLIENT_COUNT; i++)
+			Assert.assertEquals("testConcurrentFlushing failed", RECORD_COUNT,
+					counts[i]);
+		logMgr.close();
+	}
+
+	@Test
+	public void testClose() {
+		String fileName = "logmgrclosetest.log";
+		LogMgr logMgr = new LogMgr(fileName);
+		for (int i = 0; i < RECORD_COUNT; i++)
+			logMgr.append(new Constant[] { new IntegerConstant(0),
+					new BigIntConstant(i) });
+		logMgr.close();
+
+		// The writer is stopped after all the log records are written
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			Assert.assertFalse("testClose failed",
+					thread.getName().equals("LogWriter-" + fileName));
+		LogMgr reopened = new LogMgr(fileName);
+		int count = 0;
+		ReversibleIterator<BasicLogRecord> iter = reopened.iterator();
+		while (iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		reopened.close();
+		Assert.assertEquals("testClose failed", RECORD_COUNT, count);
+	}
+
+	class Committer extends BarrierStartRunner {
+
+		LogMgr logMgr;
+		int id;
+
+		public Committer(CyclicBarrier startBarrier, CyclicBarrier endBarrier,
+				LogMgr logMgr, int id) {
+			super(startBarrier, endBarrier);
+
+			this.logMgr = logMgr;
+			this.id = id;
+		}
+
+		@Override
+		public void runTask() {
+			for (int i = 0; i < RECORD_COUNT; i++) {
+				Constant[] rec = new Constant[] { new IntegerConstant(id),
+						new BigIntConstant(i) };
+				logMgr.flush(logMgr.append(rec));
+			}
+		}
+
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.io.File;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.tx.recovery.LogicalStartRecord;
+import org.vanilladb.core.util.BarrierStartRunner;
+
+import junit.framework.Assert;
+
+public class NVMLogRingBufferConcurrencyTest {
+	private static Logger logger = Logger.getLogger(NVMLogRingBufferConcurrencyTest.class.getName());
+
+	private static final int CLIENT_COUNT = 64;
+	private static final int RECORD_COUNT = 1000;
+	private static final int CAPACITY = 16 * 1024 * 1024;
+
+	private static File file;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(NVMLogRingBufferConcurrencyTest.class);
+		file = new File(FileMgr.getLogDirectoryPath(), "nvmtest.bin");
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN NVM LOG RING BUFFER CONCURRENCY TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH NVM LOG RING BUFFER CONCURRENCY TEST");
+	}
+
+	@Test
+	public void testConcurrentAppending() {
+		if (file.exists())
+			file.delete();
+		NVMLogRingBuffer ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		CyclicBarrier startBarrier = new CyclicBarrier(CLIENT_COUNT);
+		CyclicBarrier endBarrier = new CyclicBarrier(CLIENT_COUNT + 1);
+
+		// Create multiple threads
+		Appender[] appenders = new Appender[CLIENT_COUNT];
+		for (int i = 0; i < CLIENT_COUNT; i++) {
+			appenders[i] = new Appender(startBarrier, endBarrier, ringBuffer, i);
+			appenders[i].start();
+		}
+
+		// Wait for running
+		try {
+			endBarrier.await();
+		} catch (InterruptedException | BrokenBarrierException e) {
+			e.printStackTrace();
+		}
+
+		// Check the results
+		for (Appender appender : appenders)
+			Assert.assertNull("testConcurrentAppending failed",
+					appender.getException());
+		int[] counts = countRecords(ringBuffer);
+		for (int i = 0; i < CLIENT_COUNT; i++)
+			Assert.assertEquals("testConcurrentAppending failed", RECORD_COUNT,
+					counts[i]);
+
+		// The records must be found again after reopening the file
+		long tailLsn = ringBuffer.tailLsn();
+		ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		Assert.assertEquals("testConcurrentAppending failed", tailLsn,
+				ringBuffer.tailLsn());
+		counts = countRecords(ringBuffer);
+		for (int i = 0; i < CLIENT_COUNT; i++)
+			Assert.assertEquals("testConcurrentAppending failed", RECORD_COUNT,
+					counts[i]);
+	}
+
+	private int[] countRecords(NVMLogRingBuffer ringBuffer) {
+		int[] counts = new int[CLIENT_COUNT];
+		for (long lsn = ringBuffer.headLsn(); lsn < ringBuffer.tailLsn(); lsn = ringBuffer
+				.nextLsn(lsn))
+			counts[(int) ringBuffer.get(lsn).txNumber()]++;
+		return counts;
+	}
+
+	class Appender extends BarrierStartRunner {
+
+		NVMLogRingBuffer ringBuffer;
+		long txNum;
+
+		public Appender(CyclicBarrier startBarrier, CyclicBarrier endBarrier,
+				NVMLogRingBuffer ringBuffer, long txNum) {
+			super(startBarrier, endBarrier);
+
+			this.ringBuffer = ringBuffer;
+			this.txNum = txNum;
+		}
+
+		@Override
+		public void runTask() {
+			byte[] payload = NVMLogRingBuffer.serialize(new LogicalStartRecord(txNum));
+			for (int i = 0; i < RECORD_COUNT; i++) {
+				long lsn = ringBuffer.insert(payload);
+				ringBuffer.checkPersistence(lsn);
+				if (ringBuffer.tailLsn() <= lsn)
+					throw new RuntimeException("record " + lsn
+							+ " is not persistent");
+			}
+		}
+
+	}
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.tx.recovery.LogicalStartRecord;
+import org.vanilladb.core.storage.tx.recovery.LogRecord;
+import org.vanilladb.core.storage.tx.recovery.LogRecordCodec;
+import org.vanilladb.core.storage.tx.recovery.ReversibleIterator;
+
+import junit.framework.Assert;
+
+public class NVMLogRingBufferTest {
+	private static Logger logger = Logger.getLogger(NVMLogRingBufferTest.class.getName());
+
+	private static final int CAPACITY = 4096;
+
+	private static File file;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(NVMLogRingBufferTest.class);
+		file = new File(FileMgr.getLogDirectoryPath(), "nvmringtest.bin");
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN NVM LOG RING BUFFER TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH NVM LOG RING BUFFER TEST");
+	}
+
+	@Before
+	public void setup() {
+		if (file.exists())
+			file.delete();
+	}
+
+	@Test
+	public void testOverflow() {
+		NVMLogRingBuffer ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		byte[] payload = NVMLogRingBuffer.serialize(new LogicalStartRecord(1));
+
+		// Fill up the ring buffer
+		long lsn = 0;
+		int count = 0;
+		while ((lsn = ringBuffer.insert(payload)) >= 0) {
+			ringBuffer.checkPersistence(lsn);
+			count++;
+		}
+		Assert.assertTrue("*****NVMLogRingBufferTest: bad overflow",
+				ringBuffer.usedSize() <= ringBuffer.size());
+
+		// The existing records must not be overwritten
+		int found = 0;
+		for (lsn = ringBuffer.headLsn(); lsn < ringBuffer.tailLsn(); lsn = ringBuffer
+				.nextLsn(lsn)) {
+			Assert.assertEquals("*****NVMLogRingBufferTest: bad overflow", 1,
+					ringBuffer.get(lsn).txNumber());
+			found++;
+		}
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad overflow", count,
+				found);
+
+		// Reclaim the space and append again
+		long reclaimed = ringBuffer.moveHeadForward(Collections
+				.<Long> emptyList());
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad head advance",
+				ringBuffer.tailLsn(), reclaimed);
+		Assert.assertTrue("*****NVMLogRingBufferTest: bad head advance",
+				ringBuffer.insert(payload) >= 0);
+	}
+
+	@Test
+	public void testReservedSpace() {
+		NVMLogRingBuffer ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		byte[] payload = NVMLogRingBuffer.serialize(new LogicalStartRecord(1));
+		int reserved = CAPACITY / 4;
+
+		while (ringBuffer.insert(payload, reserved) >= 0)
+			;
+		Assert.assertTrue("*****NVMLogRingBufferTest: bad reserved space",
+				ringBuffer.size() - ringBuffer.usedSize() >= reserved);
+
+		// The reserved space is still available without the restriction
+		Assert.assertTrue("*****NVMLogRingBufferTest: bad reserved space",
+				ringBuffer.insert(payload) >= 0);
+	}
+
+	@Test
+	public void testWrapAround() {
+		NVMLogRingBuffer ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+
+		// Go around the ring a few times
+		for (long txNum = 0; txNum < 3 * CAPACITY / 8; txNum++) {
+			long lsn = ringBuffer.insert(NVMLogRingBuffer
+					.serialize(new LogicalStartRecord(txNum)));
+			if (lsn < 0) {
+				ringBuffer.moveHeadForward(Collections.<Long> emptyList());
+				lsn = ringBuffer.insert(NVMLogRingBuffer
+						.serialize(new LogicalStartRecord(txNum)));
+			}
+			ringBuffer.checkPersistence(lsn);
+			Assert.assertEquals("*****NVMLogRingBufferTest: bad wrap around",
+					txNum, ringBuffer.get(lsn).txNumber());
+		}
+		Assert.assertTrue("*****NVMLogRingBufferTest: bad wrap around",
+				ringBuffer.tailLsn() > CAPACITY);
+
+		// The records must be read backward in order after reopening
+		long tailLsn = ringBuffer.tailLsn();
+		ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad wrap around",
+				tailLsn, ringBuffer.tailLsn());
+		long expected = 3 * CAPACITY / 8 - 1;
+		NVMLogIterator iter = new NVMLogIterator(ringBuffer);
+		while (iter.hasNext())
+			Assert.assertEquals("*****NVMLogRingBufferTest: bad wrap around",
+					expected--, iter.next().txNumber());
+	}
+
+	@Test
+	public void testTxChain() {
+		NVMLogRingBuffer ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		long[] lastLsns = new long[] { -1, -1 };
+
+		// Interleave the log records of two transactions
+		for (int i = 0; i < 10; i++) {
+			int txNum = i % 3 == 0 ? 0 : 1;
+			ByteBuffer payload = ByteBuffer.wrap(NVMLogRingBuffer
+					.serialize(new LogicalStartRecord(txNum)));
+			lastLsns[txNum] = ringBuffer.insert(payload, lastLsns[txNum], 0);
+			ringBuffer.checkPersistence(lastLsns[txNum]);
+		}
+
+		// Each chain must only visit the records of its own transaction
+		int[] expectedCounts = new int[] { 4, 6 };
+		for (int txNum = 0; txNum < 2; txNum++) {
+			int count = 0;
+			long prevLsn = Long.MAX_VALUE;
+			NVMTxLogIterator iter = new NVMTxLogIterator(ringBuffer,
+					lastLsns[txNum]);
+			while (iter.hasNext()) {
+				LogRecord rec = iter.next();
+				Assert.assertEquals("*****NVMLogRingBufferTest: bad tx chain",
+						txNum, rec.txNumber());
+				Assert.assertTrue("*****NVMLogRingBufferTest: bad tx chain",
+						rec.getLSN().val() < prevLsn);
+				prevLsn = rec.getLSN().val();
+				count++;
+			}
+			Assert.assertEquals("*****NVMLogRingBufferTest: bad tx chain",
+					expectedCounts[txNum], count);
+		}
+	}
+
+	@Test
+	public void testDrain() {
+		NVMLogRingBuffer ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		LogMgr logMgr = new LogMgr("nvmdraintest.log");
+		byte[] payload = NVMLogRingBuffer.serialize(new LogicalStartRecord(1));
+		int count = 0;
+		long lsn;
+		while ((lsn = ringBuffer.insert(payload)) >= 0) {
+			ringBuffer.checkPersistence(lsn);
+			count++;
+		}
+
+		// Drain in small batches
+		long frameSize = ringBuffer.nextLsn(0);
+		long drained = ringBuffer.drain(logMgr, frameSize);
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad drain", frameSize,
+				drained);
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad drain", frameSize,
+				ringBuffer.drainedLsn());
+		while (ringBuffer.drain(logMgr, 5 * frameSize) > 0)
+			;
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad drain",
+				ringBuffer.tailLsn(), ringBuffer.drainedLsn());
+
+		// Every log record must be found in the log file, as it was encoded
+		int found = 0;
+		ByteBuffer bytes = null;
+		ReversibleIterator<BasicLogRecord> iter = logMgr.iterator();
+		while (iter.hasNext()) {
+			bytes = iter.next().readBytes(bytes);
+			LogRecord rec = LogRecordCodec.decode(bytes);
+			Assert.assertEquals("*****NVMLogRingBufferTest: bad drain",
+					LogRecord.OP_LOGICAL_START, rec.op());
+			Assert.assertEquals("*****NVMLogRingBufferTest: bad drain", 1,
+					rec.txNumber());
+			found++;
+		}
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad drain", count,
+				found);
+		logMgr.close();
+
+		// The drained LSN survives reopening
+		long drainedLsn = ringBuffer.drainedLsn();
+		ringBuffer = new NVMLogRingBuffer(file, CAPACITY);
+		Assert.assertEquals("*****NVMLogRingBufferTest: bad drain", drainedLsn,
+				ringBuffer.drainedLsn());
+	}
+}
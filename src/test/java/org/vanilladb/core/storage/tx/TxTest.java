@@ -168,12 +168,13 @@ public class TxTest {
 			thC.join();
 		} catch (InterruptedException e) {
 		}
+		// Tx C does not pass the older Tx D waiting for the same block
 		String expected = "Tx A: read 1 start\n" + "Tx A: read 1 end\n"
 				+ "Tx D: write 1 start\n" + "Tx C: read 1 start\n"
-				+ "Tx C: read 1 end\n" + "Tx A: read 2 start\n"
-				+ "Tx A: read 2 end\n" + "Tx C: write 2 start\n"
-				+ "Tx C: write 2 end\n" + "Tx D: write 1 end\n"
-				+ "Tx D: read 2 start\n" + "Tx D: read 2 end\n";
+				+ "Tx A: read 2 start\n" + "Tx A: read 2 end\n"
+				+ "Tx D: write 1 end\n" + "Tx D: read 2 start\n"
+				+ "Tx D: read 2 end\n" + "Tx C: read 1 end\n"
+				+ "Tx C: write 2 start\n" + "Tx C: write 2 end\n";
 		assertEquals("TxTest: bad tx history", expected, result);
 	}
 
@@ -197,6 +198,40 @@ public class TxTest {
 		assertTrue("TxTest: bad tx history", thC.isDeadlockAborted());
 	}
 
+	@Test
+	public void testActiveTransactions() {
+		TransactionMgr txMgr = VanillaDb.txMgr();
+		int count = txMgr.activeTxCount();
+		Transaction tx1 = txMgr.newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, true);
+		Transaction tx2 = txMgr.newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, true);
+		assertEquals("TxTest: bad active tx count", count + 2,
+				txMgr.activeTxCount());
+		assertTrue("TxTest: bad oldest active tx",
+				txMgr.oldestActiveTxNum() <= tx1.getTransactionNumber());
+		tx1.commit();
+		tx2.rollback();
+		assertEquals("TxTest: bad active tx count", count,
+				txMgr.activeTxCount());
+
+		// The txs finding no free slot are still registered
+		ActiveTxRegistry registry = new ActiveTxRegistry(2);
+		for (long txNum = 10; txNum < 15; txNum++)
+			registry.register(txNum);
+		assertEquals("TxTest: bad active tx count", 5, registry.activeCount());
+		assertEquals("TxTest: bad active tx count", 5, registry
+				.activeTxNums().size());
+		assertEquals("TxTest: bad oldest active tx", 10, registry.oldestTxNum());
+		registry.unregister(10);
+		registry.unregister(13);
+		assertEquals("TxTest: bad oldest active tx", 11, registry.oldestTxNum());
+		for (long txNum : new long[] { 11, 12, 14 })
+			registry.unregister(txNum);
+		assertEquals("TxTest: bad active tx count", 0, registry.activeCount());
+		assertEquals("TxTest: bad oldest active tx", -1, registry.oldestTxNum());
+	}
+
 	synchronized static void appendToResult(String s) {
 		result += s + "\n";
 	}
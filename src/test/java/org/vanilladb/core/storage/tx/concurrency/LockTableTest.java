@@ -15,8 +15,15 @@
  ******************************************************************************/
 package org.vanilladb.core.storage.tx.concurrency;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -133,6 +140,78 @@ public class LockTableTest {
 	
 	// TODO: We need a deadlock avoidance test case
 
+	@Test
+	public void testFifoQueue() throws InterruptedException {
+		final List<Long> grantOrder = Collections
+				.synchronizedList(new ArrayList<Long>());
+		final BlockId blk = blocks[2];
+		lockTbl.xLock(blk, txNum1);
+
+		// A writer and then a reader queue up behind the holder
+		Thread writer = new Locker(lockTbl, blk, 10, LockTable.X_LOCK,
+				grantOrder);
+		writer.start();
+		Thread.sleep(100);
+
+		// The reader must not overtake the waiting writer
+		Thread reader = new Locker(lockTbl, blk, 11, LockTable.S_LOCK,
+				grantOrder);
+		reader.start();
+		Thread.sleep(100);
+		assertEquals("*****LockTableTest: bad fifo queue", 0,
+				grantOrder.size());
+
+		lockTbl.releaseAll(txNum1, false);
+		writer.join();
+		reader.join();
+		assertEquals("*****LockTableTest: bad fifo queue", 2,
+				grantOrder.size());
+		assertEquals("*****LockTableTest: bad fifo queue", 10L,
+				(long) grantOrder.get(0));
+		assertEquals("*****LockTableTest: bad fifo queue", 11L,
+				(long) grantOrder.get(1));
+	}
+
+	@Test
+	public void testDeadlockDetection() throws InterruptedException {
+		LockTable detectingTbl = new LockTable(LockTable.DETECTION);
+		List<Long> grantOrder = Collections
+				.synchronizedList(new ArrayList<Long>());
+
+		// An older tx just waits for a younger one if there is no cycle
+		detectingTbl.xLock(blocks[4], 22);
+		Thread older = new Locker(detectingTbl, blocks[4], 21,
+				LockTable.X_LOCK, grantOrder);
+		older.start();
+		Thread.sleep(100);
+		detectingTbl.releaseAll(22, false);
+		older.join();
+		assertEquals("*****LockTableTest: bad deadlock detection", 0,
+				detectingTbl.deadlockAbortCount());
+		assertEquals("*****LockTableTest: bad deadlock detection", 1,
+				grantOrder.size());
+
+		// Only the youngest tx of a cycle is aborted, long before timeout
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		long start = System.currentTimeMillis();
+		Thread t1 = new CrossLocker(detectingTbl, blocks[5], blocks[6], 31,
+				barrier, grantOrder);
+		Thread t2 = new CrossLocker(detectingTbl, blocks[6], blocks[5], 32,
+				barrier, grantOrder);
+		t1.start();
+		t2.start();
+		t1.join();
+		t2.join();
+		assertEquals("*****LockTableTest: bad deadlock detection", 1,
+				detectingTbl.deadlockAbortCount());
+		assertEquals("*****LockTableTest: bad deadlock detection", 2,
+				grantOrder.size());
+		assertEquals("*****LockTableTest: bad deadlock detection", 31L,
+				(long) grantOrder.get(1));
+		assertTrue("*****LockTableTest: bad deadlock detection",
+				System.currentTimeMillis() - start < 500);
+	}
+
 	@Test
 	public void testMultiGranularityLocking() {
 		try {
@@ -242,4 +321,154 @@ public class LockTableTest {
 			fail("*****LockTableTest: bad slocks");
 		}
 	}
+
+	@Test
+	public void testLockEscalation() {
+		String escalatedFile = "_testlockescalation.0";
+		BlockId[] blks = new BlockId[3];
+		for (int i = 0; i < blks.length; i++)
+			blks[i] = new BlockId(escalatedFile, i);
+		LockEscalator escalator = new LockEscalator(lockTbl, txNum1,
+				LockTable.X_LOCK, 4, 10);
+
+		// The record locks in a block are escalated beyond the threshold
+		for (int i = 0; i < 4; i++)
+			escalator.lock(new RecordId(blks[0], i));
+		assertEquals("*****LockTableTest: bad lock escalation", 6,
+				lockTbl.lockedItemCount(txNum1));
+		escalator.lock(new RecordId(blks[0], 4));
+		assertEquals("*****LockTableTest: bad lock escalation", 2,
+				lockTbl.lockedItemCount(txNum1));
+		assertTrue("*****LockTableTest: bad lock escalation",
+				escalator.covers(new RecordId(blks[0], 9)));
+		try {
+			lockTbl.isLock(blks[0], txNum2);
+			fail("*****LockTableTest: islock allowed after lock escalation");
+		} catch (LockAbortException e) {
+		}
+
+		// So are the record locks in a file
+		for (int i = 0; i < 4; i++)
+			escalator.lock(new RecordId(blks[1], i));
+		escalator.lock(new RecordId(blks[2], 0));
+		assertEquals("*****LockTableTest: bad lock escalation", 9,
+				lockTbl.lockedItemCount(txNum1));
+		escalator.lock(new RecordId(blks[2], 1));
+		assertEquals("*****LockTableTest: bad lock escalation", 4,
+				lockTbl.lockedItemCount(txNum1));
+		assertTrue("*****LockTableTest: bad lock escalation",
+				escalator.covers(new RecordId(new BlockId(escalatedFile, 7), 0)));
+		try {
+			lockTbl.isLock(escalatedFile, txNum2);
+			fail("*****LockTableTest: islock allowed after lock escalation");
+		} catch (LockAbortException e) {
+		}
+		lockTbl.releaseAll(txNum1, false);
+		lockTbl.releaseAll(txNum2, false);
+	}
+
+	@Test
+	public void testLockEscalationWithIntentionHolder() {
+		String escalatedFile = "_testlockescalation.1";
+		BlockId blk = new BlockId(escalatedFile, 0);
+		LockEscalator escalator = new LockEscalator(lockTbl, txNum1,
+				LockTable.X_LOCK, 4, 100);
+
+		// Another tx is updating some other record in the block
+		lockTbl.ixLock(escalatedFile, txNum2);
+		lockTbl.ixLock(blk, txNum2);
+		lockTbl.xLock(new RecordId(blk, 20), txNum2);
+
+		// The escalation neither waits nor wounds the intention holder
+		for (int i = 0; i < 5; i++)
+			escalator.lock(new RecordId(blk, i));
+		assertEquals("*****LockTableTest: bad lock escalation", 7,
+				lockTbl.lockedItemCount(txNum1));
+		assertTrue("*****LockTableTest: bad lock escalation",
+				!escalator.covers(new RecordId(blk, 9)));
+		try {
+			lockTbl.xLock(new RecordId(blk, 21), txNum2);
+		} catch (LockAbortException e) {
+			fail("*****LockTableTest: intention holder aborted by lock escalation");
+		}
+		lockTbl.releaseAll(txNum2, false);
+
+		// The escalation is retried at the raised threshold
+		for (int i = 5; i < 9; i++)
+			escalator.lock(new RecordId(blk, i));
+		assertEquals("*****LockTableTest: bad lock escalation", 11,
+				lockTbl.lockedItemCount(txNum1));
+		escalator.lock(new RecordId(blk, 9));
+		assertEquals("*****LockTableTest: bad lock escalation", 2,
+				lockTbl.lockedItemCount(txNum1));
+		assertTrue("*****LockTableTest: bad lock escalation",
+				escalator.covers(new RecordId(blk, 30)));
+		lockTbl.releaseAll(txNum1, false);
+	}
+
+	class Locker extends Thread {
+		LockTable lockTbl;
+		Object obj;
+		long txNum;
+		int lockType;
+		List<Long> grantOrder;
+
+		Locker(LockTable lockTbl, Object obj, long txNum, int lockType,
+				List<Long> grantOrder) {
+			this.lockTbl = lockTbl;
+			this.obj = obj;
+			this.txNum = txNum;
+			this.lockType = lockType;
+			this.grantOrder = grantOrder;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (lockType == LockTable.X_LOCK)
+					lockTbl.xLock(obj, txNum);
+				else
+					lockTbl.sLock(obj, txNum);
+				grantOrder.add(txNum);
+				Thread.sleep(50);
+			} catch (LockAbortException | InterruptedException e) {
+				// leave the order incomplete
+			} finally {
+				lockTbl.releaseAll(txNum, false);
+			}
+		}
+	}
+
+	class CrossLocker extends Thread {
+		LockTable lockTbl;
+		Object first, second;
+		long txNum;
+		CyclicBarrier barrier;
+		List<Long> grantOrder;
+
+		CrossLocker(LockTable lockTbl, Object first, Object second,
+				long txNum, CyclicBarrier barrier, List<Long> grantOrder) {
+			this.lockTbl = lockTbl;
+			this.first = first;
+			this.second = second;
+			this.txNum = txNum;
+			this.barrier = barrier;
+			this.grantOrder = grantOrder;
+		}
+
+		@Override
+		public void run() {
+			try {
+				lockTbl.xLock(first, txNum);
+				barrier.await();
+				lockTbl.xLock(second, txNum);
+				grantOrder.add(txNum);
+			} catch (LockAbortException | InterruptedException
+					| BrokenBarrierException e) {
+				// leave the order incomplete
+			} finally {
+				lockTbl.releaseAll(txNum, false);
+			}
+		}
+	}
 }
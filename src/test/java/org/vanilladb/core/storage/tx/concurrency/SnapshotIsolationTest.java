@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.vanilladb.core.sql.Type.INTEGER;
+
+import java.sql.Connection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.metadata.TableInfo;
+import org.vanilladb.core.storage.record.RecordFormatter;
+import org.vanilladb.core.storage.record.RecordPage;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.TransactionMgr;
+
+public class SnapshotIsolationTest {
+	private static Logger logger = Logger.getLogger(SnapshotIsolationTest.class
+			.getName());
+
+	private static TableInfo ti;
+	private static BlockId blk;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(SnapshotIsolationTest.class);
+
+		Schema schema = new Schema();
+		schema.addField("cid", INTEGER);
+		ti = new TableInfo("_testsnapshot" + System.currentTimeMillis(), schema);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN SNAPSHOT ISOLATION TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH SNAPSHOT ISOLATION TEST");
+	}
+
+	@Before
+	public void setup() {
+		// Each test starts with a committed record of value 1
+		Transaction tx = newTransaction(Connection.TRANSACTION_SERIALIZABLE,
+				false);
+		Buffer buff = tx.bufferMgr().pinNew(ti.fileName(),
+				new RecordFormatter(ti));
+		blk = buff.block();
+		tx.bufferMgr().unpin(buff);
+		RecordPage rp = new RecordPage(blk, ti, tx, true);
+		rp.insertIntoNextEmptySlot();
+		rp.setVal("cid", new IntegerConstant(1));
+		rp.close();
+		tx.commit();
+	}
+
+	@Test
+	public void testSnapshotRead() {
+		Transaction reader = newTransaction(
+				TransactionMgr.TRANSACTION_SNAPSHOT, true);
+
+		// Update the record and insert another one without committing
+		Transaction writer = newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		RecordPage rp = new RecordPage(blk, ti, writer, true);
+		rp.next();
+		rp.setVal("cid", new IntegerConstant(2));
+		rp.insertIntoNextEmptySlot();
+		rp.setVal("cid", new IntegerConstant(3));
+		rp.close();
+
+		// The reader is not blocked by the writer
+		assertValues("*****SnapshotIsolationTest: bad snapshot read", reader, 1);
+		writer.commit();
+		assertValues("*****SnapshotIsolationTest: bad snapshot read", reader, 1);
+		reader.commit();
+
+		reader = newTransaction(TransactionMgr.TRANSACTION_SNAPSHOT, true);
+		assertValues("*****SnapshotIsolationTest: bad snapshot read", reader,
+				2, 3);
+		reader.commit();
+	}
+
+	@Test
+	public void testRollback() {
+		Transaction reader = newTransaction(
+				TransactionMgr.TRANSACTION_SNAPSHOT, true);
+		Transaction writer = newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		RecordPage rp = new RecordPage(blk, ti, writer, true);
+		rp.next();
+		rp.setVal("cid", new IntegerConstant(2));
+		rp.close();
+		writer.rollback();
+
+		assertValues("*****SnapshotIsolationTest: bad rollback", reader, 1);
+		reader.commit();
+		reader = newTransaction(TransactionMgr.TRANSACTION_SNAPSHOT, true);
+		assertValues("*****SnapshotIsolationTest: bad rollback", reader, 1);
+		reader.commit();
+	}
+
+	@Test
+	public void testFirstUpdaterWins() {
+		Transaction tx1 = newTransaction(TransactionMgr.TRANSACTION_SNAPSHOT,
+				false);
+		Transaction tx2 = newTransaction(TransactionMgr.TRANSACTION_SNAPSHOT,
+				false);
+
+		RecordPage rp = new RecordPage(blk, ti, tx2, true);
+		rp.next();
+		rp.setVal("cid", new IntegerConstant(2));
+		rp.close();
+		tx2.commit();
+
+		// The record has been modified after the snapshot of tx1
+		rp = new RecordPage(blk, ti, tx1, true);
+		rp.next();
+		assertEquals("*****SnapshotIsolationTest: bad first updater wins",
+				new IntegerConstant(1), rp.getVal("cid"));
+		try {
+			rp.setVal("cid", new IntegerConstant(3));
+			fail("*****SnapshotIsolationTest: bad first updater wins");
+		} catch (LockAbortException e) {
+		}
+		rp.close();
+
+		Transaction reader = newTransaction(
+				TransactionMgr.TRANSACTION_SNAPSHOT, true);
+		assertValues("*****SnapshotIsolationTest: bad first updater wins",
+				reader, 2);
+		reader.commit();
+	}
+
+	@Test
+	public void testGarbageCollection() {
+		Transaction reader = newTransaction(
+				TransactionMgr.TRANSACTION_SNAPSHOT, true);
+		Transaction writer = newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		RecordPage rp = new RecordPage(blk, ti, writer, true);
+		rp.next();
+		rp.setVal("cid", new IntegerConstant(2));
+		rp.close();
+		writer.commit();
+
+		// The versions needed by the active snapshot are kept
+		ConcurrencyMgr.versionMgr.collectGarbage();
+		assertValues("*****SnapshotIsolationTest: bad garbage collection",
+				reader, 1);
+		reader.commit();
+
+		ConcurrencyMgr.versionMgr.collectGarbage();
+		assertEquals("*****SnapshotIsolationTest: bad garbage collection", 0,
+				ConcurrencyMgr.versionMgr.versionCount());
+	}
+
+	private static Transaction newTransaction(int isolationLevel,
+			boolean readOnly) {
+		return VanillaDb.txMgr().newTransaction(isolationLevel, readOnly);
+	}
+
+	private static void assertValues(String message, Transaction tx,
+			int... expected) {
+		RecordPage rp = new RecordPage(blk, ti, tx, true);
+		for (int val : expected) {
+			assertTrue(message, rp.next());
+			assertEquals(message, new IntegerConstant(val), rp.getVal("cid"));
+		}
+		assertFalse(message, rp.next());
+		rp.close();
+	}
+}
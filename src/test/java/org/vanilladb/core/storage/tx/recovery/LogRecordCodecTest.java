@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VarcharConstant;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.LogSeqNum;
+
+import junit.framework.Assert;
+
+public class LogRecordCodecTest {
+	private static Logger logger = Logger.getLogger(LogRecordCodecTest.class.getName());
+
+	private static BlockId blk = new BlockId("_temp_codectest", 13);
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(LogRecordCodecTest.class);
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN LOG RECORD CODEC TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH LOG RECORD CODEC TEST");
+	}
+
+	@Test
+	public void testRoundTrip() {
+		LogRecord[] recs = new LogRecord[] {
+				new StartRecord(1),
+				new SetValueRecord(1, blk, 0, new IntegerConstant(-5),
+						new IntegerConstant(7)),
+				new SetValueRecord(1, blk, 40, new BigIntConstant(1L << 40),
+						new BigIntConstant(-1)),
+				new SetValueRecord(1, blk, 80, new DoubleConstant(3.5),
+						new DoubleConstant(-0.25)),
+				new SetValueRecord(1, blk, 120, new VarcharConstant("old"),
+						new VarcharConstant("a longer new value")),
+				new SetValueRecord(1, blk, 160, new VarcharConstant(""),
+						new VarcharConstant("caf\u00e9 \u6578\u64da")),
+				new SetValueClr(1, blk, 0, new IntegerConstant(7),
+						new IntegerConstant(-5), new LogSeqNum(-1)),
+				new SetValueClr(1, blk, 0, new IntegerConstant(7),
+						new IntegerConstant(-5), new LogSeqNum(123456789L)),
+				new LogicalStartRecord(1),
+				new LogicalAbortRecord(1, new LogSeqNum(42)),
+				new CheckpointRecord(Arrays.asList(1L, 3L), new LogSeqNum(77)),
+				new CheckpointRecord(Arrays.asList(5L), new LogSeqNum(80),
+						new LogSeqNum(91)),
+				new CheckpointRecord(),
+				new RecordFileInsertEndRecord(1, "tbl", 3, 9, new LogSeqNum(50)),
+				new RecordFileDeleteEndRecord(1, "tbl", 3, 9, new LogSeqNum(51)),
+				new IndexInsertEndRecord(1, "tbl", "fld", new VarcharConstant(
+						"key"), 3, 9, new LogSeqNum(52)),
+				new IndexDeleteEndRecord(1, "tbl", "fld", new BigIntConstant(
+						-8), 3, 9, new LogSeqNum(53)),
+				new IndexPageInsertRecord(1, "idx", true, Type.INTEGER, 4, 2),
+				new IndexPageDeleteRecord(1, "idx", false, Type.DOUBLE, 4, 2),
+				new IndexPageInsertClr(1, "idx", false, Type.BIGINT, 4, 2,
+						new LogSeqNum(60)),
+				new IndexPageDeleteClr(1, "idx", true, Type.VARCHAR, 4, 2,
+						new LogSeqNum(61)),
+				new RollbackRecord(1), new CommitRecord(Long.MAX_VALUE) };
+
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		for (LogRecord rec : recs)
+			LogRecordCodec.encode(rec, buf);
+		buf.flip();
+		for (LogRecord rec : recs) {
+			int pos = buf.position();
+			Assert.assertEquals("*****LogRecordCodecTest: bad op", rec.op(),
+					LogRecordCodec.peekOp(buf));
+			buf.position(pos);
+			LogRecord decoded = LogRecordCodec.decode(buf);
+			Assert.assertEquals("*****LogRecordCodecTest: bad round trip",
+					rec.getClass(), decoded.getClass());
+			Assert.assertEquals("*****LogRecordCodecTest: bad round trip",
+					rec.buildRecord(), decoded.buildRecord());
+		}
+		Assert.assertFalse("*****LogRecordCodecTest: bad round trip",
+				buf.hasRemaining());
+	}
+
+	@Test
+	public void testCompactness() {
+		LogRecord rec = new SetValueRecord(1, blk, 0, new IntegerConstant(1),
+				new IntegerConstant(2));
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		LogRecordCodec.encode(rec, buf);
+		int size = 0;
+		for (Constant val : rec.buildRecord())
+			size += val.size();
+		Assert.assertTrue("*****LogRecordCodecTest: bad compactness",
+				buf.position() < size);
+	}
+
+	@Test
+	public void testZeroAllocation() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+			return;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!bean.isThreadAllocatedMemorySupported()
+				|| !bean.isThreadAllocatedMemoryEnabled())
+			return;
+
+		LogRecord[] recs = new LogRecord[] {
+				new SetValueRecord(1, blk, 0, new IntegerConstant(1),
+						new IntegerConstant(2)),
+				new SetValueRecord(1, blk, 40, new VarcharConstant("old"),
+						new VarcharConstant("new")),
+				new IndexPageInsertRecord(1, "idx", true, Type.INTEGER, 4, 2),
+				new CommitRecord(1) };
+		int count = 10000;
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		// Warm up, so class loading is not counted
+		for (int i = 0; i < count; i++) {
+			buf.clear();
+			LogRecordCodec.encode(recs[i % recs.length], buf);
+		}
+
+		long tid = Thread.currentThread().getId();
+		long before = bean.getThreadAllocatedBytes(tid);
+		for (int i = 0; i < count; i++) {
+			buf.clear();
+			LogRecordCodec.encode(recs[i % recs.length], buf);
+		}
+		long allocated = bean.getThreadAllocatedBytes(tid) - before;
+		Assert.assertTrue("*****LogRecordCodecTest: bad allocation "
+				+ allocated, allocated < count);
+	}
+
+	@Test
+	public void testOverflow() {
+		LogRecord rec = new SetValueRecord(1, blk, 0, new VarcharConstant(
+				"a value that does not fit"), new VarcharConstant(""));
+		try {
+			LogRecordCodec.encode(rec, ByteBuffer.allocate(8));
+			Assert.fail("*****LogRecordCodecTest: bad overflow");
+		} catch (BufferOverflowException e) {
+		}
+	}
+}
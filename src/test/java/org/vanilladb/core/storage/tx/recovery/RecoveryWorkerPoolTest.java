@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2016 vanilladb.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import static org.junit.Assert.assertTrue;
+import static org.vanilladb.core.sql.Type.INTEGER;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vanilladb.core.server.ServerInit;
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+public class RecoveryWorkerPoolTest {
+	private static Logger logger = Logger.getLogger(RecoveryWorkerPoolTest.class.getName());
+
+	private static final String FILE_NAME = "recoveryworkerpooltest.0";
+	private static final int BLOCK_COUNT = 4;
+	private static final int TX_COUNT = 6;
+	private static final int SLOTS_PER_TX = 10;
+	private static final int STEP_COUNT = 240;
+	private static final int INIT_VAL = -1;
+
+	private static BlockId[] blks = new BlockId[BLOCK_COUNT];
+	private static Transaction[] txs = new Transaction[TX_COUNT];
+	// the set value records of all txs, in the log order
+	private static List<LogRecord> recs;
+
+	@BeforeClass
+	public static void init() {
+		ServerInit.init(RecoveryWorkerPoolTest.class);
+		for (int i = 0; i < BLOCK_COUNT; i++)
+			blks[i] = new BlockId(FILE_NAME, i);
+		for (int i = 0; i < TX_COUNT; i++)
+			txs[i] = VanillaDb.txMgr().newTransaction(
+					Connection.TRANSACTION_SERIALIZABLE, false);
+		recs = logInterleavedRecords();
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("BEGIN RECOVERY WORKER POOL TEST");
+	}
+
+	@AfterClass
+	public static void finish() {
+		for (Transaction tx : txs)
+			tx.commit();
+
+		if (logger.isLoggable(Level.INFO))
+			logger.info("FINISH RECOVERY WORKER POOL TEST");
+	}
+
+	@Test
+	public void testParallelReplay() {
+		// The odd txs are the losers to be undone
+		int[] expected = new int[BLOCK_COUNT * TX_COUNT * SLOTS_PER_TX];
+		Arrays.fill(expected, INIT_VAL);
+		for (LogRecord rec : recs) {
+			SetValueRecord setVal = (SetValueRecord) rec;
+			if (!isLoser(rec.txNumber()))
+				expected[indexOf(setVal.block(), setVal.offset())] = (Integer) setVal
+						.newVal().asJavaVal();
+		}
+
+		int[] serial = replay(1, 16);
+		assertTrue("*****RecoveryWorkerPoolTest: bad serial replay",
+				Arrays.equals(expected, serial));
+		int[] parallel = replay(4, 16);
+		assertTrue("*****RecoveryWorkerPoolTest: bad parallel replay",
+				Arrays.equals(serial, parallel));
+	}
+
+	/**
+	 * Logs the modifications of the txs interleaved with each other. Every tx
+	 * touches all the blocks, but only its own slots in them, as the locks
+	 * held until the losers crashed would require.
+	 */
+	private static List<LogRecord> logInterleavedRecords() {
+		List<LogRecord> logged = new ArrayList<LogRecord>();
+		Map<Integer, Integer> vals = new HashMap<Integer, Integer>();
+		for (int step = 0; step < STEP_COUNT; step++) {
+			int txIdx = step % TX_COUNT;
+			int round = step / TX_COUNT;
+			BlockId blk = blks[(round + txIdx) % BLOCK_COUNT];
+			int offset = slotOffset(txIdx, round % SLOTS_PER_TX);
+			int index = indexOf(blk, offset);
+			Integer oldVal = vals.get(index);
+			Constant val = new IntegerConstant(oldVal == null ? INIT_VAL
+					: oldVal);
+			// Writing the record also keeps its LSN for the CLR of the undo
+			LogRecord rec = new SetValueRecord(
+					txs[txIdx].getTransactionNumber(), blk, offset, val,
+					new IntegerConstant(step));
+			rec.writeToLog();
+			logged.add(rec);
+			vals.put(index, step);
+		}
+		return logged;
+	}
+
+	/**
+	 * Redoes all the records and then undoes the ones of the losers, like the
+	 * recovery does, and returns the resulting values of the slots.
+	 */
+	private int[] replay(int threads, int batchSize) {
+		reset();
+		Transaction tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		RecoveryWorkerPool pool = new RecoveryWorkerPool(tx, false, threads,
+				batchSize);
+		try {
+			for (LogRecord rec : recs)
+				pool.dispatch(rec, ((SetValueRecord) rec).block().hashCode());
+		} finally {
+			pool.close();
+		}
+		pool = new RecoveryWorkerPool(tx, true, threads, batchSize);
+		try {
+			for (int i = recs.size() - 1; i >= 0; i--) {
+				LogRecord rec = recs.get(i);
+				if (isLoser(rec.txNumber()))
+					pool.dispatch(rec, rec.txNumber());
+			}
+		} finally {
+			pool.close();
+		}
+
+		int[] result = new int[BLOCK_COUNT * TX_COUNT * SLOTS_PER_TX];
+		for (BlockId blk : blks) {
+			Buffer buff = tx.bufferMgr().pin(blk);
+			for (int txIdx = 0; txIdx < TX_COUNT; txIdx++)
+				for (int slot = 0; slot < SLOTS_PER_TX; slot++) {
+					int offset = slotOffset(txIdx, slot);
+					result[indexOf(blk, offset)] = (Integer) buff.getVal(
+							offset, INTEGER).asJavaVal();
+				}
+			tx.bufferMgr().unpin(buff);
+		}
+		tx.commit();
+		return result;
+	}
+
+	/**
+	 * Writes the initial value to every slot, as the state before the crash.
+	 */
+	private void reset() {
+		Transaction tx = VanillaDb.txMgr().newTransaction(
+				Connection.TRANSACTION_SERIALIZABLE, false);
+		long txNum = tx.getTransactionNumber();
+		for (BlockId blk : blks) {
+			Buffer buff = tx.bufferMgr().pin(blk);
+			for (int txIdx = 0; txIdx < TX_COUNT; txIdx++)
+				for (int slot = 0; slot < SLOTS_PER_TX; slot++)
+					buff.setVal(slotOffset(txIdx, slot), new IntegerConstant(
+							INIT_VAL), txNum, null);
+			tx.bufferMgr().unpin(buff);
+		}
+		tx.bufferMgr().flushAll(txNum);
+		tx.commit();
+	}
+
+	private static int slotOffset(int txIdx, int slot) {
+		return (txIdx * SLOTS_PER_TX + slot) * Integer.SIZE / Byte.SIZE;
+	}
+
+	private static int indexOf(BlockId blk, int offset) {
+		return (int) blk.number() * TX_COUNT * SLOTS_PER_TX + offset
+				/ (Integer.SIZE / Byte.SIZE);
+	}
+
+	private static boolean isLoser(long txNum) {
+		for (int i = 1; i < TX_COUNT; i += 2)
+			if (txs[i].getTransactionNumber() == txNum)
+				return true;
+		return false;
+	}
+}